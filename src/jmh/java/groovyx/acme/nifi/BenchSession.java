@@ -0,0 +1,342 @@
+package groovyx.acme.nifi;
+
+import org.apache.nifi.controller.queue.QueueSize;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.io.StreamCallback;
+import org.apache.nifi.provenance.ProvenanceReporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * lightweight in-memory ProcessSession stand-in for benchmarks.
+ * content of input flowfiles is read directly from the shared payload array without copying,
+ * written content is only counted and discarded so the session itself adds almost nothing to the measured time and allocation.
+ * methods not used by workers throw UnsupportedOperationException.
+ */
+public class BenchSession implements ProcessSession {
+    private final ArrayDeque<FlowFile> queue = new ArrayDeque<>();
+    private long nextId = 0;
+    /** number of bytes written by workers since the last `reset()` */
+    public long bytesWritten = 0;
+    /** number of flowfiles transferred since the last `reset()` */
+    public int transferred = 0;
+    /** number of flowfiles removed since the last `reset()` */
+    public int removed = 0;
+
+    /**
+     * puts a new flowfile with `content` into input queue
+     * @param content flowfile content. the array is not copied.
+     * @param attributes flowfile attributes
+     * @return this session
+     */
+    public BenchSession enqueue(byte[] content, Map<String,String> attributes){
+        queue.add(new BenchFlowFile(++nextId, attributes, content, content.length));
+        return this;
+    }
+
+    /**
+     * clears the input queue and statistics
+     */
+    public void reset(){
+        queue.clear();
+        bytesWritten = 0;
+        transferred = 0;
+        removed = 0;
+    }
+
+    /** immutable flowfile: every modification creates a new instance the same as in real session */
+    static class BenchFlowFile implements FlowFile {
+        final long id;
+        final Map<String,String> attributes;
+        final byte[] content; //null when content was written by worker
+        final long size;
+
+        BenchFlowFile(long id, Map<String,String> attributes, byte[] content, long size){
+            this.id = id;
+            this.attributes = attributes;
+            this.content = content;
+            this.size = size;
+        }
+
+        @Override public long getId() { return id; }
+        @Override public long getEntryDate() { return 0; }
+        @Override public long getLineageStartDate() { return 0; }
+        @Override public long getLineageStartIndex() { return 0; }
+        @Override public Long getLastQueueDate() { return null; }
+        @Override public long getQueueDateIndex() { return 0; }
+        @Override public boolean isPenalized() { return false; }
+        @Override public String getAttribute(String key) { return attributes.get(key); }
+        @Override public long getSize() { return size; }
+        @Override public Map<String, String> getAttributes() { return Collections.unmodifiableMap(attributes); }
+        @Override public int compareTo(FlowFile o) { return Long.compare(id, o.getId()); }
+    }
+
+    private static BenchFlowFile bff(FlowFile f){
+        return (BenchFlowFile)f;
+    }
+
+    private InputStream open(FlowFile f){
+        byte[] content = bff(f).content;
+        if(content==null)throw new UnsupportedOperationException("The content written in benchmark session is not stored");
+        return new ByteArrayInputStream(content);
+    }
+
+    /** output stream that counts and discards written bytes */
+    private static class CountingSink extends OutputStream {
+        long count = 0;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count+=len; }
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void rollback() {}
+
+    @Override
+    public void rollback(boolean penalize) {}
+
+    @Override
+    public void migrate(ProcessSession newOwner, Collection<FlowFile> flowFiles) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void adjustCounter(String name, long delta, boolean immediate) {}
+
+    @Override
+    public FlowFile get() {
+        return queue.poll();
+    }
+
+    @Override
+    public List<FlowFile> get(int maxResults) {
+        List<FlowFile> list = new ArrayList<>();
+        while(list.size()<maxResults && !queue.isEmpty())list.add(queue.poll());
+        return list;
+    }
+
+    @Override
+    public List<FlowFile> get(FlowFileFilter filter) {
+        List<FlowFile> list = new ArrayList<>();
+        while(!queue.isEmpty()){
+            FlowFileFilter.FlowFileFilterResult r = filter.filter(queue.peek());
+            if(!r.isAccept())break;
+            list.add(queue.poll());
+            if(!r.isContinue())break;
+        }
+        return list;
+    }
+
+    @Override
+    public QueueSize getQueueSize() {
+        long bytes = 0;
+        for(FlowFile f : queue)bytes+=f.getSize();
+        return new QueueSize(queue.size(), bytes);
+    }
+
+    @Override
+    public FlowFile create() {
+        return new BenchFlowFile(++nextId, new HashMap<String,String>(), new byte[0], 0);
+    }
+
+    @Override
+    public FlowFile create(FlowFile parent) {
+        return new BenchFlowFile(++nextId, new HashMap<>(parent.getAttributes()), new byte[0], 0);
+    }
+
+    @Override
+    public FlowFile create(Collection<FlowFile> parents) {
+        return create();
+    }
+
+    @Override
+    public FlowFile clone(FlowFile example) {
+        return new BenchFlowFile(++nextId, bff(example).attributes, bff(example).content, example.getSize());
+    }
+
+    @Override
+    public FlowFile clone(FlowFile parent, long offset, long size) {
+        byte[] content = bff(parent).content;
+        if(content==null)throw new UnsupportedOperationException("The content written in benchmark session is not stored");
+        byte[] slice = new byte[(int)size];
+        System.arraycopy(content, (int)offset, slice, 0, (int)size);
+        return new BenchFlowFile(++nextId, bff(parent).attributes, slice, size);
+    }
+
+    @Override
+    public FlowFile penalize(FlowFile flowFile) {
+        return flowFile;
+    }
+
+    @Override
+    public FlowFile putAttribute(FlowFile flowFile, String key, String value) {
+        return putAllAttributes(flowFile, Collections.singletonMap(key, value));
+    }
+
+    @Override
+    public FlowFile putAllAttributes(FlowFile flowFile, Map<String, String> attributes) {
+        Map<String,String> a = new HashMap<>(bff(flowFile).attributes);
+        a.putAll(attributes);
+        return new BenchFlowFile(flowFile.getId(), a, bff(flowFile).content, flowFile.getSize());
+    }
+
+    @Override
+    public FlowFile removeAttribute(FlowFile flowFile, String key) {
+        return removeAllAttributes(flowFile, Collections.singleton(key));
+    }
+
+    @Override
+    public FlowFile removeAllAttributes(FlowFile flowFile, Set<String> keys) {
+        Map<String,String> a = new HashMap<>(bff(flowFile).attributes);
+        a.keySet().removeAll(keys);
+        return new BenchFlowFile(flowFile.getId(), a, bff(flowFile).content, flowFile.getSize());
+    }
+
+    @Override
+    public FlowFile removeAllAttributes(FlowFile flowFile, Pattern keyPattern) {
+        Map<String,String> a = new HashMap<>(bff(flowFile).attributes);
+        for(Iterator<String> i = a.keySet().iterator(); i.hasNext();){
+            if(keyPattern.matcher(i.next()).matches())i.remove();
+        }
+        return new BenchFlowFile(flowFile.getId(), a, bff(flowFile).content, flowFile.getSize());
+    }
+
+    @Override
+    public void transfer(FlowFile flowFile, Relationship relationship) {
+        transferred++;
+    }
+
+    @Override
+    public void transfer(FlowFile flowFile) {
+        transferred++;
+    }
+
+    @Override
+    public void transfer(Collection<FlowFile> flowFiles) {
+        transferred+=flowFiles.size();
+    }
+
+    @Override
+    public void transfer(Collection<FlowFile> flowFiles, Relationship relationship) {
+        transferred+=flowFiles.size();
+    }
+
+    @Override
+    public void remove(FlowFile flowFile) {
+        removed++;
+    }
+
+    @Override
+    public void remove(Collection<FlowFile> flowFiles) {
+        removed+=flowFiles.size();
+    }
+
+    @Override
+    public void read(FlowFile source, InputStreamCallback reader) {
+        read(source, false, reader);
+    }
+
+    @Override
+    public InputStream read(FlowFile flowFile) {
+        return open(flowFile);
+    }
+
+    @Override
+    public void read(FlowFile source, boolean allowSessionStreamManagement, InputStreamCallback reader) {
+        try(InputStream in = open(source)){
+            reader.process(in);
+        }catch (IOException e){
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    @Override
+    public FlowFile merge(Collection<FlowFile> sources, FlowFile destination) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowFile merge(Collection<FlowFile> sources, FlowFile destination, byte[] header, byte[] footer, byte[] demarcator) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowFile write(FlowFile source, OutputStreamCallback writer) {
+        CountingSink out = new CountingSink();
+        try {
+            writer.process(out);
+        }catch (IOException e){
+            throw new RuntimeException(e.toString(), e);
+        }
+        bytesWritten+=out.count;
+        return new BenchFlowFile(source.getId(), bff(source).attributes, null, out.count);
+    }
+
+    @Override
+    public OutputStream write(FlowFile source) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowFile write(FlowFile source, StreamCallback writer) {
+        CountingSink out = new CountingSink();
+        try(InputStream in = open(source)) {
+            writer.process(in, out);
+        }catch (IOException e){
+            throw new RuntimeException(e.toString(), e);
+        }
+        bytesWritten+=out.count;
+        return new BenchFlowFile(source.getId(), bff(source).attributes, null, out.count);
+    }
+
+    @Override
+    public FlowFile append(FlowFile source, OutputStreamCallback writer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowFile importFrom(Path source, boolean keepSourceFile, FlowFile destination) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FlowFile importFrom(InputStream source, FlowFile destination) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void exportTo(FlowFile flowFile, Path destination, boolean append) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void exportTo(FlowFile flowFile, OutputStream destination) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ProvenanceReporter getProvenanceReporter() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,84 @@
+package groovyx.acme.nifi;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * generators of benchmark payloads of approximate size. the same record structure as in EXAMPLES.md is used for json, xml and text.
+ */
+public final class Payloads {
+    private Payloads(){}
+
+    private static final String[] PHRASES = {"carpe vinum", "dulce periculum", "ad astra per aspera", "veni vidi vici", "\u0436\u0438\u0442\u0438 \u0434\u043e\u0431\u0440\u0435"};
+
+    /**
+     * @param size approximate size in bytes
+     * @return {@code {"message":{"name":..., "data":[{"id":..,"txt":..,"price":..,"flag":..},...]}}}
+     */
+    public static byte[] json(int size){
+        StringBuilder s = new StringBuilder(size+256);
+        s.append("{\"message\":{\"name\":\"strange phrases\",\"data\":[");
+        for(int i=0; s.length()<size; i++){
+            if(i>0)s.append(',');
+            s.append("{\"id\":").append(i).append(",\"txt\":\"").append(PHRASES[i%PHRASES.length])
+                .append("\",\"price\":").append(i*1.25).append(",\"flag\":").append(i%2==0).append('}');
+        }
+        s.append("]}}");
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param size approximate size in bytes
+     * @return json lines {@code {"id":..,"txt":..,"price":..,"flag":..}}
+     */
+    public static byte[] jsonLines(int size){
+        StringBuilder s = new StringBuilder(size+256);
+        for(int i=0; s.length()<size; i++){
+            s.append("{\"id\":").append(i).append(",\"txt\":\"").append(PHRASES[i%PHRASES.length])
+                .append("\",\"price\":").append(i*1.25).append(",\"flag\":").append(i%2==0).append("}\n");
+        }
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param size approximate size in bytes
+     * @return {@code <message><name>..</name><data><item id=".."><txt>..</txt></item>...</data></message>}
+     */
+    public static byte[] xml(int size){
+        StringBuilder s = new StringBuilder(size+256);
+        s.append("<message>\n  <name>strange phrases</name>\n  <data>\n");
+        for(int i=0; s.length()<size; i++){
+            s.append("    <item id=\"").append(i).append("\" flag=\"").append(i%2==0).append("\"><txt>")
+                .append(PHRASES[i%PHRASES.length]).append("</txt><price>").append(i*1.25).append("</price></item>\n");
+        }
+        s.append("  </data>\n</message>\n");
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param size approximate size in bytes
+     * @return text lines {@code id;txt;price}
+     */
+    public static byte[] text(int size){
+        StringBuilder s = new StringBuilder(size+256);
+        for(int i=0; s.length()<size; i++){
+            s.append(i).append(';').append(PHRASES[i%PHRASES.length]).append(';').append(i*1.25).append('\n');
+        }
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param size approximate size in bytes
+     * @return csv with header {@code id,txt,price,flag}. every third txt is quoted.
+     */
+    public static byte[] csv(int size){
+        StringBuilder s = new StringBuilder(size+256);
+        s.append("id,txt,price,flag\n");
+        for(int i=0; s.length()<size; i++){
+            s.append(i).append(',');
+            if(i%3==0)s.append('"').append(PHRASES[i%PHRASES.length]).append(", \"\"quoted\"\"\"");
+            else s.append(PHRASES[i%PHRASES.length]);
+            s.append(',').append(i*1.25).append(',').append(i%2==0).append('\n');
+        }
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package groovyx.acme.nifi;
+
+import groovy.json.JsonOutput;
+import groovy.json.JsonSlurper;
+import groovy.util.Node;
+import groovy.util.XmlParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * benchmarks of serializers without flowfile processing: the data parsed once and written to a counting stream on each call.
+ * `*Legacy` benchmarks run the replaced recursive json writer through the writer stack used before to compare with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializerBenchmark {
+    /** approximate size of serialized data in bytes: 1KB, 1MB, 100MB */
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private Object json;
+    private Node xml;
+    private final CountingStream out = new CountingStream();
+
+    /** output stream that counts and discards written bytes */
+    static class CountingStream extends OutputStream {
+        long count = 0;
+        @Override public void write(int b) { count++; }
+        @Override public void write(byte[] b, int off, int len) { count+=len; }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        json = new JsonSlurper().parse(new InputStreamReader(new ByteArrayInputStream(Payloads.json(size)), StandardCharsets.UTF_8));
+        xml  = new XmlParser(false, true).parse(new ByteArrayInputStream(Payloads.xml(size)));
+    }
+
+    @Benchmark
+    public long writeJson() throws IOException {
+        out.count = 0;
+        JsonUtils.writeJson(json, out, -1);
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeJsonIndent() throws IOException {
+        out.count = 0;
+        JsonUtils.writeJson(json, out, 0);
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeJsonLegacy() throws IOException {
+        out.count = 0;
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        LegacyJson.writeJson(json, w, -1);
+        w.flush();
+        return out.count;
+    }
+
+    @Benchmark
+    public long writeJsonIndentLegacy() throws IOException {
+        out.count = 0;
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        LegacyJson.writeJson(json, w, 0);
+        w.flush();
+        return out.count;
+    }
+
+    @Benchmark
+    public long xmlToStream() throws IOException {
+        out.count = 0;
+        XmlUtils.toStream(xml, out, "UTF-8", false, true);
+        return out.count;
+    }
+
+    /** recursive JsonUtils.writeJson replaced by JsonStreamWriter: the baseline of `writeJson` benchmarks */
+    static final class LegacyJson {
+        private static void newLine(Writer w, int indent) throws IOException {
+            if(indent!=-1) {
+                w.append('\n');
+                for (int i = 0; i < indent; i++)
+                    w.append(' ');
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        static void writeJson(Object o, Writer w, int indent) throws IOException {
+            int cnt=0;
+            if(o instanceof Collection){
+                Collection<Object> a = (Collection)o;
+                w.append('[');
+                if(indent!=-1)indent+=2;
+                for(Object e : a){
+                    if(cnt>0)w.append(',');
+                    newLine(w,indent);
+                    writeJson( e, w, indent );
+                    cnt++;
+                }
+                if(indent!=-1)indent-=2;
+                if(cnt>0)newLine(w,indent);
+                w.append(']');
+            }else if(o instanceof Map){
+                Map<Object,Object> m=(Map)o;
+                w.append('{');
+                if(indent!=-1)indent+=2;
+                for(Map.Entry e : m.entrySet()){
+                    if(cnt>0)w.append(',');
+                    newLine(w,indent);
+                    Object key = e.getKey();
+                    if(key==null)throw new RuntimeException("null as map key not supported");
+                    w.append( JsonOutput.toJson(key.toString()) );
+                    w.append( ':' );
+                    writeJson( e.getValue(), w, indent );
+                    cnt++;
+                }
+                if(indent!=-1)indent-=2;
+                if(cnt>0)newLine(w,indent);
+                w.append('}');
+            }else{
+                w.append( JsonOutput.toJson(o) );
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package groovyx.acme.nifi;
+
+import groovy.lang.Closure;
+import groovy.lang.GroovyShell;
+import org.apache.nifi.processor.Relationship;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * end-to-end benchmarks of workers: read + parse + transform + write of one flowfile through in-memory {@code BenchSession}.
+ * each benchmark returns the number of written bytes so the result could not be eliminated by JIT.
+ * <pre>
+ *     gradle jmh -Pjmh.include=WorkerBenchmark -Pjmh.size=1024
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WorkerBenchmark {
+    static final Relationship REL_SUCCESS = new Relationship.Builder().name("success").build();
+    /** threads used by parallel record benchmarks */
+    static final int PARALLEL = Runtime.getRuntime().availableProcessors();
+
+    /** approximate payload size in bytes: 1KB, 1MB, 100MB */
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private BenchSession session;
+    private Map<String,String> attributes;
+    private byte[] json;
+    private byte[] xml;
+    private byte[] text;
+    private byte[] jsonLines;
+    private byte[] csv;
+
+    private Closure jsonTransform;
+    private Closure xmlTransform;
+    private Closure readerTransform;
+    private Closure readWriterTransform;
+    private Closure jsonReaderTransform;
+    private Closure templateTransform;
+    private Closure jsonLinesTransform;
+    private Closure linesTransform;
+    private Closure csvReaderTransform;
+    private Closure streamTransform;
+    private Closure passthroughTransform;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        session = new BenchSession();
+        attributes = new HashMap<>();
+        for(int i=0; i<30; i++)attributes.put("attr."+i, "value "+i);
+        attributes.put("filename", "bench.json");
+        json = Payloads.json(size);
+        xml  = Payloads.xml(size);
+        text = Payloads.text(size);
+        jsonLines = Payloads.jsonLines(size);
+        csv = Payloads.csv(size);
+
+        GroovyShell shell = new GroovyShell();
+        jsonTransform       = (Closure)shell.evaluate("{json, attr-> attr.name = json.message.name; json.message.data.each{ it.txt = it.txt.capitalize() }; return json }");
+        xmlTransform        = (Closure)shell.evaluate("{xml, attr-> attr.name = xml.name.text(); xml.data.item.each{ it.@index = it.@id }; return xml }");
+        readerTransform     = (Closure)shell.evaluate("{reader, attr-> int n = 0; reader.eachLine{ n++ }; attr.lines = n; return asWriter{ w-> w << n } }");
+        readWriterTransform = (Closure)shell.evaluate("{reader, writer, attr-> reader.eachLine{ writer.write(it.toUpperCase()); writer.write('\\n') } }");
+        jsonReaderTransform = (Closure)shell.evaluate("{attr-> int i = 0; onValue('$.message.data.*'){ item-> item.index = i++; return item }; return asJsonWriter() }");
+        jsonLinesTransform  = (Closure)shell.evaluate("{rec, attr-> if(rec.flag)return null; rec.txt = rec.txt.capitalize(); return rec }");
+        linesTransform      = (Closure)shell.evaluate("{line-> line.toUpperCase() }");
+        csvReaderTransform  = (Closure)shell.evaluate("{attr-> onRow{row-> if(row.flag=='true')return null; row.txt = row.txt.capitalize(); return row }; return asCsvWriter() }");
+        streamTransform     = (Closure)shell.evaluate("{sin, attr-> attr.first = sin.read(); return sin }");
+        passthroughTransform= (Closure)shell.evaluate("{sin, attr-> attr.size = attr.'attr.1'.size(); return sin }");
+        templateTransform   = (Closure)shell.evaluate("{json-> asTemplate(binding:[json:json], template:'<% json.message.data.each{ %><%= it.id %>;<%= it.txt %>;<%= it.price %>\\n<% } %>') }");
+    }
+
+    private FlowFileWorker worker(byte[] content){
+        session.reset();
+        session.enqueue(content, attributes);
+        return new FlowFileWorker(session.get(), session, REL_SUCCESS);
+    }
+
+    @Benchmark
+    public long withJson(){
+        worker(json).withJson(jsonTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withXml(){
+        worker(xml).withXml(xmlTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withXmlStax(){
+        worker(xml).withXml(Collections.<String,Object>singletonMap("parser", "stax"), xmlTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withReader(){
+        worker(text).withReader(readerTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withReadWriter(){
+        worker(text).withReadWriter(readWriterTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withJsonReader(){
+        worker(json).methodMissing("withJsonReader", new Object[]{Collections.emptyMap(), jsonReaderTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withJsonLines(){
+        worker(jsonLines).methodMissing("withJsonLines", new Object[]{jsonLinesTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withJsonLinesParallel(){
+        worker(jsonLines).methodMissing("withJsonLines", new Object[]{Collections.singletonMap("parallel", PARALLEL), jsonLinesTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withLines(){
+        worker(text).methodMissing("withLines", new Object[]{linesTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withLinesParallel(){
+        worker(text).methodMissing("withLines", new Object[]{Collections.singletonMap("parallel", PARALLEL), linesTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long splitLines(){
+        worker(text).methodMissing("splitLines", new Object[]{Collections.singletonMap("lines", 1000)});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withCsvReader(){
+        worker(csv).methodMissing("withCsvReader", new Object[]{csvReaderTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withCsvReaderParallel(){
+        worker(csv).methodMissing("withCsvReader", new Object[]{Collections.singletonMap("parallel", PARALLEL), csvReaderTransform});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withStream(){
+        worker(text).withStream(streamTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long withStreamPassthrough(){
+        worker(text).withStream(passthroughTransform);
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long xmlToJson(){
+        worker(xml).methodMissing("xmlToJson", new Object[]{Collections.singletonMap("arrays", Collections.singletonList("item"))});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long jsonToXml(){
+        worker(json).methodMissing("jsonToXml", new Object[]{Collections.singletonMap("root", "root")});
+        return session.bytesWritten;
+    }
+
+    @Benchmark
+    public long asTemplate(){
+        worker(json).withJson(templateTransform);
+        return session.bytesWritten;
+    }
+}
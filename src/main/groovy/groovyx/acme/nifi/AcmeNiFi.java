@@ -27,6 +27,7 @@ import org.apache.nifi.components.PropertyValue;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -53,6 +54,40 @@ public class AcmeNiFi{
 		return new FlowFileWorker(script,false);
 	}
 
+	/**
+	 * get a batch of flowfiles from input queue and process each of them with the same worker inside one session.
+	 * processed flowfiles are transferred (or dropped) all together after the whole batch processed.
+	 * <pre>{@code
+	 *     withFlowFiles(this, max:500, maxBytes:10000000).withJson{json,attr->
+	 *         ...
+	 *     }
+	 * }</pre>
+	 * @param parms batch parameters
+	 * <table summary="">
+	 * <tr class="rowColor"><td>max</td><td>max number of flowfiles to get from input queue (default=100)</td></tr>
+	 * <tr class="rowColor"><td>maxBytes</td><td>max total size of flowfiles in batch. the first flowfile is always taken. (default=unlimited)</td></tr>
+	 * <tr class="rowColor"><td>parallel</td><td>number of threads to parse and transform flowfiles of the batch in parallel. only `withJson` and `withXml` workers support it. session writes and transfers are still done by the script thread. (default=1)</td></tr>
+	 * <tr class="rowColor"><td>maxInFlightBytes</td><td>max total size of flowfiles read into memory for parallel processing (default=64Mb)</td></tr>
+	 * <tr class="rowColor"><td>executor</td><td>`ExecutorService` to use for parallel processing instead of the shared pool</td></tr>
+	 * </table>
+	 * The batch reports counters: `AcmeNiFi batch count`, `AcmeNiFi batch flowfiles`, `AcmeNiFi batch bytes`, and `AcmeNiFi batch millis`.
+	 * @param script the script where this file worker instantiated from. normally passed as `this`
+	 * @return returns `FlowFileWorker` class where default workers defined
+	 */
+	public static FlowFileWorker withFlowFiles(Map<String,Object> parms, Script script){
+		return new FlowFileWorker(script,parms);
+	}
+
+	/**
+	 * get a batch of flowfiles from input queue and process each of them with the same worker inside one session.
+	 * @param script the script where this file worker instantiated from. normally passed as `this` - <code>withFlowFiles(this, 500)</code>
+	 * @param max max number of flowfiles to get from input queue
+	 * @return returns `FlowFileWorker` class where default workers defined
+	 */
+	public static FlowFileWorker withFlowFiles(Script script, int max){
+		return new FlowFileWorker(script,Collections.<String,Object>singletonMap("max",max));
+	}
+
 	/**
 	 * creates new flowfile without getting new one from input queue.
 	 * @param script the script where this file worker instantiated from. normally passed as `this` - <code>newFlowFile(this)</code>
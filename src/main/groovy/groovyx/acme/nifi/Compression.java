@@ -0,0 +1,206 @@
+package groovyx.acme.nifi;
+
+import org.apache.nifi.flowfile.FlowFile;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * in-stream decompression of input and compression of output defined by the common worker options `decompress`, `compress` and `compressionLevel`.
+ * supported codecs are the ones available in jdk without native libraries: `gzip` and `deflate` (zlib format).
+ */
+final class Compression {
+    private static final int BUFFER_SIZE = 65536;
+    private static final String MIME_TYPE = "mime.type";
+
+    /** compression codec of the content */
+    enum Codec {
+        NONE(null), GZIP("application/gzip"), DEFLATE("application/x-deflate");
+
+        final String mimeType;
+
+        Codec(String mimeType){
+            this.mimeType = mimeType;
+        }
+
+        static Codec of(Object name, String option){
+            if(name instanceof Codec)return (Codec)name;
+            String s = name.toString().toLowerCase();
+            if(s.equals("gzip"))return GZIP;
+            if(s.equals("deflate") || s.equals("zlib"))return DEFLATE;
+            throw new IllegalArgumentException("Unsupported `"+option+"` codec: "+name+". Expected: gzip, deflate");
+        }
+
+        static Codec ofMimeType(String mimeType){
+            if(mimeType==null)return null;
+            switch (mimeType.toLowerCase()){
+                case "application/gzip":
+                case "application/x-gzip":
+                    return GZIP;
+                case "application/deflate":
+                case "application/x-deflate":
+                case "application/zlib":
+                    return DEFLATE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final boolean detect;
+    private final Codec input;
+    private final boolean sameAsInput;
+    private final Codec output;
+    private final int level;
+
+    private Compression(boolean detect, Codec input, boolean sameAsInput, Codec output, int level){
+        this.detect = detect;
+        this.input = input;
+        this.sameAsInput = sameAsInput;
+        this.output = output;
+        this.level = level;
+    }
+
+    /**
+     * @param decompress value of `decompress` option: true to detect codec, or codec name
+     * @param compress value of `compress` option: true to use codec of input, or codec name
+     * @param level value of `compressionLevel` option: 0..9 or null for default level
+     * @return compression or null if both options not defined
+     */
+    static Compression create(Object decompress, Object compress, Object level){
+        boolean noInput = decompress==null || Boolean.FALSE.equals(decompress);
+        boolean noOutput = compress==null || Boolean.FALSE.equals(compress);
+        if(noInput && noOutput)return null;
+        int l = level==null ? Deflater.DEFAULT_COMPRESSION : ((Number)level).intValue();
+        if(l!=Deflater.DEFAULT_COMPRESSION && (l<0 || l>9))throw new IllegalArgumentException("The `compressionLevel` must be in range 0..9: "+level);
+        return new Compression(
+            Boolean.TRUE.equals(decompress),
+            noInput || Boolean.TRUE.equals(decompress) ? null : Codec.of(decompress, "decompress"),
+            Boolean.TRUE.equals(compress),
+            noOutput || Boolean.TRUE.equals(compress) ? Codec.NONE : Codec.of(compress, "compress"),
+            l
+        );
+    }
+
+    /**
+     * detects codec of the content by `mime.type` attribute or by gzip magic bytes.
+     * zlib header is not detected: plain content like `x^...` passes its check bits, so deflate needs mime type or explicit codec.
+     * @param in content stream that supports mark
+     * @param flowFile the flowfile
+     * @return codec of the content
+     */
+    Codec detect(InputStream in, FlowFile flowFile) throws IOException {
+        if(flowFile.getSize()==0 || !detect && input==null)return Codec.NONE;
+        if(input!=null)return input;
+        Codec c = Codec.ofMimeType(flowFile.getAttribute(MIME_TYPE));
+        if(c!=null)return c;
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if(b0==0x1f && b1==0x8b)return Codec.GZIP;
+        return Codec.NONE;
+    }
+
+    /**
+     * @param in content stream
+     * @return stream that supports mark required by `detect`
+     */
+    static InputStream markable(InputStream in){
+        return in.markSupported() ? in : new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * @param in content stream
+     * @param codec codec of the content
+     * @return decompressed content
+     */
+    static InputStream decompress(InputStream in, Codec codec) throws IOException {
+        switch (codec){
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case DEFLATE:
+                return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE){
+                    private boolean closed = false;
+                    @Override
+                    public void close() throws IOException {
+                        if(closed)return;
+                        closed = true;
+                        inf.end();
+                        super.close();
+                    }
+                };
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * @param inputCodec codec of input content
+     * @return codec of output content
+     */
+    Codec output(Codec inputCodec){
+        return sameAsInput ? inputCodec : output;
+    }
+
+    /**
+     * @param out content output stream
+     * @param codec codec of output
+     * @return compressing stream. it must be finished or closed after write.
+     */
+    OutputStream compress(OutputStream out, Codec codec) throws IOException {
+        switch (codec){
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE){
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(level), BUFFER_SIZE){
+                    private boolean closed = false;
+                    @Override
+                    public void close() throws IOException {
+                        if(closed)return;
+                        closed = true;
+                        try {
+                            super.close();
+                        }finally {
+                            def.end();
+                        }
+                    }
+                };
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * finishes compressed output without closing underlying stream
+     * @param out stream returned by `compress`
+     */
+    static void finish(OutputStream out) throws IOException {
+        if(out instanceof DeflaterOutputStream)((DeflaterOutputStream)out).finish();
+    }
+
+    /**
+     * sets `mime.type` of compressed output, or removes compression mime type when the output is not compressed anymore.
+     * the value set by script is kept.
+     */
+    static void updateMimeType(ControlMap attr, Codec inputCodec, Codec outputCodec){
+        if(attr.getModifiedKeys().contains(MIME_TYPE) || attr.getRemovedKeys().contains(MIME_TYPE))return;
+        if(outputCodec!=Codec.NONE){
+            attr.put(MIME_TYPE, outputCodec.mimeType);
+        }else if(inputCodec!=Codec.NONE && Codec.ofMimeType((String)attr.get(MIME_TYPE))!=null){
+            attr.remove(MIME_TYPE);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package groovyx.acme.nifi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * digest and size of the written content computed in the same pass, defined by the common worker option `hash`.
+ * the option is an algorithm name: any of {@code MessageDigest} (`MD5`, `SHA-1`, `SHA-256`, `SHA-512`, ...) or checksums `crc32` and `crc32c`,
+ * or a map with `algorithm` and `attributes` - prefix of attributes (default=`hash.`).
+ * the worker sets attributes `hash.algorithm`, `hash.value` (lower-case hex), and `hash.size` (bytes written).
+ */
+final class ContentHash {
+    private static final String ATTRIBUTE_PREFIX = "hash.";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String algorithm;
+    private final String prefix;
+
+    private ContentHash(String algorithm, String prefix){
+        this.algorithm = algorithm;
+        this.prefix = prefix;
+    }
+
+    /**
+     * @param option value of `hash` option
+     * @return content hash or null if not defined
+     */
+    static ContentHash create(Object option){
+        if(option==null || Boolean.FALSE.equals(option))return null;
+        String algorithm;
+        String prefix = ATTRIBUTE_PREFIX;
+        if(option instanceof CharSequence){
+            algorithm = option.toString();
+        }else if(option instanceof Map){
+            Map<?,?> m = (Map<?,?>)option;
+            Object a = m.get("algorithm");
+            if(a==null)throw new IllegalArgumentException("The `algorithm` is mandatory for `hash` option");
+            algorithm = a.toString();
+            Object p = m.get("attributes");
+            if(p!=null)prefix = p.toString();
+        }else{
+            throw new IllegalArgumentException("Unsupported `hash` option: "+option+". Expected: String, Map");
+        }
+        ContentHash h = new ContentHash(algorithm, prefix);
+        //fail on unknown algorithm before processing
+        h.wrap(null);
+        return h;
+    }
+
+    /**
+     * @param out content output stream
+     * @return stream that computes hash of written bytes
+     */
+    HashingOutputStream wrap(OutputStream out){
+        switch (algorithm.toLowerCase()){
+            case "crc32":
+                return new HashingOutputStream(out, new CRC32());
+            case "crc32c":
+                return new HashingOutputStream(out, new CRC32C());
+            default:
+                try {
+                    return new HashingOutputStream(out, MessageDigest.getInstance(algorithm));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalArgumentException("Unsupported `hash` algorithm: "+algorithm+". Expected: MessageDigest algorithm, crc32, crc32c", e);
+                }
+        }
+    }
+
+    /**
+     * puts hash attributes of written content
+     * @param attr attributes of the flowfile
+     * @param out stream returned by `wrap` after all content written
+     */
+    void putAttributes(ControlMap attr, HashingOutputStream out){
+        attr.put(prefix+"algorithm", algorithm);
+        attr.put(prefix+"value", out.getValue());
+        attr.put(prefix+"size", Long.toString(out.getSize()));
+    }
+
+    /** output stream that updates digest or checksum with written bytes */
+    static final class HashingOutputStream extends FilterOutputStream {
+        private final MessageDigest digest;
+        private final Checksum checksum;
+        private long size = 0;
+
+        HashingOutputStream(OutputStream out, MessageDigest digest){
+            super(out);
+            this.digest = digest;
+            this.checksum = null;
+        }
+
+        HashingOutputStream(OutputStream out, Checksum checksum){
+            super(out);
+            this.digest = null;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if(digest!=null)digest.update((byte)b);
+            else checksum.update(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if(digest!=null)digest.update(b, off, len);
+            else checksum.update(b, off, len);
+            size+=len;
+        }
+
+        long getSize(){
+            return size;
+        }
+
+        /** @return lower-case hex of digest, or 8 hex digits of checksum */
+        String getValue(){
+            if(digest!=null){
+                byte[] d = digest.digest();
+                char[] c = new char[d.length*2];
+                for(int i=0; i<d.length; i++){
+                    c[i*2] = HEX[(d[i]>>4)&0xF];
+                    c[i*2+1] = HEX[d[i]&0xF];
+                }
+                return new String(c);
+            }
+            String s = Long.toHexString(checksum.getValue());
+            return "00000000".substring(s.length())+s;
+        }
+    }
+
+    /** crc32c (Castagnoli) checksum. java.util.zip.CRC32C is not available in java 8. */
+    private static final class CRC32C implements Checksum {
+        private static final int[] TABLE = new int[256];
+        static {
+            for(int i=0; i<256; i++){
+                int c = i;
+                for(int k=0; k<8; k++)c = (c&1)!=0 ? (c>>>1)^0x82F63B78 : c>>>1;
+                TABLE[i] = c;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc>>>8) ^ TABLE[(crc^b)&0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            for(int i=off, end=off+len; i<end; i++)c = (c>>>8) ^ TABLE[(c^b[i])&0xFF];
+            crc = c;
+        }
+
+        @Override
+        public long getValue() {
+            return (~crc) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package groovyx.acme.nifi;
+
+/**
+ * byte range of the input content that could be returned by {@code withStream} closure instead of copying the data:
+ * <pre>{@code
+ *     withFlowFile(this).withStream{sin->
+ *         //drop the fixed size header
+ *         asSlice(128)
+ *     }
+ * }</pre>
+ * the flowfile gets the range of original content claim with {@code session.clone(flowFile, offset, size)} without copying bytes.
+ * the clone replaces the original flowfile that is removed from session: the result has a new `uuid`,
+ * and provenance records CLONE of the original flowfile followed by its DROP instead of CONTENT_MODIFIED.
+ * when the content is transformed on the fly (`decompress`, `compress`, or `hash` options) the range of the input stream is copied.
+ */
+public final class ContentSlice {
+    private final long offset;
+    private final long size;
+
+    /**
+     * @param offset start of the range
+     * @param size size of the range or -1 for the rest of the content
+     */
+    public ContentSlice(long offset, long size){
+        if(offset<0)throw new IllegalArgumentException("The slice offset must not be negative: "+offset);
+        if(size<-1)throw new IllegalArgumentException("The slice size must not be negative: "+size);
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /** @return start of the range */
+    public long getOffset(){
+        return offset;
+    }
+
+    /** @return size of the range or -1 for the rest of the content */
+    public long getSize(){
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ContentSlice[offset=" + offset + ", size=" + size + "]";
+    }
+}
@@ -1,28 +1,49 @@
 package groovyx.acme.nifi;
 
-import java.util.Collection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * class to hold modifiable flowfile attributes. monitors all changes done to map and later could return modified and removed keys. used almost in all workers.
+ * the map is a lazy overlay over original flowfile attributes: the attributes are not copied, only changes are stored.
  */
-public class ControlMap extends HashMap<String,Object> {
-    private Set<String> removedKeys=new HashSet<>(); //items removed from map
-    private Set<String> modifiedKeys=new HashSet<>(); //items removed from map
+public class ControlMap extends AbstractMap<String,Object> {
+    private final Map<String,String> base; //original attributes, never modified
+    private Set<String> removedKeys = null; //keys of base removed from map, created on first remove
+    private Map<String,Object> modified = null; //new and modified values, created on first put
+    private Set<Map.Entry<String,Object>> entrySet = null;
 
     ControlMap(Map<String,String> base){
-        super(base);
+        this.base = base==null ? Collections.<String,String>emptyMap() : base;
     }
 
     Set<String> getRemovedKeys(){
-        return removedKeys;
+        return removedKeys==null ? Collections.<String>emptySet() : removedKeys;
     }
     Set<String> getModifiedKeys(){
-        return modifiedKeys;
+        return modified==null ? Collections.<String>emptySet() : modified.keySet();
+    }
+
+    @Override
+    public Object get(Object key) {
+        if(modified!=null){
+            Object value = modified.get(key);
+            if(value!=null)return value;
+        }
+        if(removedKeys!=null && removedKeys.contains(key))return null;
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key)!=null;
     }
 
     @Override
@@ -30,17 +51,22 @@ public class ControlMap extends HashMap<String,Object> {
         if(value==null){
             return remove(key);
         }
-        modifiedKeys.add(key);
-        return super.put(key,value);
+        Object prev = get(key);
+        if(modified==null)modified = new HashMap<>();
+        modified.put(key,value);
+        if(removedKeys!=null)removedKeys.remove(key);
+        return prev;
     }
 
     @Override
     public Object remove(Object key) {
-        if(key instanceof String){
+        Object prev = get(key);
+        if(modified!=null)modified.remove(key);
+        if(key instanceof String && base.containsKey(key)){
+            if(removedKeys==null)removedKeys = new HashSet<>();
             removedKeys.add((String)key);
-            modifiedKeys.remove(key);
         }
-        return super.remove(key);
+        return prev;
     }
 
     @Override
@@ -52,9 +78,100 @@ public class ControlMap extends HashMap<String,Object> {
 
     @Override
     public void clear() {
-        removedKeys.addAll( super.keySet() );
-        modifiedKeys.clear();
-        super.clear();
+        if(removedKeys==null)removedKeys = new HashSet<>();
+        removedKeys.addAll( base.keySet() );
+        modified = null;
+    }
+
+    @Override
+    public int size() {
+        int size = base.size() - (removedKeys==null ? 0 : removedKeys.size());
+        if(modified!=null){
+            for(String key : modified.keySet()){
+                if(!base.containsKey(key))size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        if(entrySet==null){
+            entrySet = new AbstractSet<Map.Entry<String,Object>>() {
+                @Override
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new EntryIterator();
+                }
+                @Override
+                public int size() {
+                    return ControlMap.this.size();
+                }
+                @Override
+                public void clear() {
+                    ControlMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /** iterates original attributes that were not removed or modified and then modified values */
+    private class EntryIterator implements Iterator<Map.Entry<String,Object>> {
+        private final Iterator<Map.Entry<String,String>> baseIter = base.entrySet().iterator();
+        private Iterator<Map.Entry<String,Object>> modIter = null;
+        private Map.Entry<String,Object> next = null;
+        private String current = null;
+
+        @Override
+        public boolean hasNext() {
+            if(next!=null)return true;
+            while(modIter==null && baseIter.hasNext()){
+                Map.Entry<String,String> e = baseIter.next();
+                String key = e.getKey();
+                if(removedKeys!=null && removedKeys.contains(key))continue;
+                if(modified!=null && modified.containsKey(key))continue;
+                next = new Entry(key, e.getValue());
+                return true;
+            }
+            if(modIter==null){
+                //snapshot of modified keys allows to modify the map while iterating
+                modIter = modified==null ? Collections.<Map.Entry<String,Object>>emptyIterator() : new HashMap<>(modified).entrySet().iterator();
+            }
+            if(modIter.hasNext()){
+                Map.Entry<String,Object> e = modIter.next();
+                next = new Entry(e.getKey(), e.getValue());
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Map.Entry<String,Object> next() {
+            if(!hasNext())throw new NoSuchElementException();
+            Map.Entry<String,Object> e = next;
+            next = null;
+            current = e.getKey();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if(current==null)throw new IllegalStateException();
+            ControlMap.this.remove(current);
+            current = null;
+        }
+    }
+
+    /** map entry that writes value through to the map */
+    private class Entry extends AbstractMap.SimpleEntry<String,Object> {
+        Entry(String key, Object value){
+            super(key, value);
+        }
+        @Override
+        public Object setValue(Object value) {
+            super.setValue(value);
+            return ControlMap.this.put(getKey(), value);
+        }
     }
 
 }
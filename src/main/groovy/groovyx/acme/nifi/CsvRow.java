@@ -0,0 +1,185 @@
+package groovyx.acme.nifi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * lightweight map view of the current record of {@code CsvStreamReader}: values are accessed by column name {@code row.name}
+ * or by field index {@code row[0]}. strings are created only for accessed fields.
+ * values could be modified and new keys added. removing keys is not supported: set the value to null instead.
+ * the view is valid only until the reader moves to the next record. use {@code toMap()} to keep the values.
+ * without column names the keys are field indexes as strings: "0", "1", ...
+ */
+public class CsvRow extends AbstractMap<String,Object> {
+    private static final Object UNSET = new Object();
+
+    private final CsvStreamReader reader;
+    private final long record;
+    private final List<String> columns;
+    private final Map<String,Integer> index;
+    private final Object[] values;
+    private Map<String,Object> extra = null;
+
+    /**
+     * creates a view of the current record of reader
+     * @param reader csv reader positioned on a record
+     * @param columns column names or null to use field indexes as keys
+     * @param index column name to index map created with {@code CsvRow.index(columns)} or null if columns is null
+     */
+    public CsvRow(CsvStreamReader reader, List<String> columns, Map<String,Integer> index){
+        this.reader = reader;
+        this.record = reader.getRecordNumber();
+        this.columns = columns;
+        this.index = index;
+        this.values = new Object[ Math.max(columns==null ? 0 : columns.size(), reader.size()) ];
+        Arrays.fill(values, UNSET);
+    }
+
+    /**
+     * @param columns column names
+     * @return map of column name to its index to share between rows
+     */
+    public static Map<String,Integer> index(List<String> columns){
+        Map<String,Integer> index = new HashMap<>(columns.size()*2);
+        for(int i=0; i<columns.size(); i++){
+            if(!index.containsKey(columns.get(i)))index.put(columns.get(i), i);
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    /**
+     * @param i field index
+     * @return value of the field or null if there is no such field
+     */
+    public Object getAt(int i){
+        if(i<0 || i>=values.length)return null;
+        Object v = values[i];
+        if(v==UNSET){
+            if(reader.getRecordNumber()!=record){
+                throw new IllegalStateException("The csv row "+record+" is not valid after the next row read. Use `row.toMap()` to keep the values.");
+            }
+            v = reader.get(i);
+            values[i] = v;
+        }
+        return v;
+    }
+
+    /**
+     * @param i field index
+     * @param v new value
+     */
+    public void putAt(int i, Object v){
+        if(i<0 || i>=values.length)throw new IndexOutOfBoundsException("Field index "+i+" out of range 0.."+(values.length-1));
+        values[i] = v;
+    }
+
+    private int indexOf(Object key){
+        if(key instanceof Number)return ((Number)key).intValue();
+        if(index!=null){
+            Integer i = index.get(key);
+            return i==null ? -1 : i;
+        }
+        if(key instanceof String){
+            try {
+                return Integer.parseInt((String)key);
+            }catch (NumberFormatException e){
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int width(){
+        return columns==null ? values.length : columns.size();
+    }
+
+    private String key(int i){
+        return columns==null ? Integer.toString(i) : columns.get(i);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int i = indexOf(key);
+        if(i>=0 && (i<width() || key instanceof Number))return getAt(i);
+        return extra==null ? null : extra.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int i = indexOf(key);
+        if(i>=0 && i<width() && !(key instanceof Number))return true;
+        return extra!=null && extra.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int i = indexOf(key);
+        if(i>=0 && i<width()){
+            Object old = getAt(i);
+            values[i] = value;
+            return old;
+        }
+        if(extra==null)extra = new LinkedHashMap<>();
+        return extra.put(key, value);
+    }
+
+    @Override
+    public int size() {
+        return width() + (extra==null ? 0 : extra.size());
+    }
+
+    /**
+     * @return copy of the row values that remains valid after the reader moves to the next record
+     */
+    public Map<String,Object> toMap(){
+        return new LinkedHashMap<>(this);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    int i = 0;
+                    final Iterator<Entry<String,Object>> extraIterator = extra==null ? null : extra.entrySet().iterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        return i<width() || (extraIterator!=null && extraIterator.hasNext());
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if(i<width()){
+                            final int n = i++;
+                            return new SimpleEntry<String,Object>(key(n), getAt(n)){
+                                @Override
+                                public Object setValue(Object value) {
+                                    values[n] = value;
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+                        if(extraIterator==null)throw new NoSuchElementException();
+                        return extraIterator.next();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CsvRow.this.size();
+            }
+        };
+    }
+}
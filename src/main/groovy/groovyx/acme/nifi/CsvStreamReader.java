@@ -0,0 +1,243 @@
+package groovyx.acme.nifi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * streaming csv reader (RFC 4180 with configurable separator and quote): reads records one by one.
+ * fields of the current record are unescaped into one reusable char buffer, and strings are created only for fields
+ * accessed with {@code get(i)}, so reading does not allocate per field and memory usage depends only on the longest record.
+ * quoted fields may contain separators, doubled quotes and line breaks. empty lines are skipped. a leading BOM is ignored.
+ * <pre>{@code
+ *     def r = new CsvStreamReader(reader, ',' as char, '"' as char)
+ *     while(r.next()){
+ *         println r.get(0)
+ *     }
+ * }</pre>
+ */
+public class CsvStreamReader implements Closeable {
+    private final Reader reader;
+    private final char separator;
+    private final char quote;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private long line = 1;
+    private boolean started = false;
+
+    //current record: field `i` is data[ends[i-1]..ends[i])
+    private char[] data = new char[256];
+    private int dataLength = 0;
+    private int[] ends = new int[16];
+    private int count = 0;
+    private long recordLine = 0;
+    private long recordNumber = 0;
+
+    /**
+     * @param reader where to read csv from
+     * @param separator field separator
+     * @param quote quote char
+     */
+    public CsvStreamReader(Reader reader, char separator, char quote){
+        if(separator==quote || separator=='\r' || separator=='\n')throw new IllegalArgumentException("Invalid csv separator: "+separator);
+        this.reader = reader;
+        this.separator = separator;
+        this.quote = quote;
+    }
+
+    /**
+     * converts value of `separator` or `quote` option to char
+     * @param v Character or one-char String
+     * @param name option name for the error message
+     * @return the char
+     */
+    public static char toChar(Object v, String name){
+        if(v instanceof Character)return (Character)v;
+        if(v instanceof CharSequence && ((CharSequence)v).length()==1)return ((CharSequence)v).charAt(0);
+        throw new IllegalArgumentException("The `"+name+"` must be one char: "+v);
+    }
+
+    /**
+     * reads the next record
+     * @return false if there are no more records
+     * @throws IOException on io error or invalid csv
+     */
+    public boolean next() throws IOException {
+        count = 0;
+        dataLength = 0;
+        if(!started){
+            started = true;
+            if( (pos<limit || fill()) && buf[pos]=='\uFEFF' )pos++;
+        }
+        //skip empty lines
+        while(true){
+            if(pos==limit && !fill())return false;
+            char c = buf[pos];
+            if(c=='\n'){
+                pos++;
+                line++;
+            }else if(c=='\r'){
+                pos++;
+            }else{
+                break;
+            }
+        }
+        recordLine = line;
+        recordNumber++;
+        while(true){
+            if(pos<limit || fill()){
+                if(buf[pos]==quote){
+                    pos++;
+                    readQuoted();
+                }else{
+                    readPlain();
+                }
+            }
+            endField();
+            if(pos==limit && !fill())return true;
+            char c = buf[pos++];
+            if(c==separator)continue;
+            if(c=='\n'){
+                line++;
+            }else if(c=='\r'){
+                if( (pos<limit || fill()) && buf[pos]=='\n' )pos++;
+                line++;
+            }else{
+                throw error("'"+c+"'", "separator or end of line after quoted field");
+            }
+            return true;
+        }
+    }
+
+    /** reads unquoted field up to separator or end of line */
+    private void readPlain() throws IOException {
+        while(true){
+            int i = pos;
+            while(i<limit){
+                char c = buf[i];
+                if(c==separator || c=='\n' || c=='\r')break;
+                i++;
+            }
+            append(pos, i);
+            pos = i;
+            if(i<limit || !fill())return;
+        }
+    }
+
+    /** reads quoted field after opening quote up to and including closing quote */
+    private void readQuoted() throws IOException {
+        while(true){
+            int i = pos;
+            while(i<limit){
+                char c = buf[i];
+                if(c==quote)break;
+                if(c=='\n')line++;
+                i++;
+            }
+            append(pos, i);
+            pos = i;
+            if(i==limit){
+                if(!fill())throw error("end of input", "closing quote");
+                continue;
+            }
+            pos++; //quote
+            if( (pos<limit || fill()) && buf[pos]==quote ){
+                //escaped quote
+                append(pos, pos+1);
+                pos++;
+            }else{
+                return;
+            }
+        }
+    }
+
+    private void append(int from, int to){
+        int n = to-from;
+        if(n==0)return;
+        if(dataLength+n>data.length)data = Arrays.copyOf(data, Math.max(data.length*2, dataLength+n));
+        System.arraycopy(buf, from, data, dataLength, n);
+        dataLength+=n;
+    }
+
+    private void endField(){
+        if(count==ends.length)ends = Arrays.copyOf(ends, count*2);
+        ends[count++] = dataLength;
+    }
+
+    private boolean fill() throws IOException {
+        if(eof)return false;
+        pos = 0;
+        limit = 0;
+        int n;
+        while( (n = reader.read(buf, 0, buf.length))==0 );
+        if(n<0){
+            eof = true;
+            return false;
+        }
+        limit = n;
+        return true;
+    }
+
+    private IOException error(String found, String expected){
+        return new IOException("Unexpected "+found+" at line "+line+". Expected: "+expected);
+    }
+
+    /**
+     * @return number of fields in the current record
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * @param i field index
+     * @return value of the field or null if the record has less fields
+     */
+    public String get(int i){
+        if(i<0 || i>=count)return null;
+        int start = i==0 ? 0 : ends[i-1];
+        return new String(data, start, ends[i]-start);
+    }
+
+    /**
+     * @param i field index
+     * @return length of the field value or -1 if the record has less fields
+     */
+    public int length(int i){
+        if(i<0 || i>=count)return -1;
+        return ends[i] - (i==0 ? 0 : ends[i-1]);
+    }
+
+    /**
+     * @return values of all fields of the current record
+     */
+    public List<String> getValues(){
+        List<String> values = new ArrayList<>(count);
+        for(int i=0; i<count; i++)values.add(get(i));
+        return values;
+    }
+
+    /**
+     * @return one-based line number where the current record starts
+     */
+    public long getLineNumber(){
+        return recordLine;
+    }
+
+    /**
+     * @return one-based number of the current record
+     */
+    public long getRecordNumber(){
+        return recordNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,115 @@
+package groovyx.acme.nifi;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * streaming csv writer: writes rows field by field directly into the writer.
+ * a field is quoted only if it contains separator, quote or line break. null is written as an empty field.
+ * <pre>{@code
+ *     def w = new CsvStreamWriter(writer, ',' as char, '"' as char, '\n')
+ *     w.value('id').value('txt').endRow()
+ *     w.writeRow([id:123, txt:'carpe, vinum'], ['id','txt'])
+ *     w.flush()
+ * }</pre>
+ */
+public class CsvStreamWriter implements Flushable {
+    private final Writer out;
+    private final char separator;
+    private final char quote;
+    private final String lineSeparator;
+    private boolean firstField = true;
+
+    /**
+     * @param out where to write csv
+     * @param separator field separator
+     * @param quote quote char
+     * @param lineSeparator line separator: `\n` or `\r\n`
+     */
+    public CsvStreamWriter(Writer out, char separator, char quote, String lineSeparator){
+        if(separator==quote || separator=='\r' || separator=='\n')throw new IllegalArgumentException("Invalid csv separator: "+separator);
+        this.out = out;
+        this.separator = separator;
+        this.quote = quote;
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * writes one field of the current row
+     * @param v field value
+     * @return this writer
+     * @throws IOException on io error
+     */
+    public CsvStreamWriter value(Object v) throws IOException {
+        if(!firstField)out.write(separator);
+        firstField = false;
+        if(v==null)return this;
+        String s = v.toString();
+        int len = s.length();
+        int i = 0;
+        for(; i<len; i++){
+            char c = s.charAt(i);
+            if(c==separator || c==quote || c=='\n' || c=='\r')break;
+        }
+        if(i==len){
+            out.write(s, 0, len);
+            return this;
+        }
+        out.write(quote);
+        int start = 0;
+        for(i=0; i<len; i++){
+            if(s.charAt(i)==quote){
+                out.write(s, start, i+1-start);
+                out.write(quote);
+                start = i+1;
+            }
+        }
+        out.write(s, start, len-start);
+        out.write(quote);
+        return this;
+    }
+
+    /**
+     * ends the current row
+     * @return this writer
+     * @throws IOException on io error
+     */
+    public CsvStreamWriter endRow() throws IOException {
+        out.write(lineSeparator);
+        firstField = true;
+        return this;
+    }
+
+    /**
+     * writes a complete row
+     * @param row `Map` (values taken by `columns` or all values if columns is null), `Iterable`, or array
+     * @param columns names of columns to write for Map rows, could be null
+     * @return this writer
+     * @throws IOException on io error
+     */
+    public CsvStreamWriter writeRow(Object row, List<String> columns) throws IOException {
+        if(row instanceof Map){
+            Map<?,?> m = (Map<?,?>)row;
+            if(columns!=null){
+                for(int i=0; i<columns.size(); i++)value(m.get(columns.get(i)));
+            }else{
+                for(Object v : m.values())value(v);
+            }
+        }else if(row instanceof Iterable){
+            for(Object v : (Iterable<?>)row)value(v);
+        }else if(row instanceof Object[]){
+            for(Object v : (Object[])row)value(v);
+        }else{
+            throw new IllegalArgumentException("Unsupported csv row type: "+(row==null?"null":row.getClass())+". Expected: Map, List, Object[]");
+        }
+        return endRow();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,342 @@
+package groovyx.acme.nifi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * buffered reader that decodes chars directly from input stream. replacement for {@code BufferedReader(InputStreamReader(in))}
+ * with one char buffer instead of two and without per-instance allocation: char/byte buffers and charset decoder are reused by the next reader
+ * on the same thread after `close()`. the size of buffers defined by {@code IOUtils.setBufferSize}.
+ * for UTF-8 and US-ASCII runs of ascii bytes are copied into char buffer without decoder, ISO-8859-1 is never passed to decoder.
+ * malformed and unmappable bytes are replaced the same as in InputStreamReader.
+ * the class extends BufferedReader to keep `readLine()` and `lines()` for scripts, however it's not synchronized.
+ */
+public class DecodingReader extends BufferedReader {
+    private static final int POOL_SIZE = 4;
+    //BufferedReader requires a reader: it's used only as a lock object that is never locked
+    private static final Reader NO_READER = new StringReader("");
+
+    /** buffers and decoder reused between readers of the same thread */
+    private static final class Buffers {
+        final char[] chars;
+        final byte[] bytes;
+        final ByteBuffer byteBuffer;
+        CharsetDecoder decoder;
+
+        Buffers(int size){
+            chars = new char[size];
+            bytes = new byte[size];
+            byteBuffer = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    private static final ThreadLocal<ArrayDeque<Buffers>> pool = new ThreadLocal<ArrayDeque<Buffers>>(){
+        @Override
+        protected ArrayDeque<Buffers> initialValue() {
+            return new ArrayDeque<>(POOL_SIZE);
+        }
+    };
+
+    private final InputStream in;
+    private final boolean ascii;
+    private final boolean latin1;
+    private Buffers b;
+    private ByteBuffer bb;
+    private char[] chars;
+    private CharBuffer cb;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private boolean flushed = false;
+    private boolean skipLF = false;
+    private int markPos = -1;
+    private int markLimit = 0;
+    private boolean markSkipLF = false;
+
+    /**
+     * @param in stream to read
+     * @param encoding charset name
+     */
+    public DecodingReader(InputStream in, String encoding){
+        this(in, IOUtils.charset(encoding));
+    }
+
+    /**
+     * @param in stream to read
+     * @param charset charset to decode bytes
+     */
+    public DecodingReader(InputStream in, Charset charset){
+        super(NO_READER, 1);
+        this.in = in;
+        this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        this.ascii = latin1 || charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+        this.b = acquire(charset);
+        this.bb = b.byteBuffer;
+        this.chars = b.chars;
+        this.cb = CharBuffer.wrap(chars);
+    }
+
+    private static Buffers acquire(Charset charset){
+        int size = IOUtils.getBufferSize();
+        Buffers b = pool.get().poll();
+        if(b==null || b.chars.length!=size)b = new Buffers(size);
+        if(b.decoder==null || !b.decoder.charset().equals(charset)){
+            b.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }else{
+            b.decoder.reset();
+        }
+        //empty byte buffer in read mode
+        b.byteBuffer.clear().limit(0);
+        return b;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(b==null)throw new IOException("Stream closed");
+    }
+
+    /**
+     * decodes the next portion of chars. keeps chars from mark position if it's still valid.
+     * @return number of new chars or -1 at the end of stream
+     */
+    private int fill() throws IOException {
+        if(markPos<0 || limit-markPos>=markLimit){
+            markPos = -1;
+            pos = limit = 0;
+        }else{
+            int n = limit-markPos;
+            if(markPos>0){
+                System.arraycopy(chars, markPos, chars, 0, n);
+            }else if(n==chars.length){
+                //the marked chars fill the whole buffer
+                chars = Arrays.copyOf(chars, Math.min(chars.length*2, Math.max(chars.length, markLimit)));
+                cb = CharBuffer.wrap(chars);
+            }
+            pos = limit = n;
+            markPos = 0;
+        }
+        int start = limit;
+        while(true){
+            if(eof){
+                if(!flushed){
+                    cb.limit(chars.length).position(limit);
+                    if(!b.decoder.decode(bb, cb, true).isOverflow() && !b.decoder.flush(cb).isOverflow())flushed = true;
+                    limit = cb.position();
+                }
+                return limit>start ? limit-start : flushed ? -1 : 0;
+            }
+            if(bb.hasRemaining()){
+                decode();
+                if(limit>start)return limit-start;
+            }
+            readBytes();
+        }
+    }
+
+    /** decodes available bytes into chars */
+    private void decode(){
+        if(ascii){
+            byte[] bytes = b.bytes;
+            int i = bb.position();
+            int end = bb.limit();
+            int c = limit;
+            int cap = chars.length;
+            if(latin1){
+                int n = Math.min(end-i, cap-c);
+                for(int k=0; k<n; k++)chars[c++] = (char)(bytes[i++]&0xFF);
+            }else{
+                while(i<end && c<cap){
+                    byte x = bytes[i];
+                    if(x<0)break;
+                    chars[c++] = (char)x;
+                    i++;
+                }
+            }
+            bb.position(i);
+            limit = c;
+            if(latin1 || i==end || c==cap)return;
+        }
+        //a run with non-ascii bytes. the decoder stops before incomplete sequence at the end of bytes.
+        cb.limit(chars.length).position(limit);
+        b.decoder.decode(bb, cb, false);
+        limit = cb.position();
+    }
+
+    /** reads more bytes keeping not decoded ones */
+    private void readBytes() throws IOException {
+        bb.compact();
+        int p = bb.position();
+        int n = in.read(b.bytes, p, bb.capacity()-p);
+        if(n==-1)eof = true;
+        else bb.position(p+n);
+        bb.flip();
+    }
+
+    /** @return false at the end of stream */
+    private boolean ensure() throws IOException {
+        ensureOpen();
+        while(true){
+            if(pos>=limit){
+                int n;
+                while( (n = fill())==0 );
+                if(n<0)return false;
+            }
+            if(skipLF){
+                skipLF = false;
+                if(chars[pos]=='\n'){
+                    pos++;
+                    continue;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!ensure())return -1;
+        return chars[pos++];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if(off<0 || len<0 || off+len>cbuf.length)throw new IndexOutOfBoundsException();
+        if(len==0)return 0;
+        if(!ensure())return -1;
+        //like BufferedReader continue while input is ready: some parsers expect full reads
+        int n = 0;
+        do{
+            int k = Math.min(len-n, limit-pos);
+            System.arraycopy(chars, pos, cbuf, off+n, k);
+            pos+=k;
+            n+=k;
+        }while(n<len && (bb.hasRemaining() || in.available()>0) && ensure());
+        return n;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder sb = null;
+        while(ensure()){
+            int i = pos;
+            while(i<limit){
+                char c = chars[i];
+                if(c=='\n' || c=='\r')break;
+                i++;
+            }
+            if(i<limit){
+                String s;
+                if(sb==null){
+                    s = new String(chars, pos, i-pos);
+                }else{
+                    sb.append(chars, pos, i-pos);
+                    s = sb.toString();
+                }
+                skipLF = chars[i]=='\r';
+                pos = i+1;
+                return s;
+            }
+            if(sb==null)sb = new StringBuilder(i-pos+80);
+            sb.append(chars, pos, i-pos);
+            pos = i;
+        }
+        return sb==null ? null : sb.toString();
+    }
+
+    /**
+     * reads a line like {@code readLine()} and appends it to `sb` together with its line terminator: `\n`, `\r`, or `\r\n`.
+     * @param sb where to append the line
+     * @return false if there are no more lines
+     * @throws IOException on io error
+     */
+    public boolean readLine(StringBuilder sb) throws IOException {
+        boolean read = false;
+        while(ensure()){
+            read = true;
+            int i = pos;
+            while(i<limit){
+                char c = chars[i];
+                if(c=='\n' || c=='\r')break;
+                i++;
+            }
+            if(i<limit){
+                sb.append(chars, pos, i-pos+1);
+                pos = i+1;
+                if(chars[i]=='\r' && ensure() && chars[pos]=='\n'){
+                    sb.append('\n');
+                    pos++;
+                }
+                return true;
+            }
+            sb.append(chars, pos, i-pos);
+            pos = i;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if(n<0)throw new IllegalArgumentException("skip value is negative");
+        long left = n;
+        while(left>0 && ensure()){
+            int k = (int)Math.min(left, limit-pos);
+            pos+=k;
+            left-=k;
+        }
+        return n-left;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        ensureOpen();
+        return pos<limit || bb.hasRemaining() || in.available()>0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        if(readAheadLimit<0)throw new IllegalArgumentException("Read-ahead limit < 0");
+        ensureOpen();
+        markPos = pos;
+        markLimit = readAheadLimit;
+        markSkipLF = skipLF;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        ensureOpen();
+        if(markPos<0)throw new IOException("Stream not marked or mark invalid");
+        pos = markPos;
+        skipLF = markSkipLF;
+    }
+
+    /**
+     * closes input stream and releases internal buffers for reuse
+     * @throws IOException on io error
+     */
+    @Override
+    public void close() throws IOException {
+        if(b==null)return;
+        ArrayDeque<Buffers> free = pool.get();
+        if(free.size()<POOL_SIZE)free.push(b);
+        b = null;
+        bb = null;
+        chars = null;
+        cb = null;
+        in.close();
+    }
+}
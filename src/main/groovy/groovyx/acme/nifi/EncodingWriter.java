@@ -0,0 +1,239 @@
+package groovyx.acme.nifi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * buffered writer that encodes chars directly into output stream. replacement for {@code BufferedWriter(OutputStreamWriter(out))}
+ * with one char buffer instead of two and without per-instance allocation: char/byte buffers and charset encoder are reused by the next writer
+ * on the same thread after `finish()` or `close()`. the size of buffers defined by {@code IOUtils.setBufferSize}.
+ * for UTF-8, US-ASCII and ISO-8859-1 runs of ascii chars are copied into output buffer without encoder.
+ * malformed and unmappable chars are replaced the same as in OutputStreamWriter.
+ */
+public class EncodingWriter extends Writer {
+    private static final int POOL_SIZE = 4;
+
+    /** buffers and encoder reused between writers of the same thread */
+    private static final class Buffers {
+        final char[] chars;
+        final byte[] bytes;
+        final CharBuffer charBuffer;
+        final ByteBuffer byteBuffer;
+        CharsetEncoder encoder;
+
+        Buffers(int size){
+            chars = new char[size];
+            bytes = new byte[size];
+            charBuffer = CharBuffer.wrap(chars);
+            byteBuffer = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    private static final ThreadLocal<ArrayDeque<Buffers>> pool = new ThreadLocal<ArrayDeque<Buffers>>(){
+        @Override
+        protected ArrayDeque<Buffers> initialValue() {
+            return new ArrayDeque<>(POOL_SIZE);
+        }
+    };
+
+    private final OutputStream out;
+    private final boolean ascii;
+    private Buffers b;
+    private char[] chars;
+    private int size;
+    private int pos = 0;
+
+    /**
+     * @param out stream to write
+     * @param encoding charset name
+     */
+    public EncodingWriter(OutputStream out, String encoding){
+        this(out, IOUtils.charset(encoding));
+    }
+
+    /**
+     * @param out stream to write
+     * @param charset charset to encode chars
+     */
+    public EncodingWriter(OutputStream out, Charset charset){
+        this.out = out;
+        this.ascii = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.ISO_8859_1);
+        this.b = acquire(charset);
+        this.chars = b.chars;
+        this.size = chars.length;
+    }
+
+    private static Buffers acquire(Charset charset){
+        int size = IOUtils.getBufferSize();
+        Buffers b = pool.get().poll();
+        if(b==null || b.chars.length!=size)b = new Buffers(size);
+        if(b.encoder==null || !b.encoder.charset().equals(charset)){
+            b.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }else{
+            b.encoder.reset();
+        }
+        b.byteBuffer.clear();
+        return b;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(b==null)throw new IOException("Stream closed");
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        ensureOpen();
+        if(pos==size)encode(false);
+        chars[pos++] = (char)c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while(len>0){
+            if(pos==size)encode(false);
+            int n = Math.min(len, size-pos);
+            System.arraycopy(cbuf, off, chars, pos, n);
+            pos+=n;
+            off+=n;
+            len-=n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while(len>0){
+            if(pos==size)encode(false);
+            int n = Math.min(len, size-pos);
+            str.getChars(off, off+n, chars, pos);
+            pos+=n;
+            off+=n;
+            len-=n;
+        }
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        if(csq instanceof String){
+            write((String)csq, 0, csq.length());
+            return this;
+        }
+        return super.append(csq);
+    }
+
+    /**
+     * encodes buffered chars into byte buffer and writes full byte buffers into output.
+     * a trailing high surrogate is kept in char buffer until the next call unless it's the end of input.
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        CharBuffer in = b.charBuffer;
+        ByteBuffer bb = b.byteBuffer;
+        byte[] bytes = b.bytes;
+        in.limit(pos).position(0);
+        int limit = pos;
+        if(!ascii){
+            //called even for empty buffer: encoder must get end of input before `flush()`
+            encodeRun(in, bb, endOfInput);
+        }else{
+            while(in.hasRemaining()){
+                int i = in.position();
+                int bp = bb.position();
+                while(i<limit){
+                    char c = chars[i];
+                    if(c>=0x80)break;
+                    if(bp==size){
+                        out.write(bytes, 0, bp);
+                        bp = 0;
+                    }
+                    bytes[bp++] = (byte)c;
+                    i++;
+                }
+                bb.position(bp);
+                in.position(i);
+                if(i==limit)break;
+                //encode run of non-ascii chars
+                int j = i;
+                while(j<limit && chars[j]>=0x80)j++;
+                in.limit(j);
+                //the run followed by ascii char is complete: a dangling surrogate there is malformed
+                boolean end = j<limit || endOfInput;
+                encodeRun(in, bb, end);
+                if(end)b.encoder.reset();
+                in.limit(limit);
+                if(in.position()<j)break; //incomplete surrogate pair at the end of buffer
+            }
+        }
+        int left = in.remaining();
+        if(left>0)System.arraycopy(chars, in.position(), chars, 0, left);
+        pos = left;
+    }
+
+    private void encodeRun(CharBuffer in, ByteBuffer bb, boolean endOfInput) throws IOException {
+        while(true){
+            CoderResult r = b.encoder.encode(in, bb, endOfInput);
+            if(r.isOverflow()){
+                writeBytes();
+            }else if(r.isUnderflow()){
+                return;
+            }else{
+                r.throwException();
+            }
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        ByteBuffer bb = b.byteBuffer;
+        if(bb.position()>0){
+            out.write(b.bytes, 0, bb.position());
+            bb.clear();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        encode(false);
+        writeBytes();
+        out.flush();
+    }
+
+    /**
+     * writes all buffered data, flushes output stream and releases internal buffers for reuse. the output stream remains open.
+     * the writer could not be used after this call.
+     * @throws IOException on io error
+     */
+    public void finish() throws IOException {
+        if(b==null)return;
+        encode(true);
+        if(!ascii){
+            while(b.encoder.flush(b.byteBuffer).isOverflow())writeBytes();
+        }
+        writeBytes();
+        out.flush();
+        ArrayDeque<Buffers> free = pool.get();
+        if(free.size()<POOL_SIZE)free.push(b);
+        b = null;
+        chars = null;
+    }
+
+    /**
+     * finishes the writer and closes output stream
+     * @throws IOException on io error
+     */
+    @Override
+    public void close() throws IOException {
+        if(b==null)return;
+        finish();
+        out.close();
+    }
+}
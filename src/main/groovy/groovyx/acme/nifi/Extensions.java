@@ -0,0 +1,173 @@
+package groovyx.acme.nifi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * process-wide registry of external workers and writers.
+ * worker `withXxx(...)` is a descendant of {@code ParseTransformWriteContext} and writer `asXxx(...)` is a descendant of {@code StreamWritable}.
+ * The registry filled from `META-INF/services/groovyx.acme.nifi.ParseTransformWriteContext` and `META-INF/services/groovyx.acme.nifi.StreamWritable`
+ * where the method name is the class simple name with first lower case letter. Unknown names resolved by naming convention
+ * <code>groovyx.acme.nifi.worker.`name`.`Name`</code> and <code>groovyx.acme.nifi.writer.`name`.`Name`</code> only once.
+ * misses are cached as well because script methods called inside transform closures are looked up as writers first,
+ * the cache of misses is limited to {@value #MAX_MISSES} names and cleared when full.
+ * service providers are not instantiated to register them: only their classes are loaded.
+ * <p>To avoid class loading on the first flowfile the registry could be initialized when processor started:</p>
+ * <pre>{@code
+ *     import groovyx.acme.nifi.Extensions
+ *     def onStart(context){
+ *         Extensions.warmUp()
+ *     }
+ * }</pre>
+ */
+public final class Extensions {
+    //no need to instantiate
+    private Extensions(){}
+
+    /**
+     * creates a new instance of worker or writer
+     * @param <T> type of created object
+     */
+    public interface Factory<T> {
+        T create();
+    }
+
+    private static final Factory<Object> MISSING = new Factory<Object>() {
+        @Override
+        public Object create() {
+            return null;
+        }
+    };
+
+    /** max number of cached unknown names per registry */
+    public static final int MAX_MISSES = 1024;
+
+    private static final ConcurrentHashMap<String,Factory<?>> workers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,Factory<?>> writers = new ConcurrentHashMap<>();
+    private static final Set<String> workerMisses = ConcurrentHashMap.newKeySet();
+    private static final Set<String> writerMisses = ConcurrentHashMap.newKeySet();
+    private static volatile boolean loaded = false;
+
+    /**
+     * loads registered services and warms up factories. could be called several times.
+     */
+    public static void warmUp(){
+        if(loaded)return;
+        synchronized (Extensions.class){
+            if(loaded)return;
+            load(ParseTransformWriteContext.class, workers);
+            load(StreamWritable.class, writers);
+            loaded = true;
+        }
+    }
+
+    /**
+     * registers worker class for the method `name`
+     * @param name worker method name, for example `withJsonReader`
+     * @param c worker class with public constructor without parameters
+     */
+    public static void registerWorker(String name, Class<? extends ParseTransformWriteContext> c){
+        workers.put(name, factory(c));
+    }
+
+    /**
+     * registers writer class for the method `name`
+     * @param name writer method name, for example `asTemplate`
+     * @param c writer class with public constructor without parameters
+     */
+    public static void registerWriter(String name, Class<? extends StreamWritable> c){
+        writers.put(name, factory(c));
+    }
+
+    /**
+     * @param name worker method name
+     * @return new worker instance or null if there is no worker with such name
+     */
+    public static ParseTransformWriteContext newWorker(String name){
+        return (ParseTransformWriteContext)get(name, workers, workerMisses, "groovyx.acme.nifi.worker.", ParseTransformWriteContext.class).create();
+    }
+
+    /**
+     * @param name writer method name
+     * @return new writer instance or null if there is no writer with such name
+     */
+    public static StreamWritable newWriter(String name){
+        return (StreamWritable)get(name, writers, writerMisses, "groovyx.acme.nifi.writer.", StreamWritable.class).create();
+    }
+
+    private static Factory<?> get(String name, ConcurrentHashMap<String,Factory<?>> registry, Set<String> misses, String pkg, Class<?> base){
+        warmUp();
+        Factory<?> f = registry.get(name);
+        if(f!=null)return f;
+        if(misses.contains(name))return MISSING;
+        String className = pkg + name + "." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        try {
+            Class<?> c = Extensions.class.getClassLoader().loadClass(className);
+            if(base.isAssignableFrom(c)){
+                f = factory(c);
+                Factory<?> prev = registry.putIfAbsent(name, f);
+                return prev!=null ? prev : f;
+            }
+        } catch (ClassNotFoundException e) {
+            //cache the miss to avoid the same lookup next time
+        }
+        if(misses.size()>=MAX_MISSES)misses.clear();
+        misses.add(name);
+        return MISSING;
+    }
+
+    /** registers classes listed in `META-INF/services/` files of the base class without instantiating them */
+    private static void load(Class<?> base, ConcurrentHashMap<String,Factory<?>> registry){
+        ClassLoader loader = Extensions.class.getClassLoader();
+        String resource = "META-INF/services/" + base.getName();
+        try {
+            Enumeration<URL> urls = loader.getResources(resource);
+            while(urls.hasMoreElements()){
+                URL url = urls.nextElement();
+                try(BufferedReader r = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))){
+                    for(String line = r.readLine(); line!=null; line = r.readLine()){
+                        int comment = line.indexOf('#');
+                        String className = (comment<0 ? line : line.substring(0, comment)).trim();
+                        if(className.isEmpty())continue;
+                        Class<?> c = Class.forName(className, false, loader);
+                        if(!base.isAssignableFrom(c))throw new IllegalStateException(className+" listed in "+url+" is not a "+base.getName());
+                        String name = c.getSimpleName();
+                        name = Character.toLowerCase(name.charAt(0)) + name.substring(1);
+                        registry.putIfAbsent(name, factory(c));
+                    }
+                }
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to load "+base.getName()+" extensions: "+e.getMessage(), e);
+        }
+    }
+
+    private static Factory<Object> factory(Class<?> c){
+        final String className = c.getName();
+        final MethodHandle ctor;
+        try {
+            ctor = MethodHandles.publicLookup().findConstructor(c, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Public constructor without parameters expected in "+className, e);
+        }
+        return new Factory<Object>() {
+            @Override
+            public Object create() {
+                try {
+                    return ctor.invokeExact();
+                } catch (Throwable t) {
+                    throw new RuntimeException("Failed to instantiate "+className, t);
+                }
+            }
+        };
+    }
+}
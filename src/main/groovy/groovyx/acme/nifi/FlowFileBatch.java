@@ -0,0 +1,253 @@
+package groovyx.acme.nifi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.InputStreamCallback;
+
+/**
+ * holds a batch of flowfiles taken from input queue by {@code AcmeNiFi.withFlowFiles(...)}.
+ * runs the same worker (ParseTransformWriteContext) over each flowfile inside one session,
+ * then transfers and drops processed files with one call per relationship and reports batch counters.
+ * when `parallel` is greater then 1 and the worker supports it (see {@code ParseTransformWriteContext.isParallelizable()})
+ * the content of flowfiles is read into memory and `parse` + `transform` stages are executed on a thread pool,
+ * while `write`, attribute updates and transfer are done in original order on the session thread because ProcessSession is not thread-safe.
+ */
+class FlowFileBatch {
+    static final String COUNTER_PREFIX = "AcmeNiFi batch ";
+
+    private final ProcessSession session;
+    private final Relationship REL_SUCCESS;
+    private final List<FlowFile> flowFiles;
+    private final int parallel;
+    private final long maxInFlightBytes;
+    private final ExecutorService executor;
+
+    //shared pools for parallel batches by parallelism level
+    private static final ConcurrentHashMap<Integer,ExecutorService> pools = new ConcurrentHashMap<>();
+
+    /**
+     * gets up to `max` flowfiles from input queue. when `maxBytes` defined the batch is also limited by the total content size
+     * (the first flowfile always accepted even if it's larger then `maxBytes`).
+     */
+    FlowFileBatch(ProcessSession session, Relationship REL_SUCCESS, Map<String,Object> parms){
+        this.session     = session;
+        this.REL_SUCCESS = REL_SUCCESS;
+        final int max       = ((Number)parms.getOrDefault("max", 100)).intValue();
+        final Number maxBytes = (Number)parms.get("maxBytes");
+        if(max<1)throw new IllegalArgumentException("The batch `max` must be positive: "+max);
+        this.parallel         = ((Number)parms.getOrDefault("parallel", 1)).intValue();
+        this.maxInFlightBytes = ((Number)parms.getOrDefault("maxInFlightBytes", 64L*1024*1024)).longValue();
+        this.executor         = (ExecutorService)parms.get("executor");
+        if(maxBytes==null){
+            this.flowFiles = session.get(max);
+        }else{
+            final long limit = maxBytes.longValue();
+            this.flowFiles = session.get(new FlowFileFilter(){
+                int count = 0;
+                long bytes = 0;
+                @Override
+                public FlowFileFilterResult filter(FlowFile f) {
+                    if( count>0 && bytes+f.getSize()>limit )return FlowFileFilterResult.REJECT_AND_TERMINATE;
+                    count++;
+                    bytes+=f.getSize();
+                    return count<max ? FlowFileFilterResult.ACCEPT_AND_CONTINUE : FlowFileFilterResult.ACCEPT_AND_TERMINATE;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return flowfiles of this batch
+     */
+    List<FlowFile> getFlowFiles(){
+        return Collections.unmodifiableList(flowFiles);
+    }
+
+    /**
+     * process each flowfile of the batch with context `ctx` and then transfer/drop all of them at once
+     * @param ctx worker to apply to each flowfile of the batch
+     */
+    void run(ParseTransformWriteContext ctx){
+        if(flowFiles.isEmpty())return;
+        long start = System.nanoTime();
+        long bytes = 0;
+        List<FlowFile> transfer = new ArrayList<>(flowFiles.size());
+        List<FlowFile> drop = new ArrayList<>();
+        if(parallel>1 && flowFiles.size()>1 && ctx.isParallelizable()){
+            bytes = runParallel(ctx, transfer, drop);
+        }else{
+            for(FlowFile f : flowFiles){
+                bytes+=f.getSize();
+                if( ctx.runFlowFile(f) ){
+                    transfer.add(ctx.flowFile);
+                }else{
+                    drop.add(ctx.flowFile);
+                }
+            }
+        }
+        if(transfer.size()>0)session.transfer(transfer, REL_SUCCESS);
+        if(drop.size()>0)session.remove(drop);
+        session.adjustCounter(COUNTER_PREFIX+"count", 1, false);
+        session.adjustCounter(COUNTER_PREFIX+"flowfiles", flowFiles.size(), false);
+        session.adjustCounter(COUNTER_PREFIX+"bytes", bytes, false);
+        session.adjustCounter(COUNTER_PREFIX+"millis", (System.nanoTime()-start)/1000000, false);
+    }
+
+    /** flowfile that is being parsed and transformed on a pool thread */
+    private static class Pending {
+        FlowFile flowFile;
+        long size;
+        ControlMap attr;
+        WorkerMetrics metrics;
+        Compression.Codec codec = Compression.Codec.NONE;
+        Future<Object> data;
+    }
+
+    /**
+     * reads flowfiles content on session thread, runs parse+transform on the pool and writes results in the original order.
+     * the number of bytes held by flowfiles in progress limited by `maxInFlightBytes` (at least one flowfile is always in progress).
+     * @return total bytes of processed flowfiles
+     */
+    private long runParallel(final ParseTransformWriteContext ctx, List<FlowFile> transfer, List<FlowFile> drop){
+        ExecutorService pool = executor!=null ? executor : getPool(parallel);
+        ArrayDeque<Pending> pending = new ArrayDeque<>();
+        long inFlight = 0;
+        long bytes = 0;
+        ctx.setParallel(true);
+        try {
+            for (FlowFile f : flowFiles) {
+                while (!pending.isEmpty() && (inFlight + f.getSize() > maxInFlightBytes || pending.size() >= parallel * 2)) {
+                    Pending p = pending.poll();
+                    inFlight -= p.size;
+                    complete(ctx, p, transfer, drop);
+                }
+                final Pending p = new Pending();
+                p.flowFile = f;
+                p.size = f.getSize();
+                p.attr = new ControlMap(f.getAttributes());
+                final byte[] content = read(f);
+                if(ctx.getMetricsConfig()!=null){
+                    p.metrics = new WorkerMetrics();
+                    p.metrics.bytesIn = content.length;
+                }
+                p.data = pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        WorkerMetrics m = p.metrics;
+                        long t = m==null ? 0 : System.nanoTime();
+                        InputStream in = new ByteArrayInputStream(content);
+                        Compression compression = ctx.getCompression();
+                        if(compression!=null){
+                            //decompression runs on the pool as well
+                            p.codec = compression.detect(in, p.flowFile);
+                            in = Compression.decompress(in, p.codec);
+                        }
+                        //we don't call `parse` for an empty content the same as in sequential mode
+                        Object data;
+                        try {
+                            data = content.length > 0 ? ctx.parse(in, content.length) : null;
+                        }finally {
+                            in.close();
+                        }
+                        if(m!=null){
+                            long now = System.nanoTime();
+                            m.parseNanos = now-t;
+                            t = now;
+                        }
+                        data = ctx.transform(data, p.attr);
+                        if(m!=null)m.transformNanos = System.nanoTime()-t;
+                        return data;
+                    }
+                });
+                pending.add(p);
+                inFlight += p.size;
+                bytes += p.size;
+            }
+            while (!pending.isEmpty()) {
+                complete(ctx, pending.poll(), transfer, drop);
+            }
+        }finally {
+            for(Pending p : pending)p.data.cancel(true);
+            ctx.setParallel(false);
+        }
+        return bytes;
+    }
+
+    /** waits for parse+transform result and writes it to the flowfile on the session thread */
+    private void complete(ParseTransformWriteContext ctx, Pending p, List<FlowFile> transfer, List<FlowFile> drop){
+        Object data;
+        try {
+            data = p.data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.toString(), e);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if(t instanceof RuntimeException)throw (RuntimeException)t;
+            throw new RuntimeException(t.toString(), t);
+        }
+        if( ctx.completeFlowFile(p.flowFile, data, p.attr, p.metrics, p.codec) ){
+            transfer.add(ctx.flowFile);
+        }else{
+            drop.add(ctx.flowFile);
+        }
+    }
+
+    private byte[] read(FlowFile f){
+        if(f.getSize()>Integer.MAX_VALUE-8)throw new IllegalStateException("The flowfile is too large for parallel processing: "+f.getSize());
+        final byte[][] content = new byte[1][];
+        session.read(f, new InputStreamCallback() {
+            @Override
+            public void process(InputStream in) throws IOException {
+                content[0] = IOUtils.toBytes(in, (int)f.getSize());
+            }
+        });
+        return content[0];
+    }
+
+    /** creates named daemon threads: shared pools are never shut down and must not prevent jvm exit */
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory DAEMON_FACTORY = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setDaemon(true);
+            t.setName("AcmeNiFi-parallel-"+pool.getParallelism()+"-"+t.getPoolIndex());
+            return t;
+        }
+    };
+
+    /**
+     * shared pool with `parallel` threads. also used by {@code ParallelRecords}.
+     * the pool is kept for the life of jvm, its idle threads are released by ForkJoinPool itself.
+     */
+    static ExecutorService getPool(int parallel){
+        ExecutorService pool = pools.get(parallel);
+        if(pool==null){
+            pool = new ForkJoinPool(parallel, DAEMON_FACTORY, null, false);
+            ExecutorService prev = pools.putIfAbsent(parallel, pool);
+            if(prev!=null){
+                pool.shutdown();
+                pool = prev;
+            }
+        }
+        return pool;
+    }
+}
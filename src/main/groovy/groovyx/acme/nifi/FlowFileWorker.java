@@ -6,9 +6,7 @@ import groovy.lang.Closure;
 import groovy.lang.MissingMethodException;
 import groovy.lang.Script;
 import groovy.util.Node;
-import groovy.util.XmlParser;
 import groovy.util.slurpersupport.GPathResult;
-import groovy.xml.XmlUtil;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -17,7 +15,6 @@ import java.io.Writer;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.nifi.flowfile.FlowFile;
@@ -37,6 +34,7 @@ public class FlowFileWorker {
     private FlowFile flowFile;
     private ProcessSession session;
     private Relationship REL_SUCCESS;
+    private FlowFileBatch batch = null;
 
     FlowFileWorker(Script script, boolean isNew){
         this.session     = (ProcessSession) script.getBinding().getProperty("session");
@@ -48,12 +46,46 @@ public class FlowFileWorker {
         }
     }
 
+    FlowFileWorker(Script script, Map<String,Object> batchParms){
+        this.session     = (ProcessSession) script.getBinding().getProperty("session");
+        this.REL_SUCCESS = (Relationship)script.getBinding().getProperty("REL_SUCCESS");
+        this.batch       = new FlowFileBatch(session, REL_SUCCESS, batchParms);
+    }
+
     FlowFileWorker( FlowFile flowFile, ProcessSession session, Relationship REL_SUCCESS){
         this.flowFile    = flowFile;
         this.session     = session;
         this.REL_SUCCESS = REL_SUCCESS;
     }
 
+    /**
+     * runs the worker context for current flowfile or for each flowfile of the batch
+     * @param ctx initialized worker context
+     */
+    private void run(ParseTransformWriteContext ctx){
+        ctx.setBatch(batch);
+        ctx.run();
+    }
+
+    /**
+     * runs the worker context with common options
+     * @param ctx initialized worker context
+     * @param name worker name to report metrics
+     * @param parms worker options. supported here: `readOnly`, `metrics`, `decompress`, `compress`, `compressionLevel`, `hash`
+     */
+    private void run(ParseTransformWriteContext ctx, String name, Map<String,Object> parms){
+        ctx.setReadOnly( Boolean.TRUE.equals(parms.get("readOnly")) );
+        setCommonOptions(ctx, name, parms);
+        run(ctx);
+    }
+
+    /** sets options supported by all workers */
+    private static void setCommonOptions(ParseTransformWriteContext ctx, String name, Map<?,?> parms){
+        ctx.setMetrics( Metrics.create(name, parms.get("metrics")) );
+        ctx.setCompression( Compression.create(parms.get("decompress"), parms.get("compress"), parms.get("compressionLevel")) );
+        ctx.setContentHash( ContentHash.create(parms.get("hash")) );
+    }
+
     @SuppressWarnings("unchecked")
     public void withJson(Closure transform) {
         withJson(Collections.EMPTY_MAP, transform);
@@ -68,32 +100,70 @@ public class FlowFileWorker {
      * <tr class="rowColor"><td>encoding</td><td>encoding to parse/write json (default=UTF-8)</td></tr>
      * <tr class="rowColor"><td>indent</td><td>true if you want to pretty print the output json (default=false)</td></tr>
      * <tr class="rowColor"><td>relax</td><td>true if reLAX parser must be applied to accept unquoted strings (default=false)</td></tr>
+     * <tr class="rowColor"><td>parser</td><td>JsonSlurper parser type: `CHAR_BUFFER`, `CHARACTER_SOURCE`, `INDEX_OVERLAY`, `LAX`, or `auto` to choose by flowfile size:
+     *     `CHAR_BUFFER` for content smaller then `largeSize` and `CHARACTER_SOURCE` (streaming from reader) for larger content. (default=auto, ignored if relax=true)
+     *     `INDEX_OVERLAY` is the fastest one for read-only access: values are materialized only when accessed, but parsed objects could not be modified.</td></tr>
+     * <tr class="rowColor"><td>largeSize</td><td>content size in bytes starting from which `auto` parser switches to `CHARACTER_SOURCE` (default=2000000)</td></tr>
+     * <tr class="rowColor"><td>readOnly</td><td>true to only read the content and evaluate attributes: the flowfile is transferred with original content
+     *     and the value returned by closure is not written (still null means drop). this skips serialization and content repository write. (default=false)</td></tr>
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
      * </table>
      * @param transform closure with one parameter - GPathResult
      */
     public void withJson(final Map<String,Object> parms, Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             final String encoding = (String)parms.getOrDefault("encoding","UTF-8");
             final Boolean indent = (Boolean)parms.getOrDefault("indent",   Boolean.FALSE);
             final Boolean relax = (Boolean)parms.getOrDefault("relax",   Boolean.FALSE);
+            final String parserType = parms.getOrDefault("parser", "auto").toString();
+            final long largeSize = ((Number)parms.getOrDefault("largeSize", 2000000L)).longValue();
             @Override
-            protected Object parse(InputStream in) throws Exception {
+            protected boolean isParallelizable() {
+                return true;
+            }
+            @Override
+            protected Object parse(InputStream in, long size) throws Exception {
                 try( Reader r = IOUtils.toReader(in, encoding)){
                     JsonSlurper parser = new JsonSlurper();
-                    if(relax)parser.setType(JsonParserType.LAX);
+                    parser.setType(jsonParserType(relax, parserType, largeSize, size));
                     return parser.parse(r);
                 }
             }
             @Override
             protected void write(Object data, OutputStream out) throws Exception {
                 if(data instanceof Map || data instanceof Collection || data instanceof CharSequence || data instanceof Boolean || data instanceof Number){
-                    try( Writer w = IOUtils.toWriter(out, encoding)){
-                        JsonUtils.writeJson(data,w,indent?0:-1);
+                    if(JsonStreamWriter.isAsciiCompatible(encoding)){
+                        //json writer escapes all non-ascii chars so we could write bytes directly
+                        JsonUtils.writeJson(data,out,indent?0:-1);
+                    }else{
+                        try( Writer w = IOUtils.toWriter(out, encoding)){
+                            JsonUtils.writeJson(data,w,indent?0:-1);
+                        }
                     }
                 }else super.write(data, out);
             }
 
-        }.run();
+        }, "withJson", parms);
+    }
+
+    /**
+     * chooses JsonSlurper parser type for `withJson` options
+     * @param relax `relax` option
+     * @param parser `parser` option: parser type name or `auto`
+     * @param largeSize `largeSize` option
+     * @param size content size in bytes
+     * @return parser type
+     */
+    static JsonParserType jsonParserType(boolean relax, String parser, long largeSize, long size){
+        if(relax)return JsonParserType.LAX;
+        if("auto".equalsIgnoreCase(parser)){
+            return size<largeSize ? JsonParserType.CHAR_BUFFER : JsonParserType.CHARACTER_SOURCE;
+        }
+        try {
+            return JsonParserType.valueOf(parser.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported json parser: "+parser+". Expected: auto, CHAR_BUFFER, CHARACTER_SOURCE, INDEX_OVERLAY, LAX");
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -108,37 +178,55 @@ public class FlowFileWorker {
      * <table summary="">
      * <tr class="rowColor"><td>validating</td><td>true if the parser should validate documents as they are parsed (default=false, ignored if `parser` defined)</td></tr>
      * <tr class="rowColor"><td>namespaceAware</td><td>true if the parser should provide support for XML namespaces (default=true, ignored if `parser` defined)</td></tr>
-     * <tr class="rowColor"><td>parser</td><td>XmlSlurper or XmlParser object that has a method `parse(InputStream)` - if provided then `validating` and `namespaceAware` parameters are ignored</td></tr>
-     * <tr class="rowColor"><td>indent</td><td>should the xml be pretty printed (default=true) (only for groovy.util.Node)</td></tr>
-     * <tr class="rowColor"><td>xmlDeclaration</td><td>prepend xml declaration (default=false) (only for groovy.util.Node)</td></tr>
+     * <tr class="rowColor"><td>parser</td><td>`sax` (default) - XmlParser over SAX parser reused within the thread,
+     *     `stax` - builds the same groovy.util.Node with StAX reader (faster with Woodstox or other fast StAX implementation in classpath), doesn't support `validating`,
+     *     or XmlSlurper or XmlParser object that has a method `parse(InputStream)` - if provided then `validating` and `namespaceAware` parameters are ignored</td></tr>
+     * <tr class="rowColor"><td>indent</td><td>should the xml be pretty printed (default=true) (for groovy.util.Node and GPathResult). `false` writes xml in one line without whitespaces between elements</td></tr>
+     * <tr class="rowColor"><td>xmlDeclaration</td><td>prepend xml declaration (default=false for groovy.util.Node, true for GPathResult).
+     *     GPathResult output is framed as by {@code XmlUtil.serialize}: declaration followed by the root element and new line at the end</td></tr>
+     * <tr class="rowColor"><td>readOnly</td><td>true to only read the content and evaluate attributes: the flowfile is transferred with original content
+     *     and the value returned by closure is not written (still null means drop). this skips serialization and content repository write. (default=false)</td></tr>
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
      * </table>
      * @param transform closure with one parameter - GPathResult
      */
     public void withXml(final Map<String,Object> parms, Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             @Override
-            protected Object parse(InputStream in) throws Exception {
+            protected boolean isParallelizable() {
+                //custom parser objects are not thread-safe
                 Object parser = parms.get("parser");
-                if(parser!=null){
+                return parser==null || parser instanceof CharSequence;
+            }
+            @Override
+            protected Object parse(InputStream in) throws Exception {
+                Object parser = parms.getOrDefault("parser", "sax");
+                Boolean validating = (Boolean) parms.getOrDefault("validating", Boolean.FALSE);
+                Boolean namespaceAware = (Boolean) parms.getOrDefault("namespaceAware", Boolean.TRUE);
+                if("sax".equals(parser)){
+                    return XmlUtils.newXmlParser(validating, namespaceAware).parse(in);
+                }else if("stax".equals(parser)){
+                    if(validating)throw new IllegalArgumentException("Unsupported option for `withXml` method: validating=true with parser=stax");
+                    return XmlUtils.parseNode(in, namespaceAware);
+                }else if(parser instanceof CharSequence){
+                    throw new IllegalArgumentException("Unsupported option for `withXml` method: parser="+parser+". Expected: sax, stax, or parser object");
+                }else{
                     Method m = parser.getClass().getMethod("parse", InputStream.class);
                     return m.invoke(parser, in);
-                }else {
-                    Boolean validating = (Boolean) parms.getOrDefault("validating", Boolean.FALSE);
-                    Boolean namespaceAware = (Boolean) parms.getOrDefault("namespaceAware", Boolean.TRUE);
-                    return new XmlParser( validating, namespaceAware).parse(in);
                 }
             }
             @Override
             protected void write(Object o, OutputStream out) throws Exception {
-                Boolean xmlDeclaration = (Boolean) parms.getOrDefault("xmlDeclaration", Boolean.FALSE);
+                //GPathResult was serialized by XmlUtil.serialize that always writes xml declaration
+                Boolean xmlDeclaration = (Boolean) parms.getOrDefault("xmlDeclaration", o instanceof GPathResult);
                 Boolean indent = (Boolean) parms.getOrDefault("indent", Boolean.TRUE);
                 if(o instanceof Node) {
                     XmlUtils.toStream((Node) o, out, "UTF-8", xmlDeclaration, indent);
                 }else if(o instanceof GPathResult){
-                    XmlUtil.serialize((GPathResult) o, out);
+                    XmlUtils.toStream((GPathResult) o, out, "UTF-8", xmlDeclaration, indent);
                 }else super.write(o, out);
             }
-        }.run();
+        }, "withXml", parms);
     }
 	
     @SuppressWarnings("unchecked")
@@ -152,11 +240,14 @@ public class FlowFileWorker {
      * @param parms map with options
      * <table summary="">
      * <tr class="rowColor"><td>encoding</td><td>encoding to use to read input flow-file stream (default=UTF-8)</td></tr>
+     * <tr class="rowColor"><td>readOnly</td><td>true to only read the content and evaluate attributes: the flowfile is transferred with original content
+     *     and the value returned by closure is not written (still null means drop). this skips serialization and content repository write. (default=false)</td></tr>
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
      * </table>
      * @param transform transformer
      */
     public void withReader(final Map<String,Object> parms, Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             final String encoding = (String)parms.getOrDefault("encoding","UTF-8");
 			Reader reader;
             @Override
@@ -168,7 +259,7 @@ public class FlowFileWorker {
             void finit() {
 				IOUtils.closeQuietly(reader);
             }
-        }.run();
+        }, "withReader", parms);
     }
 
     /**
@@ -187,12 +278,13 @@ public class FlowFileWorker {
      * @param parms additional parameter(s): `encoding` - encoding used for reader and writer (default=UTF-8)
      * <table summary="">
      * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file in/out streams (default=UTF-8)</td></tr>
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
      * </table>
      * @param transform closure
      */
     public void withReadWriter(final Map<String,Object> parms, final Closure transform){
         final String encoding = (String)parms.getOrDefault("encoding","UTF-8");
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, null){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             @Override
             public boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws IOException {
                 Object ret = null;
@@ -208,7 +300,7 @@ public class FlowFileWorker {
                 }
                 return true; //(ret!=null); //transfer file
             }
-        }.run();
+        }, "withReadWriter", parms);
     }
 
     /**
@@ -217,8 +309,21 @@ public class FlowFileWorker {
      * note, that return value of the closure ignored.
      * @param transform closure
      */
+    @SuppressWarnings("unchecked")
     public void withStreams(final Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS,null){
+        withStreams(Collections.EMPTY_MAP, transform);
+    }
+
+    /**
+     * the same as {@code withStreams(Closure)} with options:
+     * <table summary="">
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
+     * </table>
+     * @param parms worker options
+     * @param transform closure
+     */
+    public void withStreams(Map<String,Object> parms, final Closure transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             @Override
             public boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws IOException {
                 Object ret = null;
@@ -229,17 +334,34 @@ public class FlowFileWorker {
                 }
                 return true; //(ret!=null); //transfer file
             }
-        }.run();
+        }, "withStreams", parms);
     }
 
 
     /**
      * runs {@code transform} closure passing one (InputStream sin) or two (InputStream sin,Map attr) parameters.
      * closure should process input data, optionally change the attributes, and could return the StreamWritable object or null to drop flow file.
+     * the input stream returned untouched keeps the original content without copying it, and {@code asSlice(offset, size)}
+     * keeps only the range of the original content. the slice is a clone of the flowfile with new `uuid` (see {@code ContentSlice}).
      * @param transform the transformer to apply to a flowfile content
      */
+    @SuppressWarnings("unchecked")
     public void withStream(Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform).run();
+        withStream(Collections.EMPTY_MAP, transform);
+    }
+
+    /**
+     * the same as {@code withStream(Closure)} with options:
+     * <table summary="">
+     * <tr class="rowColor"><td>readOnly</td><td>true to only read the content and evaluate attributes: the flowfile is transferred with original content (default=false)</td></tr>
+     * <tr class="rowColor"><td>metrics, decompress, compress, compressionLevel, hash</td><td>common worker options (see {@code ParseTransformWriteContext})</td></tr>
+     * </table>
+     * the original content is kept or sliced without copying only when it's not transformed on the fly by `decompress`, `compress`, or `hash`.
+     * @param parms worker options
+     * @param transform the transformer to apply to a flowfile content
+     */
+    public void withStream(Map<String,Object> parms, Closure transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform), "withStream", parms);
     }
 
     /**
@@ -248,7 +370,7 @@ public class FlowFileWorker {
      * `asStream{}` , `asWriter{}` , `CharSequence` , or `groovy.lang.Writable`
      */
     public void write(final Closure transform){
-        new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
+        run(new ParseTransformWriteContext(session, flowFile, REL_SUCCESS, transform){
             @Override
             public Object transform(Object data, ControlMap attr) throws IOException {
                 if(transform.getMaximumNumberOfParameters()==1){
@@ -257,18 +379,18 @@ public class FlowFileWorker {
                     return delegated(transform).call();
                 }
             }
-        }.run();
+        });
     }
 
-    private Map<String, Class<ParseTransformWriteContext>> methodsCache = new HashMap<>();
     /**
      * method to support external `with` commands implementation. normally called by groovy.
-     * searches for <code>groovyx.acme.nifi.worker.`name`.`Name`</code> class that implements flowfile transforming method
+     * takes the worker from `Extensions` registry: <code>groovyx.acme.nifi.worker.`name`.`Name`</code> class that implements flowfile transforming method.
+     * the `metrics`, `decompress`, `compress`, `compressionLevel`, and `hash` options in the first Map argument are supported by all external workers
+     * (see {@code WorkerMetrics} and {@code withJson}). the workers that create new flowfiles (`splitJson`, `splitLines`) don't compress or hash them.
      * @param name method name
      * @param arg arguments provided by caller
      * @return null
      */
-    @SuppressWarnings("unchecked")
     public Object methodMissing(String name, Object arg){
         Object[] args = null;
 
@@ -276,25 +398,14 @@ public class FlowFileWorker {
         if( arg instanceof Object[] )args = (Object[])arg;
         else throw new RuntimeException("Unsupported argument list: "+arg+" for `"+name+"`");
 
-        Class<ParseTransformWriteContext> methodClass = methodsCache.get(name);
-        if(methodClass==null) {
-            String className = "groovyx.acme.nifi.worker." + name + "." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-            try {
-                methodClass = (Class<ParseTransformWriteContext>) this.getClass().getClassLoader().loadClass(className);
-            } catch (Throwable e) {
-                MissingMethodException me = new MissingMethodException( name, this.getClass(), args );
-                throw new RuntimeException(me.getMessage(),e);
-            }
-            methodsCache.put(name,methodClass);
-        }
-
-        ParseTransformWriteContext ctx = null;
-        try {
-            ctx = methodClass.newInstance();
-        } catch (Throwable e) {
-            throw new RuntimeException("Failed to instantiate "+methodClass,e);
+        ParseTransformWriteContext ctx = Extensions.newWorker(name);
+        if(ctx==null) {
+            throw new MissingMethodException( name, this.getClass(), args );
         }
         ctx.init(this.session, this.flowFile, this.REL_SUCCESS, null);
+        ctx.setBatch(batch);
+        //common options of all workers
+        if(args.length>0 && args[0] instanceof Map)setCommonOptions(ctx, name, (Map)args[0]);
         ctx.invoke(args);
         return null;
     }
@@ -20,11 +20,25 @@ package groovyx.acme.nifi;
 
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * io helpers
  */
 public class IOUtils{
+	private static volatile int bufferSize = 8192;
+	private static final ConcurrentHashMap<String,Charset> charsets = new ConcurrentHashMap<>();
+	private static final int COPY_BUFFER_SIZE = 65536;
+	/** copy buffer reused by the thread */
+	private static final ThreadLocal<byte[]> copyBuffer = new ThreadLocal<byte[]>(){
+		@Override
+		protected byte[] initialValue() {
+			return new byte[COPY_BUFFER_SIZE];
+		}
+	};
 
 	public static void closeQuietly(java.io.Reader in){
 		if(in != null){
@@ -49,12 +63,196 @@ public class IOUtils{
 		}
 	}
 
+	/**
+	 * reads the whole stream into a byte array
+	 * @param in stream to read
+	 * @param size expected size of the stream content
+	 * @return stream content
+	 * @throws IOException on io error
+	 */
+	public static byte[] toBytes(InputStream in, int size) throws IOException {
+		byte[] buf = new byte[size];
+		int pos = 0;
+		int n;
+		while(pos<size && (n = in.read(buf, pos, size-pos))!=-1){
+			pos+=n;
+		}
+		if(pos<size)throw new EOFException("Unexpected end of stream: read "+pos+" bytes of "+size);
+		return buf;
+	}
+
+	/**
+	 * reads the whole stream of unknown size into a byte array
+	 * @param in stream to read till the end
+	 * @return stream content
+	 * @throws IOException on io error
+	 */
+	public static byte[] toBytes(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+		copy(in, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * copies the whole input stream into output stream through a large buffer reused by the current thread
+	 * @param in stream to read
+	 * @param out stream to write
+	 * @return number of bytes copied
+	 * @throws IOException on io error
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		return copy(in, out, Long.MAX_VALUE);
+	}
+
+	/**
+	 * copies up to `size` bytes from input stream into output stream through a large buffer reused by the current thread
+	 * @param in stream to read
+	 * @param out stream to write
+	 * @param size max number of bytes to copy
+	 * @return number of bytes copied
+	 * @throws IOException on io error
+	 */
+	public static long copy(InputStream in, OutputStream out, long size) throws IOException {
+		byte[] buf = copyBuffer.get();
+		long count = 0;
+		int n;
+		while(count<size && (n = in.read(buf, 0, (int)Math.min(buf.length, size-count)))!=-1){
+			out.write(buf, 0, n);
+			count+=n;
+		}
+		return count;
+	}
+
+	/**
+	 * skips exactly `n` bytes of the stream
+	 * @param in stream to skip
+	 * @param n number of bytes to skip
+	 * @throws IOException on io error or if the stream ended earlier
+	 */
+	public static void skipFully(InputStream in, long n) throws IOException {
+		long left = n;
+		while(left>0){
+			long s = in.skip(left);
+			if(s<=0){
+				//skip could return 0 before the end of stream
+				if(in.read()==-1)throw new EOFException("Unexpected end of stream: skipped "+(n-left)+" bytes of "+n);
+				s = 1;
+			}
+			left-=s;
+		}
+	}
+
+	/**
+	 * sets the size of char and byte buffers of readers and writers created by `toReader` and `toWriter`.
+	 * buffers of other size already pooled by threads are replaced on the next use.
+	 * @param size buffer size (default=8192)
+	 */
+	public static void setBufferSize(int size){
+		if(size<16)throw new IllegalArgumentException("The buffer size is too small: "+size);
+		bufferSize = size;
+	}
+
+	/**
+	 * @return the size of char and byte buffers of readers and writers
+	 */
+	public static int getBufferSize(){
+		return bufferSize;
+	}
+
+	/**
+	 * returns charset by name. charsets are cached, so the name is resolved only once.
+	 * @param encoding charset name
+	 * @return charset
+	 * @throws java.nio.charset.UnsupportedCharsetException if charset not supported
+	 */
+	public static Charset charset(String encoding){
+		if("UTF-8".equals(encoding))return StandardCharsets.UTF_8;
+		Charset cs = charsets.get(encoding);
+		if(cs==null){
+			cs = Charset.forName(encoding);
+			charsets.putIfAbsent(encoding, cs);
+		}
+		return cs;
+	}
+
+	/**
+	 * returns charset that encodes chars the same as `cs` but without byte order mark: `UTF-16` to `UTF-16BE`, `x-UTF-16LE-BOM` to `UTF-16LE`...
+	 * used when parts of one content are encoded separately, the mark is written once by {@code withBOM(out, cs)}.
+	 * @param cs charset
+	 * @return charset without byte order mark or `cs` itself
+	 */
+	public static Charset withoutBOM(Charset cs){
+		switch (cs.name()){
+			case "UTF-16": return StandardCharsets.UTF_16BE;
+			case "x-UTF-16LE-BOM": return StandardCharsets.UTF_16LE;
+			case "X-UTF-32BE-BOM": return charset("UTF-32BE");
+			case "X-UTF-32LE-BOM": return charset("UTF-32LE");
+			default: return cs;
+		}
+	}
+
+	/**
+	 * wraps the stream to write the byte order mark of the charset before the first byte. empty content stays empty.
+	 * @param out stream to write content encoded with {@code withoutBOM(cs)}
+	 * @param cs charset
+	 * @return wrapped stream or `out` itself if the charset has no byte order mark
+	 */
+	public static OutputStream withBOM(OutputStream out, Charset cs){
+		byte[] full = "a".getBytes(cs);
+		final byte[] bom = Arrays.copyOf(full, full.length - "a".getBytes(withoutBOM(cs)).length);
+		if(bom.length==0)return out;
+		return new FilterOutputStream(out){
+			private boolean started = false;
+
+			@Override
+			public void write(int b) throws IOException {
+				start();
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if(len==0)return;
+				start();
+				out.write(b, off, len);
+			}
+
+			private void start() throws IOException {
+				if(!started){
+					started = true;
+					out.write(bom);
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param in stream to read
+	 * @param encoding charset name
+	 * @return buffered reader with buffers pooled by current thread (see {@code DecodingReader})
+	 * @throws UnsupportedEncodingException if charset not supported
+	 */
 	public static Reader toReader(InputStream in, String encoding) throws UnsupportedEncodingException {
-		return new BufferedReader(new InputStreamReader(in, encoding));
+		return new DecodingReader(in, supportedCharset(encoding));
 	}
 
+	/**
+	 * @param out stream to write
+	 * @param encoding charset name
+	 * @return buffered writer with buffers pooled by current thread (see {@code EncodingWriter})
+	 * @throws UnsupportedEncodingException if charset not supported
+	 */
 	public static Writer toWriter(OutputStream out, String encoding) throws UnsupportedEncodingException {
-		return new BufferedWriter(new OutputStreamWriter(out, encoding));
+		return new EncodingWriter(out, supportedCharset(encoding));
+	}
+
+	//the same exception as thrown by InputStreamReader and OutputStreamWriter
+	private static Charset supportedCharset(String encoding) throws UnsupportedEncodingException {
+		try {
+			return charset(encoding);
+		} catch (IllegalArgumentException e) {
+			throw new UnsupportedEncodingException(encoding);
+		}
 	}
 
 
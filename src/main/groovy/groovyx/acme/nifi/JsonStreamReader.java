@@ -0,0 +1,355 @@
+package groovyx.acme.nifi;
+
+import groovy.json.JsonException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * non-recursive pull json reader: returns json tokens one by one without building values in memory,
+ * so memory usage depends only on the nesting level and the length of the longest string.
+ * values are returned the same as {@code JsonSlurper} does: strings, Integer/Long/BigInteger, BigDecimal, Boolean, null.
+ * <pre>{@code
+ *     def r = new JsonStreamReader(reader)
+ *     for(int t = r.next(); t!=JsonStreamReader.END_DOCUMENT; t = r.next()){
+ *         if(t==JsonStreamReader.NAME)println r.getText()
+ *     }
+ * }</pre>
+ */
+public class JsonStreamReader implements Closeable {
+    public static final int START_OBJECT = 1;
+    public static final int END_OBJECT   = 2;
+    public static final int START_ARRAY  = 3;
+    public static final int END_ARRAY    = 4;
+    /** key of object */
+    public static final int NAME         = 5;
+    public static final int STRING       = 6;
+    public static final int NUMBER       = 7;
+    public static final int BOOLEAN      = 8;
+    public static final int NULL         = 9;
+    public static final int END_DOCUMENT = 10;
+
+    //reader states
+    private static final int VALUE        = 0; //value expected
+    private static final int FIRST_NAME   = 1; //name or end of object expected
+    private static final int FIRST_VALUE  = 2; //value or end of array expected
+    private static final int AFTER_VALUE  = 3; //delimiter or end of container expected
+    private static final int DONE         = 4;
+
+    private final Reader reader;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private long offset = 0; //number of chars before buf
+    private final StringBuilder text = new StringBuilder();
+    private int token = 0;
+    private int state = VALUE;
+
+    //stack of containers being read: true for object
+    private boolean[] isObject = new boolean[16];
+    private int depth = 0;
+
+    /**
+     * @param reader where to read json from
+     */
+    public JsonStreamReader(Reader reader){
+        this.reader = reader;
+    }
+
+    /**
+     * reads the next json token
+     * @return one of token constants: START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+     * @throws IOException if io error occurred
+     * @throws JsonException if json is invalid
+     */
+    public int next() throws IOException {
+        int c = skipSpaces();
+        switch (state){
+            case FIRST_NAME:
+                if(c=='}')return token = pop();
+                return token = readName(c);
+            case FIRST_VALUE:
+                if(c==']')return token = pop();
+                return token = readValue(c);
+            case AFTER_VALUE:
+                if(depth==0){
+                    if(c!=-1)throw error(c, "end of json");
+                    state = DONE;
+                    return token = END_DOCUMENT;
+                }
+                if(c==','){
+                    pos++;
+                    c = skipSpaces();
+                    return token = isObject[depth-1] ? readName(c) : readValue(c);
+                }
+                if(c==(isObject[depth-1] ? '}' : ']'))return token = pop();
+                throw error(c, isObject[depth-1] ? "`,` or `}`" : "`,` or `]`");
+            case DONE:
+                return token = END_DOCUMENT;
+            default:
+                return token = readValue(c);
+        }
+    }
+
+    /**
+     * @return the last token returned by `next()`
+     */
+    public int getToken(){
+        return token;
+    }
+
+    /**
+     * @return the nesting level of current token: 0 for the top-level value
+     */
+    public int getDepth(){
+        return token==START_OBJECT || token==START_ARRAY ? depth-1 : depth;
+    }
+
+    /**
+     * @return the text of current NAME, STRING, NUMBER, or BOOLEAN token as is, or null for other tokens
+     */
+    public String getText(){
+        switch (token){
+            case NAME:
+            case STRING:
+            case NUMBER:
+            case BOOLEAN:
+                return text.toString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the value of current token: String for NAME and STRING, Integer/Long/BigInteger/BigDecimal for NUMBER, Boolean for BOOLEAN, otherwise null
+     */
+    public Object getValue(){
+        switch (token){
+            case NAME:
+            case STRING:
+                return text.toString();
+            case BOOLEAN:
+                return text.charAt(0)=='t' ? Boolean.TRUE : Boolean.FALSE;
+            case NUMBER:
+                return number();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Object number(){
+        for(int i=0; i<text.length(); i++){
+            char c = text.charAt(i);
+            if(c=='.' || c=='e' || c=='E')return new BigDecimal(text.toString());
+        }
+        int len = text.length() - (text.charAt(0)=='-'?1:0);
+        if(len<10)return Integer.valueOf(text.toString());
+        if(len<19)return Long.valueOf(text.toString());
+        BigInteger v = new BigInteger(text.toString());
+        if(v.bitLength()<32)return v.intValue();
+        if(v.bitLength()<64)return v.longValue();
+        return v;
+    }
+
+    private int pop(){
+        pos++;
+        depth--;
+        state = AFTER_VALUE;
+        return isObject[depth] ? END_OBJECT : END_ARRAY;
+    }
+
+    private void push(boolean object){
+        if(depth==isObject.length)isObject = Arrays.copyOf(isObject, depth*2);
+        isObject[depth++] = object;
+    }
+
+    private int readName(int c) throws IOException {
+        if(c!='"')throw error(c, "object key");
+        pos++;
+        readString();
+        c = skipSpaces();
+        if(c!=':')throw error(c, "`:`");
+        pos++;
+        state = VALUE;
+        return NAME;
+    }
+
+    private int readValue(int c) throws IOException {
+        switch (c){
+            case '{':
+                pos++;
+                push(true);
+                state = FIRST_NAME;
+                return START_OBJECT;
+            case '[':
+                pos++;
+                push(false);
+                state = FIRST_VALUE;
+                return START_ARRAY;
+            case '"':
+                pos++;
+                readString();
+                state = AFTER_VALUE;
+                return STRING;
+            case 't':
+                readLiteral("true");
+                state = AFTER_VALUE;
+                return BOOLEAN;
+            case 'f':
+                readLiteral("false");
+                state = AFTER_VALUE;
+                return BOOLEAN;
+            case 'n':
+                readLiteral("null");
+                state = AFTER_VALUE;
+                return NULL;
+            default:
+                if(c=='-' || (c>='0' && c<='9')){
+                    readNumber();
+                    state = AFTER_VALUE;
+                    return NUMBER;
+                }
+                throw error(c, "json value");
+        }
+    }
+
+    private void readLiteral(String s) throws IOException {
+        text.setLength(0);
+        for(int i=0; i<s.length(); i++){
+            int c = peek();
+            if(c!=s.charAt(i))throw error(c, "`"+s+"`");
+            pos++;
+        }
+        text.append(s);
+        int c = peek();
+        if(Character.isLetterOrDigit(c))throw error(c, "delimiter");
+    }
+
+    /** reads number validating it against json number syntax: -?(0|[1-9]\d*)(\.\d+)?([eE][+-]?\d+)? */
+    private void readNumber() throws IOException {
+        text.setLength(0);
+        int c = peek();
+        if(c=='-')c = take(c);
+        if(c=='0'){
+            c = take(c);
+        }else{
+            c = digits(c);
+        }
+        if(c=='.'){
+            c = digits(take(c));
+        }
+        if(c=='e' || c=='E'){
+            c = take(c);
+            if(c=='+' || c=='-')c = take(c);
+            c = digits(c);
+        }
+        if(Character.isLetterOrDigit(c) || c=='.')throw error(c, "delimiter");
+    }
+
+    /** reads one or more digits and returns the next char */
+    private int digits(int c) throws IOException {
+        if(c<'0' || c>'9')throw error(c, "digit");
+        do{
+            c = take(c);
+        }while(c>='0' && c<='9');
+        return c;
+    }
+
+    /** appends char to text and returns the next one */
+    private int take(int c) throws IOException {
+        text.append((char)c);
+        pos++;
+        return peek();
+    }
+
+    /** reads string after opening quote into `text` */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while(true){
+            if(pos==limit && !fill())throw error(-1, "`\"`");
+            int start = pos;
+            while(pos<limit){
+                char c = buf[pos];
+                if(c=='"' || c=='\\' || c<' ')break;
+                pos++;
+            }
+            text.append(buf, start, pos-start);
+            if(pos==limit)continue;
+            char c = buf[pos];
+            if(c=='"'){
+                pos++;
+                return;
+            }
+            if(c<' ')throw error(c, "escaped control character");
+            pos++;
+            int e = read();
+            switch (e){
+                case '"':  text.append('"'); break;
+                case '\\': text.append('\\'); break;
+                case '/':  text.append('/'); break;
+                case 'b':  text.append('\b'); break;
+                case 'f':  text.append('\f'); break;
+                case 'n':  text.append('\n'); break;
+                case 'r':  text.append('\r'); break;
+                case 't':  text.append('\t'); break;
+                case 'u': {
+                    int u = 0;
+                    for(int i=0; i<4; i++){
+                        int h = read();
+                        int d = Character.digit(h, 16);
+                        if(h==-1 || d<0)throw error(h, "hex digit");
+                        u = u*16 + d;
+                    }
+                    text.append((char)u);
+                    break;
+                }
+                default:
+                    throw error(e, "escape character");
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        if(c!=-1)pos++;
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if(pos==limit && !fill())return -1;
+        return buf[pos];
+    }
+
+    private int skipSpaces() throws IOException {
+        while(true){
+            if(pos==limit && !fill())return -1;
+            char c = buf[pos];
+            if(c!=' ' && c!='\n' && c!='\r' && c!='\t')return c;
+            pos++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int n = reader.read(buf, 0, buf.length);
+        if(n<=0)return false;
+        limit = n;
+        return true;
+    }
+
+    private JsonException error(int c, String expected){
+        String found = c==-1 ? "end of input" : "`"+(char)c+"`";
+        return new JsonException("Unexpected "+found+" at position "+(offset+pos)+". Expected: "+expected);
+    }
+}
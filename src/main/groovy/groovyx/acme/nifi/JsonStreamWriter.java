@@ -0,0 +1,359 @@
+package groovyx.acme.nifi;
+
+import groovy.json.JsonException;
+import groovy.json.JsonOutput;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * non-recursive json serializer for maps, collections and simple values.
+ * produces the same output as {@code JsonOutput.toJson()} but without intermediate strings:
+ * strings escaped directly into internal buffer, integer numbers formatted without `toString()`, indentation cached.
+ * all non-ascii characters are escaped, so the output could be written directly as bytes of any ascii compatible encoding (UTF-8, ISO-8859-1, ...).
+ * values of other types (dates, enums, beans, ...) are serialized with {@code JsonOutput.toJson()}.
+ * <pre>{@code
+ *     new JsonStreamWriter(outStream, -1).write(json).flush()
+ * }</pre>
+ * the json could be also written by events without building the values in memory:
+ * <pre>{@code
+ *     new JsonStreamWriter(outStream, -1).beginObject().name("items").beginArray().value(1).value(2).end().end().flush()
+ * }</pre>
+ */
+public class JsonStreamWriter implements Flushable {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] SPACES = new char[256];
+    static { Arrays.fill(SPACES, ' '); }
+
+    private final Writer writer;
+    private final OutputStream stream;
+    private final int indent;
+
+    private final char[] buf = new char[8192];
+    private byte[] bytes = null;
+    private int pos = 0;
+    private final char[] digits = new char[20];
+
+    //explicit stack of containers being written. iterator is null for containers written by events.
+    private Iterator<?>[] iters = new Iterator<?>[16];
+    private boolean[] isMap = new boolean[16];
+    private int[] counts = new int[16];
+    private int depth = 0;
+    //event api: the name of the next value in object already written
+    private boolean named = false;
+
+    /**
+     * @param writer where to write json
+     * @param indent -1 to write json in one line, otherwise the initial indentation of pretty printed json (normally 0)
+     */
+    public JsonStreamWriter(Writer writer, int indent){
+        this.writer = writer;
+        this.stream = null;
+        this.indent = indent;
+    }
+
+    /**
+     * @param stream where to write json. the output is always ascii so it could be used for UTF-8 and other ascii compatible encodings.
+     * @param indent -1 to write json in one line, otherwise the initial indentation of pretty printed json (normally 0)
+     */
+    public JsonStreamWriter(OutputStream stream, int indent){
+        this.writer = null;
+        this.stream = stream;
+        this.indent = indent;
+        this.bytes = new byte[buf.length];
+    }
+
+    /**
+     * checks if encoding is compatible with ascii output and the stream constructor could be used
+     * @param encoding encoding name
+     * @return true for UTF-8, US-ASCII, ISO-8859-1
+     */
+    public static boolean isAsciiCompatible(String encoding){
+        return "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding) || "ISO-8859-1".equalsIgnoreCase(encoding);
+    }
+
+    /**
+     * writes map, collection, or simple value as json
+     * @param o value to write
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    @SuppressWarnings("unchecked")
+    public JsonStreamWriter write(Object o) throws IOException {
+        int base = depth;
+        writeValue(o);
+        while(depth>base){
+            int top = depth-1;
+            Iterator<?> it = iters[top];
+            if(it.hasNext()){
+                if(counts[top]++>0)put(',');
+                newLine(depth);
+                if(isMap[top]){
+                    Map.Entry<Object,Object> e = (Map.Entry<Object,Object>)it.next();
+                    Object key = e.getKey();
+                    if(key==null)throw new RuntimeException("null as map key not supported");
+                    writeString(key.toString());
+                    put(':');
+                    writeValue(e.getValue());
+                }else{
+                    writeValue(it.next());
+                }
+            }else{
+                depth--;
+                iters[depth] = null;
+                if(counts[depth]>0)newLine(depth);
+                put(isMap[depth]?'}':']');
+            }
+        }
+        return this;
+    }
+
+    /**
+     * starts json object. the object must be closed with `end()`.
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        put('{');
+        push(null, true);
+        return this;
+    }
+
+    /**
+     * starts json array. the array must be closed with `end()`.
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        put('[');
+        push(null, false);
+        return this;
+    }
+
+    /**
+     * writes the key of the next value in object started with `beginObject()`
+     * @param key object key
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter name(CharSequence key) throws IOException {
+        int top = depth-1;
+        if(top<0 || iters[top]!=null || !isMap[top] || named)throw new IllegalStateException("json object key is not expected here: "+key);
+        if(counts[top]++>0)put(',');
+        newLine(depth);
+        writeString(key);
+        put(':');
+        named = true;
+        return this;
+    }
+
+    /**
+     * writes value (simple, map or collection) into array or object started by events, or as a top-level value.
+     * @param o value to write
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter value(Object o) throws IOException {
+        beforeValue();
+        return write(o);
+    }
+
+    /**
+     * closes the last object or array started with `beginObject()` or `beginArray()`
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter end() throws IOException {
+        int top = depth-1;
+        if(top<0 || iters[top]!=null || named)throw new IllegalStateException("no json object or array to close");
+        depth--;
+        if(counts[depth]>0)newLine(depth);
+        put(isMap[depth]?'}':']');
+        return this;
+    }
+
+    /**
+     * writes text as is. for example the separator between top-level values.
+     * for the stream writer the text must contain only ascii chars.
+     * @param s text to write
+     * @return this writer
+     * @throws IOException if io error occurred
+     */
+    public JsonStreamWriter raw(CharSequence s) throws IOException {
+        put(s.toString());
+        return this;
+    }
+
+    /** checks the position of the next value written by events and writes array delimiter */
+    private void beforeValue() throws IOException {
+        int top = depth-1;
+        if(top<0)return;
+        if(iters[top]!=null)throw new IllegalStateException("json value is not expected here");
+        if(isMap[top]){
+            if(!named)throw new IllegalStateException("json object key expected before value");
+            named = false;
+        }else{
+            if(counts[top]++>0)put(',');
+            newLine(depth);
+        }
+    }
+
+    /**
+     * writes buffered json to the output and flushes it
+     * @throws IOException if io error occurred
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if(writer!=null)writer.flush();
+        else stream.flush();
+    }
+
+    /** writes simple value or opens a container and pushes it into stack */
+    private void writeValue(Object o) throws IOException {
+        if(o instanceof Collection){
+            put('[');
+            push(((Collection<?>)o).iterator(), false);
+        }else if(o instanceof Map){
+            put('{');
+            push(((Map<?,?>)o).entrySet().iterator(), true);
+        }else if(o==null){
+            put("null");
+        }else if(o instanceof CharSequence){
+            writeString((CharSequence)o);
+        }else if(o instanceof Boolean){
+            put( ((Boolean)o).booleanValue() ? "true" : "false" );
+        }else if(o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte){
+            writeLong(((Number)o).longValue());
+        }else if(o instanceof Double || o instanceof Float){
+            double d = ((Number)o).doubleValue();
+            if(Double.isNaN(d) || Double.isInfinite(d))throw new JsonException("Number "+o+" can't be serialized as JSON: NaN or Infinity are not allowed in JSON.");
+            put(o.toString());
+        }else if(o instanceof BigDecimal || o instanceof BigInteger){
+            put(o.toString());
+        }else{
+            put(JsonOutput.toJson(o));
+        }
+    }
+
+    private void push(Iterator<?> it, boolean map){
+        if(depth==iters.length){
+            iters  = Arrays.copyOf(iters, depth*2);
+            isMap  = Arrays.copyOf(isMap, depth*2);
+            counts = Arrays.copyOf(counts, depth*2);
+        }
+        iters[depth] = it;
+        isMap[depth] = map;
+        counts[depth] = 0;
+        depth++;
+    }
+
+    private void newLine(int level) throws IOException {
+        if(indent!=-1) {
+            put('\n');
+            int n = indent + level*2;
+            while(n>0){
+                int len = Math.min(n, SPACES.length);
+                put(SPACES, len);
+                n-=len;
+            }
+        }
+    }
+
+    private void writeString(CharSequence s) throws IOException {
+        put('"');
+        int len = s.length();
+        for(int i=0; i<len; i++){
+            char c = s.charAt(i);
+            if(c>=' ' && c<127 && c!='"' && c!='\\'){
+                if(pos==buf.length)flushBuffer();
+                buf[pos++] = c;
+                continue;
+            }
+            switch (c){
+                case '"':  put('\\'); put('"'); break;
+                case '\\': put('\\'); put('\\'); break;
+                case '\b': put('\\'); put('b'); break;
+                case '\f': put('\\'); put('f'); break;
+                case '\n': put('\\'); put('n'); break;
+                case '\r': put('\\'); put('r'); break;
+                case '\t': put('\\'); put('t'); break;
+                default:
+                    if(buf.length-pos<6)flushBuffer();
+                    buf[pos++] = '\\';
+                    buf[pos++] = 'u';
+                    buf[pos++] = HEX[(c>>12) & 0xF];
+                    buf[pos++] = HEX[(c>>8) & 0xF];
+                    buf[pos++] = HEX[(c>>4) & 0xF];
+                    buf[pos++] = HEX[c & 0xF];
+            }
+        }
+        put('"');
+    }
+
+    private void writeLong(long v) throws IOException {
+        if(v==Long.MIN_VALUE){
+            put(Long.toString(v));
+            return;
+        }
+        if(v<0){
+            put('-');
+            v = -v;
+        }
+        int i = digits.length;
+        do{
+            digits[--i] = (char)('0' + (v % 10));
+            v /= 10;
+        }while(v>0);
+        put(digits, i, digits.length-i);
+    }
+
+    private void put(char c) throws IOException {
+        if(pos==buf.length)flushBuffer();
+        buf[pos++] = c;
+    }
+
+    private void put(String s) throws IOException {
+        int len = s.length();
+        if(buf.length-pos<len){
+            flushBuffer();
+            if(len>buf.length){
+                for(int i=0; i<len; i++)put(s.charAt(i));
+                return;
+            }
+        }
+        s.getChars(0, len, buf, pos);
+        pos+=len;
+    }
+
+    private void put(char[] c, int len) throws IOException {
+        put(c, 0, len);
+    }
+
+    private void put(char[] c, int off, int len) throws IOException {
+        if(buf.length-pos<len)flushBuffer();
+        System.arraycopy(c, off, buf, pos, len);
+        pos+=len;
+    }
+
+    private void flushBuffer() throws IOException {
+        if(pos==0)return;
+        if(writer!=null){
+            writer.write(buf, 0, pos);
+        }else{
+            for(int i=0; i<pos; i++)bytes[i] = (byte)buf[i];
+            stream.write(bytes, 0, pos);
+        }
+        pos = 0;
+    }
+}
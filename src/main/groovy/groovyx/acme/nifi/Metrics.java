@@ -0,0 +1,80 @@
+package groovyx.acme.nifi;
+
+import groovy.lang.Closure;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * reporting of worker metrics defined by the common worker option `metrics` (see {@code WorkerMetrics}) to counters, attributes and sink.
+ */
+final class Metrics {
+    static final String COUNTER_PREFIX = "AcmeNiFi ";
+    static final String ATTRIBUTE_PREFIX = "acme.metrics.";
+
+    private final String worker;
+    private final boolean counters;
+    private final String attributes;
+    private final MetricsSink sink;
+
+    private Metrics(String worker, boolean counters, String attributes, MetricsSink sink){
+        this.worker = worker;
+        this.counters = counters;
+        this.attributes = attributes;
+        this.sink = sink;
+    }
+
+    /**
+     * @param worker worker name
+     * @param option value of `metrics` option
+     * @return metrics reporting or null if metrics disabled
+     */
+    static Metrics create(String worker, Object option){
+        if(option==null || Boolean.FALSE.equals(option))return null;
+        if(Boolean.TRUE.equals(option))return new Metrics(worker, true, null, null);
+        if(option instanceof Map){
+            Map<?,?> m = (Map<?,?>)option;
+            Object c = m.get("counters");
+            Object a = m.get("attributes");
+            Object s = m.get("sink");
+            String attributes = a==null || Boolean.FALSE.equals(a) ? null : Boolean.TRUE.equals(a) ? ATTRIBUTE_PREFIX : a.toString();
+            return new Metrics(worker, c==null || Boolean.TRUE.equals(c), attributes, toSink(s));
+        }
+        throw new IllegalArgumentException("Unsupported `metrics` option: "+option+". Expected: Boolean, Map");
+    }
+
+    private static MetricsSink toSink(final Object s){
+        if(s==null || s instanceof MetricsSink)return (MetricsSink)s;
+        if(s instanceof Closure){
+            return new MetricsSink() {
+                @Override
+                public void report(String worker, FlowFile flowFile, Map<String, Long> metrics) {
+                    ((Closure)s).call(worker, flowFile, metrics);
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unsupported metrics `sink`: "+s.getClass()+". Expected: MetricsSink, Closure");
+    }
+
+    /**
+     * reports metrics of the flowfile to counters, attributes, and sink
+     * @return flowfile with metrics attributes
+     */
+    FlowFile report(ProcessSession session, FlowFile flowFile, WorkerMetrics metrics){
+        Map<String,Long> values = metrics.toMap();
+        if(counters){
+            for(Map.Entry<String,Long> e : values.entrySet()){
+                if(e.getValue()!=0)session.adjustCounter(COUNTER_PREFIX+worker+" "+e.getKey(), e.getValue(), false);
+            }
+        }
+        if(attributes!=null){
+            Map<String,String> a = new HashMap<>(values.size()*2);
+            for(Map.Entry<String,Long> e : values.entrySet())a.put(attributes+e.getKey(), e.getValue().toString());
+            flowFile = session.putAllAttributes(flowFile, a);
+        }
+        if(sink!=null)sink.report(worker, flowFile, values);
+        return flowFile;
+    }
+}
@@ -0,0 +1,24 @@
+package groovyx.acme.nifi;
+
+import org.apache.nifi.flowfile.FlowFile;
+
+import java.util.Map;
+
+/**
+ * receiver of worker metrics defined with {@code metrics:[sink: ...]} worker option.
+ * called on the session thread after each flowfile processed. see {@code WorkerMetrics} for the metric names.
+ * <pre>{@code
+ *     @groovy.transform.Field static stats = new java.util.concurrent.ConcurrentHashMap()
+ *     withFlowFile(this).withJson(metrics:[sink:{worker, flowFile, metrics-> stats.merge(worker, metrics['total.nanos'], Long.&sum) }]){json->
+ *         ...
+ *     }
+ * }</pre>
+ */
+public interface MetricsSink {
+    /**
+     * @param worker worker name, for example `withJson`
+     * @param flowFile processed flowfile
+     * @param metrics metric values by name
+     */
+    void report(String worker, FlowFile flowFile, Map<String,Long> metrics);
+}
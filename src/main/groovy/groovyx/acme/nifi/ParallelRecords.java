@@ -0,0 +1,162 @@
+package groovyx.acme.nifi;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * ordered parallel processing of records (lines) of one flowfile.
+ * the session thread reads the input and cuts it into chunks of `chunkSize` records, chunks are processed on a thread pool
+ * into in-memory buffers, and the session thread writes the buffers to the output in the original order.
+ * not more then `parallel*2` chunks are in progress, so reading waits for the slowest chunk and memory usage stays bounded.
+ * with `parallel` equal to 1 chunks are processed on the session thread and written directly to the output.
+ * <p>in parallel mode the record closures of one flowfile run concurrently. any state shared between records races across chunks:
+ * flowfile attributes, fields of the script, and local variables captured by the closure. for example a counter
+ * {@code int count = 0; onRow{ count++ }} loses increments, use {@code java.util.concurrent.atomic.AtomicLong} instead.</p>
+ * options used by record workers:
+ * <table summary="">
+ * <tr class="rowColor"><td>parallel</td><td>number of threads to process records of the flowfile in parallel (default=1)</td></tr>
+ * <tr class="rowColor"><td>chunkSize</td><td>number of records processed by one task (default=1000)</td></tr>
+ * <tr class="rowColor"><td>executor</td><td>`ExecutorService` to use for parallel processing instead of the shared pool</td></tr>
+ * </table>
+ */
+public class ParallelRecords {
+    private final int parallel;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    /**
+     * processor of records chunk. in parallel mode called concurrently for different chunks.
+     */
+    public abstract static class Task {
+        /**
+         * processes chunk of records and writes the result
+         * @param records records of the chunk
+         * @param index zero-based index of the first record of the chunk in the flowfile
+         * @param out where to write the result
+         * @throws Exception on any error. stops the processing of the flowfile.
+         */
+        public abstract void process(List<String> records, long index, OutputStream out) throws Exception;
+    }
+
+    /**
+     * @param opts options: parallel, chunkSize, executor
+     */
+    public ParallelRecords(Map<?,?> opts){
+        this.parallel = ((Number)getOrDefault(opts, "parallel", 1)).intValue();
+        this.chunkSize = ((Number)getOrDefault(opts, "chunkSize", 1000)).intValue();
+        this.executor = (ExecutorService)opts.get("executor");
+        if(parallel<1)throw new IllegalArgumentException("The `parallel` must be positive: "+parallel);
+        if(chunkSize<1)throw new IllegalArgumentException("The `chunkSize` must be positive: "+chunkSize);
+    }
+
+    private static Object getOrDefault(Map<?,?> m, String key, Object def){
+        Object v = m.get(key);
+        return v==null ? def : v;
+    }
+
+    /**
+     * @return true if records processed in parallel
+     */
+    public boolean isParallel(){
+        return parallel>1;
+    }
+
+    /**
+     * reads one record. by default one line without line terminator.
+     * @param in reader
+     * @return record or null at the end of input
+     * @throws IOException on io error
+     */
+    protected String readRecord(BufferedReader in) throws IOException {
+        return in.readLine();
+    }
+
+    /**
+     * reads all records from `in`, processes them with `task` and writes the results to `out` in the original order
+     * @param in input reader
+     * @param out output stream
+     * @param task chunk processor
+     * @return number of records read
+     * @throws Exception the first error thrown by task
+     */
+    public long run(BufferedReader in, OutputStream out, Task task) throws Exception {
+        if(!isParallel()){
+            long index = 0;
+            List<String> chunk;
+            while( !(chunk = readChunk(in)).isEmpty() ){
+                task.process(chunk, index, out);
+                index+=chunk.size();
+            }
+            return index;
+        }
+        ExecutorService pool = executor!=null ? executor : FlowFileBatch.getPool(parallel);
+        ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+        long index = 0;
+        try {
+            List<String> chunk;
+            while( !(chunk = readChunk(in)).isEmpty() ){
+                if(pending.size()>=parallel*2)write(pending.poll(), out);
+                //FutureTask keeps the original exception of the task. ForkJoinPool.submit wraps checked exceptions.
+                FutureTask<ByteArrayOutputStream> f = new FutureTask<>(new ChunkCall(task, chunk, index));
+                pool.execute(f);
+                pending.add(f);
+                index+=chunk.size();
+            }
+            while(!pending.isEmpty())write(pending.poll(), out);
+            return index;
+        }finally {
+            for(Future<?> f : pending)f.cancel(true);
+        }
+    }
+
+    private List<String> readChunk(BufferedReader in) throws IOException {
+        List<String> chunk = new ArrayList<>(chunkSize);
+        String record;
+        while( chunk.size()<chunkSize && (record = readRecord(in))!=null ){
+            chunk.add(record);
+        }
+        return chunk;
+    }
+
+    private static void write(Future<ByteArrayOutputStream> f, OutputStream out) throws Exception {
+        try {
+            f.get().writeTo(out);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if(t instanceof Exception)throw (Exception)t;
+            if(t instanceof Error)throw (Error)t;
+            throw new RuntimeException(t.toString(), t);
+        }
+    }
+
+    /** processes chunk on pool thread into memory buffer */
+    private static class ChunkCall implements Callable<ByteArrayOutputStream> {
+        final Task task;
+        final List<String> records;
+        final long index;
+
+        ChunkCall(Task task, List<String> records, long index){
+            this.task = task;
+            this.records = records;
+            this.index = index;
+        }
+
+        @Override
+        public ByteArrayOutputStream call() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+            task.process(records, index, out);
+            return out;
+        }
+    }
+}
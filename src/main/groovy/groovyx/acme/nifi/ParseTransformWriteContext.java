@@ -3,6 +3,7 @@ package groovyx.acme.nifi;
 import java.io.*;
 //import java.util.Map;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -13,10 +14,23 @@ import org.apache.nifi.components.PropertyValue;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.io.StreamCallback;
 
 /**
  * flow file worker base class used by all workers. containt the most re-usable transforming logic.
+ * <p>options supported by all workers of {@code FlowFileWorker}:</p>
+ * <table summary="">
+ * <tr class="rowColor"><td>metrics</td><td>true to report time of stages and bytes to NiFi counters, or map with `counters`, `attributes`, `sink` (see {@code WorkerMetrics}). (default=false)</td></tr>
+ * <tr class="rowColor"><td>decompress</td><td>true to decompress `gzip` or `deflate` content detected by `mime.type` attribute or `gzip` magic bytes, or codec name to always decompress.
+ *     uncompressed content is processed as is. (default=false)</td></tr>
+ * <tr class="rowColor"><td>compress</td><td>codec name `gzip` or `deflate` to compress the output, or true to compress it with the same codec as detected input.
+ *     `mime.type` is set accordingly unless it's changed by script. (default=false)</td></tr>
+ * <tr class="rowColor"><td>compressionLevel</td><td>compression level from 0 to 9 (default=6)</td></tr>
+ * <tr class="rowColor"><td>hash</td><td>algorithm to compute digest of written content: `SHA-256` or other {@code MessageDigest} algorithm, `crc32`, or `crc32c`.
+ *     sets attributes `hash.algorithm`, `hash.value` (hex), `hash.size` without reading the new content again. ignored in read-only mode. (default=null)</td></tr>
+ * </table>
  */
 public class ParseTransformWriteContext implements Runnable, StreamCallback{
     private Object transformerDelegate = null;
@@ -30,6 +44,18 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
     //should be accessed only from run() method
     private Object flowData = null;
     private ControlMap flowAttr = null;
+    private FlowFileBatch batch = null;
+    private volatile boolean parallel = false;
+    private boolean readOnly = false;
+    //metrics reporting (null when disabled) and metrics of the current flowfile
+    private Metrics metricsConfig = null;
+    private WorkerMetrics metrics = null;
+    //in-stream decompression and compression of content (null when disabled)
+    private Compression compression = null;
+    //digest of written content (null when disabled)
+    private ContentHash contentHash = null;
+    //input of the current flowfile to detect returned untouched content
+    private SourceInputStream source = null;
 
     /**
      * default constructor the method init() must be called to initialize the instance
@@ -59,6 +85,17 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
         return in;
     }
 
+    /** the same as {@code parse(InputStream)} with the size of flowfile content. by default ignores the size.
+     * for workers that choose parsing strategy by size: in parallel batch mode the `flowFile` field is not the flowfile being parsed.
+     * @param in flowfile input stream
+     * @param size flowfile content size in bytes (before decompression)
+     * @return parsed data
+     * @throws Exception to mitimize try-catch in implementation
+     */
+    protected Object parse(InputStream in, long size) throws Exception{
+        return parse(in);
+    }
+
     /** takes data just after parsing, transforms it if needed, and returns a new representation of data to be used on the next stage (write).
      * by default calls `transform` closure if it not null. attributes could be changed during this call.
      * @param data current flowfile content. by default flowfile input stream.
@@ -80,7 +117,8 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
     /*calls asWritable(data) and then writes data to the output*/
     protected void write(Object data, OutputStream out) throws Exception{
         if(data instanceof StreamWritable) ((StreamWritable)data).streamTo(out);
-        else if(data instanceof InputStream) org.codehaus.groovy.runtime.IOGroovyMethods.leftShift(out, (InputStream)data);
+        else if(data instanceof InputStream) writeStream((InputStream)data, out);
+        else if(data instanceof ContentSlice) writeSlice((ContentSlice)data, out);
         else if(data instanceof Writable) {
             try(Writer w=IOUtils.toWriter(out,"UTF-8")){
                 ((Writable)data).writeTo(w);
@@ -94,6 +132,47 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
         } else throw new IllegalArgumentException("Unsupported returned value type to write: "+data.getClass());
     }
 
+    /**
+     * @return true if the written content could reference the original content claim: the content is not transformed on the fly
+     */
+    private boolean isContentKeepable(){
+        return compression==null && contentHash==null;
+    }
+
+    /**
+     * copies the stream. the original flowfile content returned untouched is not copied at all.
+     */
+    private void writeStream(InputStream in, OutputStream out) throws IOException {
+        if(in==source && source.position==0 && isContentKeepable())throw new KeepContent(null);
+        IOUtils.copy(in, out);
+    }
+
+    /**
+     * references the range of original content or copies it from input stream when the content transformed on the fly.
+     */
+    private void writeSlice(ContentSlice slice, OutputStream out) throws IOException {
+        if(source==null)throw new IllegalStateException("The content slice could be returned only while reading the flowfile content");
+        if(isContentKeepable())throw new KeepContent(slice);
+        if(slice.getOffset()<source.position)throw new IllegalStateException("The slice starts at "+slice.getOffset()+" before the current position of input stream "+source.position);
+        IOUtils.skipFully(source, slice.getOffset()-source.position);
+        long size = slice.getSize()<0 ? Long.MAX_VALUE : slice.getSize();
+        long n = IOUtils.copy(source, out, size);
+        if(slice.getSize()>=0 && n<size)throw new EOFException("The slice "+slice+" is out of content bounds");
+    }
+
+    /**
+     * clones the range of the original content and removes the original flowfile
+     * @return flowfile with the slice of content
+     */
+    private FlowFile sliceOf(FlowFile flowFile, ContentSlice slice){
+        long offset = slice.getOffset();
+        long size = slice.getSize()<0 ? flowFile.getSize()-offset : slice.getSize();
+        if(offset+size>flowFile.getSize() || size<0)throw new IllegalArgumentException("The slice "+slice+" is out of content bounds: "+flowFile.getSize());
+        FlowFile c = session.clone(flowFile, offset, size);
+        session.remove(flowFile);
+        return c;
+    }
+
     /**
      * main method used for transforming input stream to output stream
      * @param sin flow file input stream
@@ -103,17 +182,30 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
      * @throws Exception to minimize try-catch inside this methods. all exceptions handled with `process` method.
      */
     protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws Exception{
+        WorkerMetrics m = metrics;
+        long t = m==null ? 0 : System.nanoTime();
         //read & parse
         if (flowFile.getSize() > 0) {
             //we don't call `parse` for an empty content. and flowData remains null.
-            flowData = parse(sin);
+            flowData = parse(sin, flowFile.getSize());
+        }
+        if(m!=null){
+            long now = System.nanoTime();
+            m.parseNanos = now-t;
+            t = now;
         }
         //transform
         flowData = transform(flowData, attr);
+        if(m!=null){
+            long now = System.nanoTime();
+            m.transformNanos = now-t;
+            t = now;
+        }
         //write
         if (flowData != null) {
-            //got some data to write
-            write(flowData, sout);
+            //got some data to write. in read-only mode the original content is kept so there is no need to serialize data
+            if(!readOnly)write(flowData, sout);
+            if(m!=null)m.writeNanos = System.nanoTime()-t;
             return true;
         }
         return false;
@@ -124,15 +216,39 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
      */
     @Override
     public final void process(InputStream sin, OutputStream sout) throws IOException {
+        if(metrics!=null){
+            sin = metrics.countIn(sin);
+            sout = metrics.countOut(sout);
+        }
+        //hash of the content as it's stored: after compression
+        ContentHash.HashingOutputStream hashed = null;
+        if(contentHash!=null && !readOnly)sout = hashed = contentHash.wrap(sout);
+        Compression.Codec inputCodec = Compression.Codec.NONE;
+        Compression.Codec outputCodec = Compression.Codec.NONE;
+        if(compression!=null){
+            sin = Compression.markable(sin);
+            inputCodec = compression.detect(sin, flowFile);
+            sin = Compression.decompress(sin, inputCodec);
+            //in read-only mode the output is discarded
+            if(!readOnly){
+                outputCodec = compression.output(inputCodec);
+                sout = compression.compress(sout, outputCodec);
+            }
+        }
+        if(!readOnly)sin = source = new SourceInputStream(sin);
         try {
             flowData = processContent(sin,sout,flowAttr);
             sout.flush();
             sout.close();
             sin.close();
+            if(compression!=null && !readOnly)Compression.updateMimeType(flowAttr, inputCodec, outputCodec);
+            if(hashed!=null)contentHash.putAttributes(flowAttr, hashed);
         } catch (Throwable t) {
             if(t instanceof IOException)throw (IOException)t;
             if(t instanceof RuntimeException)throw (RuntimeException)t;
             throw new IOException(t.toString(),t);
+        }finally {
+            source = null;
         }
     }
 
@@ -143,35 +259,273 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
     void updateAttributes(ControlMap attr){
         Set<String> removed = attr.getRemovedKeys();
         if(removed.size()>0)flowFile = session.removeAllAttributes(flowFile,removed);
-        for(String key: attr.getModifiedKeys()){
-            Object value = attr.get(key);
-            if(value!=null)flowFile = session.putAttribute(flowFile, key, value.toString());
+        Set<String> modified = attr.getModifiedKeys();
+        if(modified.size()>0){
+            Map<String,String> values = new HashMap<>(modified.size()*2);
+            for(String key: modified){
+                Object value = attr.get(key);
+                if(value!=null)values.put(key, value.toString());
+            }
+            flowFile = session.putAllAttributes(flowFile, values);
         }
     }
 
 	/**finalize context. called just before file transfer or drop.*/
 	void finit(){}
 
+    /**
+     * sets the batch of flowfiles to process on `run()` instead of single flowfile defined in `init()`
+     * @param batch flowfiles batch or null
+     */
+    final void setBatch(FlowFileBatch batch){
+        this.batch = batch;
+    }
+
     @Override
     public void run(){
+        if(batch!=null){
+            batch.run(this);
+            return;
+        }
         if(flowFile==null)return;
 
+        // drop or transfer
+        if( runFlowFile(flowFile) ){
+            session.transfer(flowFile,REL_SUCCESS);
+        }else{
+            //if there was no data to write - just drop the file
+            session.remove(flowFile);
+        }
+    }
+
+    /**
+     * defines if `parse` and `transform` stages of this worker could be executed outside of session thread
+     * in parallel for different flowfiles of the batch (see {@code withFlowFiles(this, parallel:N)}).
+     * the worker must not keep the state of flowfile processing in the context fields between stages.
+     * by default false. in this case the batch is processed sequentially.
+     * @return true if worker supports parallel processing
+     */
+    protected boolean isParallelizable(){
+        return false;
+    }
+
+    /**
+     * @return true if the context currently runs `parse` and `transform` on a thread pool
+     */
+    protected final boolean isParallel(){
+        return parallel;
+    }
+
+    final void setParallel(boolean parallel){
+        this.parallel = parallel;
+    }
+
+    /**
+     * in read-only mode the content is only read (`session.read`) to evaluate attributes,
+     * and the flowfile is transferred with original content. the data returned by `transform` is not written,
+     * however null (or false) still means to drop the flowfile.
+     * @param readOnly true to skip content writing
+     */
+    protected final void setReadOnly(boolean readOnly){
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * @return true if the context does not write the content of flowfile
+     */
+    protected final boolean isReadOnly(){
+        return readOnly;
+    }
+
+    /**
+     * sets metrics reporting defined by `metrics` worker option
+     * @param metricsConfig metrics reporting or null to disable
+     */
+    final void setMetrics(Metrics metricsConfig){
+        this.metricsConfig = metricsConfig;
+    }
+
+    /**
+     * sets in-stream decompression of input and compression of output defined by `decompress`, `compress`, `compressionLevel` worker options
+     * @param compression compression or null to process content as is
+     */
+    final void setCompression(Compression compression){
+        this.compression = compression;
+    }
+
+    /**
+     * sets computing of written content digest defined by `hash` worker option
+     * @param contentHash content hash or null to disable
+     */
+    final void setContentHash(ContentHash contentHash){
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return compression or null when disabled
+     */
+    final Compression getCompression(){
+        return compression;
+    }
+
+    /**
+     * @return metrics reporting or null when disabled
+     */
+    final Metrics getMetricsConfig(){
+        return metricsConfig;
+    }
+
+    /**
+     * streaming workers could report the number of records and matched values of the current flowfile through returned object.
+     * @return metrics of the current flowfile or null if `metrics` option not enabled
+     */
+    protected final WorkerMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * writes already transformed data into flowfile and applies attributes. used by parallel batch on the session thread.
+     * @param flowFile the flowfile to write
+     * @param data result of `transform` stage
+     * @param attr attributes modified by `transform` stage
+     * @param m metrics of `parse` and `transform` stages or null if metrics disabled
+     * @param inputCodec compression of the input content
+     * @return true if flowfile should be transferred, false to drop
+     */
+    final boolean completeFlowFile(FlowFile flowFile, final Object data, ControlMap attr, final WorkerMetrics m, Compression.Codec inputCodec){
+        this.flowFile = flowFile;
+        if( Boolean.FALSE.equals(data) || data==null ){
+            if(m!=null){
+                m.totalNanos = m.parseNanos + m.transformNanos;
+                this.flowFile = metricsConfig.report(session, this.flowFile, m);
+            }
+            return false;
+        }
+        long t = m==null ? 0 : System.nanoTime();
+        final Compression.Codec outputCodec = compression==null || readOnly ? Compression.Codec.NONE : compression.output(inputCodec);
+        final ContentHash.HashingOutputStream[] hashed = new ContentHash.HashingOutputStream[1];
+        if(!readOnly)this.flowFile = session.write(this.flowFile, new OutputStreamCallback() {
+            @Override
+            public void process(OutputStream sout) throws IOException {
+                if(m!=null)sout = m.countOut(sout);
+                if(contentHash!=null)sout = hashed[0] = contentHash.wrap(sout);
+                if(outputCodec!=Compression.Codec.NONE)sout = compression.compress(sout, outputCodec);
+                try {
+                    write(data, sout);
+                    Compression.finish(sout);
+                    sout.flush();
+                } catch (Throwable t) {
+                    if(t instanceof IOException)throw (IOException)t;
+                    if(t instanceof RuntimeException)throw (RuntimeException)t;
+                    throw new IOException(t.toString(),t);
+                }
+            }
+        });
+        if(compression!=null && !readOnly)Compression.updateMimeType(attr, inputCodec, outputCodec);
+        if(hashed[0]!=null)contentHash.putAttributes(attr, hashed[0]);
+        updateAttributes(attr);
+        if(m!=null){
+            m.writeNanos = System.nanoTime()-t;
+            m.totalNanos = m.parseNanos + m.transformNanos + m.writeNanos;
+            this.flowFile = metricsConfig.report(session, this.flowFile, m);
+        }
+        finit();
+        return true;
+    }
+
+    /**
+     * processes content and attributes of one flowfile without transferring it. the modified flowfile is stored in `this.flowFile`.
+     * @param flowFile the flowfile to process
+     * @return true if flowfile should be transferred, false to drop
+     */
+    final boolean runFlowFile(FlowFile flowFile){
+        this.flowFile = flowFile;
         flowAttr = new ControlMap(flowFile.getAttributes());
         flowData = null;
+        metrics = metricsConfig==null ? null : new WorkerMetrics();
+        long start = metrics==null ? 0 : System.nanoTime();
 
-        flowFile = session.write(flowFile, this);
+        if(readOnly){
+            session.read(this.flowFile, new InputStreamCallback() {
+                @Override
+                public void process(InputStream sin) throws IOException {
+                    ParseTransformWriteContext.this.process(sin, NULL_OUTPUT);
+                }
+            });
+        }else{
+            try {
+                this.flowFile = session.write(this.flowFile, this);
+            }catch (KeepContent k){
+                //the write aborted before any byte written: the flowfile keeps the original content claim
+                if(k.slice!=null)this.flowFile = sliceOf(this.flowFile, k.slice);
+            }
+        }
         updateAttributes(flowAttr);
+        if(metrics!=null){
+            metrics.totalNanos = System.nanoTime()-start;
+            this.flowFile = metricsConfig.report(session, this.flowFile, metrics);
+            metrics = null;
+        }
         finit();
-        // drop or transfer
-        if( Boolean.FALSE.equals(flowData) || flowData==null ){
-            //if there was no data to write - just drop the file
-            session.remove(flowFile);
-        }else{
-            session.transfer(flowFile,REL_SUCCESS);
+        return !( Boolean.FALSE.equals(flowData) || flowData==null );
+    }
+
+    /**
+     * thrown from `write` to abort the content write when the original content is returned untouched or as a slice.
+     * the session discards the new content claim, and the flowfile keeps the original one.
+     */
+    private static final class KeepContent extends RuntimeException {
+        final ContentSlice slice;
+
+        KeepContent(ContentSlice slice){
+            super("content is kept", null, false, false);
+            this.slice = slice;
+        }
+    }
+
+    /** flowfile input that counts consumed bytes */
+    private static final class SourceInputStream extends FilterInputStream {
+        long position = 0;
+
+        SourceInputStream(InputStream in){
+            super(in);
         }
 
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b!=-1)position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if(n>0)position+=n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = in.skip(n);
+            position+=s;
+            return s;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 
+    /** output used in read-only mode: anything written by worker is discarded */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {}
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
     /**
      * method used for external transformers implementation calls.
      * @param args arguments provided by script for this transformation.
@@ -195,6 +549,8 @@ public class ParseTransformWriteContext implements Runnable, StreamCallback{
      */
     final protected Closure delegated(Closure c){
         if(transformerDelegate==null)transformerDelegate = createTransformerDelegate();
+        //in parallel mode each call gets its own copy of closure to avoid delegate/state races
+        if(parallel)c = (Closure)c.clone();
         c.setDelegate( transformerDelegate );
         return c;
     }
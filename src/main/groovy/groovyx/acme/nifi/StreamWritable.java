@@ -1,10 +1,8 @@
 package groovyx.acme.nifi;
 
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Map;
 
@@ -51,15 +49,15 @@ abstract public class StreamWritable { // implements OutputStreamCallback {
 
     /** main method used for writing data to stream through writer with encoding specified.
      * method could be redefined by descendants to write directly to stream without writer.
-     * default implementation creates buffered writer with encoding defined in constructor and writes it using `writeTo` method.
+     * default implementation creates {@code EncodingWriter} with encoding defined in constructor and writes it using `writeTo` method.
      * @param out outputstream used to write the output
      * @return out
      * @throws IOException when io exception occurs
      **/
     public OutputStream streamTo(OutputStream out) throws IOException {
-        Writer w = new BufferedWriter(new OutputStreamWriter(out, encoding));
+        EncodingWriter w = new EncodingWriter(out, encoding);
         writeTo(w);
-        w.flush();
+        w.finish();
         return out;
     }
 }
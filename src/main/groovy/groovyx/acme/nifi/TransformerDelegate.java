@@ -10,7 +10,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -81,6 +80,25 @@ public class TransformerDelegate extends GroovyObjectSupport {
         };
     }
 
+    /** helper to return the rest of the input content starting from `offset` without copying it (see {@code ContentSlice}).
+     * <pre>{@code withStream{sin-> asSlice(headerSize)}}</pre>
+     * @param offset start of the content range
+     * @return content range to write to flow file
+     **/
+    public ContentSlice asSlice(long offset){
+        return new ContentSlice(offset, -1);
+    }
+
+    /** helper to return the range of the input content without copying it (see {@code ContentSlice}).
+     * <pre>{@code withStream{sin-> asSlice(headerSize, recordSize)}}</pre>
+     * @param offset start of the content range
+     * @param size size of the content range
+     * @return content range to write to flow file
+     **/
+    public ContentSlice asSlice(long offset, long size){
+        return new ContentSlice(offset, size);
+    }
+
     @SuppressWarnings("unchecked")
     public FlowFileWorker createFlowFile() {
         return createFlowFile(Collections.EMPTY_MAP);
@@ -91,21 +109,20 @@ public class TransformerDelegate extends GroovyObjectSupport {
      * @return new new flow file worker
      */
     public FlowFileWorker createFlowFile(final Map<String,Object> parms){
+        if(transformer$context.isParallel())throw new IllegalStateException("createFlowFile is not supported in parallel batch mode");
         Boolean content    = (Boolean)parms.getOrDefault("copyContent", Boolean.FALSE);
         return new FlowFileWorker(
                 content?transformer$context.session.clone(transformer$context.flowFile):transformer$context.session.create(transformer$context.flowFile),
                 transformer$context.session, transformer$context.REL_SUCCESS);
     }
 
-    private Map<String, Class<StreamWritable>> methodsCache = new HashMap<>();
     /**
      * method to support external `asXXX` commands implementation. normally called by groovy.
-     * searches for <code>groovyx.acme.nifi.writer.`name`.`Name`</code> class that implements StreamWritable
+     * takes the writer from `Extensions` registry: <code>groovyx.acme.nifi.writer.`name`.`Name`</code> class that implements StreamWritable
      * @param name method name
      * @param arg arguments provided by caller
      * @return initialized class instance that implements StreamWritable ready to write output in specific format
      */
-    @SuppressWarnings("unchecked")
     public Object methodMissing(String name, Object arg){
         Object[] args = null;
 
@@ -113,23 +130,9 @@ public class TransformerDelegate extends GroovyObjectSupport {
         if( arg instanceof Object[] )args = (Object[])arg;
         else throw new RuntimeException("Unsupported argument list: "+arg+" for `"+name+"`");
 
-        Class<StreamWritable> methodClass = methodsCache.get(name);
-        if(methodClass==null) {
-            String className = "groovyx.acme.nifi.writer." + name + "." + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-            try {
-                methodClass = (Class<StreamWritable>) this.getClass().getClassLoader().loadClass(className);
-            } catch (Throwable e) {
-                MissingMethodException me = new MissingMethodException( name, this.getClass(), args );
-                throw new RuntimeException(me.getMessage(),e);
-            }
-            methodsCache.put(name,methodClass);
-        }
-
-        StreamWritable writable = null;
-        try {
-            writable = methodClass.newInstance();
-        } catch (Throwable e) {
-            throw new RuntimeException("Failed to instantiate "+methodClass,e);
+        StreamWritable writable = Extensions.newWriter(name);
+        if(writable==null) {
+            throw new MissingMethodException( name, this.getClass(), args );
         }
         writable.init(args);
         return writable;
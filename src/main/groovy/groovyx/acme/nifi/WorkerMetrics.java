@@ -0,0 +1,139 @@
+package groovyx.acme.nifi;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * metrics of one flowfile processed by worker when `metrics` option is enabled. the option is supported by all workers:
+ * <ul>
+ *     <li>{@code metrics:true} - adds metrics to NiFi counters `AcmeNiFi {worker} {metric}`, for example `AcmeNiFi withJson parse.nanos`</li>
+ *     <li>{@code metrics:[counters:true, attributes:'acme.metrics.', sink:...]} - `attributes` is true or prefix of flowfile attributes
+ *     to put metrics into (default prefix=`acme.metrics.`), `sink` is {@code MetricsSink} or closure with the same parameters.</li>
+ * </ul>
+ * without the option nothing is measured and streams are not wrapped. names of metrics:
+ * <table summary="">
+ * <tr class="rowColor"><td>total.nanos</td><td>time of flowfile processing including session read/write</td></tr>
+ * <tr class="rowColor"><td>parse.nanos, transform.nanos, write.nanos</td><td>time of stages. only for workers with separate stages: withJson, withXml, withReader, ...</td></tr>
+ * <tr class="rowColor"><td>bytes.in, bytes.out</td><td>number of bytes read from and written to the flowfile content</td></tr>
+ * <tr class="rowColor"><td>records</td><td>number of records read by streaming workers: lines, json lines, csv rows</td></tr>
+ * <tr class="rowColor"><td>matched</td><td>number of values matched by `onValue`, `onElement`, or `path` of streaming readers and splitters</td></tr>
+ * </table>
+ * streaming workers could count records with {@code getMetrics()} of {@code ParseTransformWriteContext} that returns null when metrics disabled.
+ * the instance is not thread-safe and must be updated on the session thread.
+ */
+public final class WorkerMetrics {
+    long totalNanos = 0;
+    long parseNanos = -1;
+    long transformNanos = -1;
+    long writeNanos = -1;
+    long bytesIn = 0;
+    long bytesOut = 0;
+    private long records = -1;
+    private long matched = -1;
+    private CountingInputStream in;
+    private CountingOutputStream out;
+
+    /**
+     * @param n number of records read
+     */
+    public void addRecords(long n){
+        records = (records<0 ? 0 : records) + n;
+    }
+
+    /**
+     * @param n number of matched values
+     */
+    public void addMatched(long n){
+        matched = (matched<0 ? 0 : matched) + n;
+    }
+
+    InputStream countIn(InputStream s){
+        in = new CountingInputStream(s);
+        return in;
+    }
+
+    OutputStream countOut(OutputStream s){
+        out = new CountingOutputStream(s);
+        return out;
+    }
+
+    /**
+     * @return reported metric values by name
+     */
+    public Map<String,Long> toMap(){
+        Map<String,Long> m = new LinkedHashMap<>();
+        m.put("total.nanos", totalNanos);
+        if(parseNanos>=0)m.put("parse.nanos", parseNanos);
+        if(transformNanos>=0)m.put("transform.nanos", transformNanos);
+        if(writeNanos>=0)m.put("write.nanos", writeNanos);
+        m.put("bytes.in", in==null ? bytesIn : in.count);
+        m.put("bytes.out", out==null ? bytesOut : out.count);
+        if(records>=0)m.put("records", records);
+        if(matched>=0)m.put("matched", matched);
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if(b>=0)count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if(n>0)count+=n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = in.skip(n);
+            if(s>0)count+=s;
+            return s;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count = 0;
+
+        CountingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count+=len;
+        }
+    }
+}
@@ -1,10 +1,34 @@
 package groovyx.acme.nifi;
 
-import groovy.util.IndentPrinter;
+import groovy.lang.Closure;
+import groovy.lang.GroovyObjectSupport;
 import groovy.util.Node;
-import groovy.util.XmlNodePrinter;
+import groovy.util.XmlParser;
+import groovy.util.slurpersupport.GPathResult;
+import groovy.xml.FactorySupport;
+import groovy.xml.QName;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.xml.sax.SAXException;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Xml utils
@@ -21,23 +45,620 @@ public class XmlUtils {
      * @throws IOException on io error
      */
     public static void toStream(Node node, OutputStream out, String encoding, boolean xmlDeclaration, boolean indent) throws IOException {
-        Writer w = new BufferedWriter(new OutputStreamWriter(out,encoding));
+        EncodingWriter w = new EncodingWriter(out, encoding);
         if(xmlDeclaration)w.append("<?xml version=\"1.0\" encoding=\""+encoding+"\"?>\n");
-        IndentPrinter pw = new IndentPrinter(w, indent?"  ":"", indent){
-            private boolean noNewLines = true;
-            @Override
-            public void println() {
-                //this trick to avoid last new line after xml
-                if (indent && (noNewLines || super.getIndentLevel()>0)) {
-                    super.print('\n');
-                    noNewLines = false;
+        new Printer(w, indent).print(node);
+        w.finish();
+    }
+
+    /**
+     * serialize GPathResult (result of XmlSlurper) to stream with parameters: encoding, indentation, and xml-declaration.
+     * elements are printed the same way as for groovy Node, framed as by {@code XmlUtil.serialize()}:
+     * the root element follows xml-declaration on the same line and the output ends with new line.
+     * <p>the result is first copied into a full groovy Node tree through public {@code Buildable.build()},
+     * so memory used by the document is about doubled while serializing. pending modifications (`replaceNode`, `appendNode`, ...)
+     * are applied the same way as by {@code XmlUtil.serialize()}, and namespace prefixes are chosen by XmlSlurper from the parsed document.
+     * to avoid the copy parse the document into groovy Node instead.</p>
+     * @param xml xml to write to output
+     * @param out out stream to serialize xml to
+     * @param encoding encoding to use during serialization
+     * @param xmlDeclaration should we prepend xml-declaration to output
+     * @param indent true if should we pretty-print the xml or false to linerize it
+     * @throws IOException on io error
+     */
+    public static void toStream(GPathResult xml, OutputStream out, String encoding, boolean xmlDeclaration, boolean indent) throws IOException {
+        NodeTreeBuilder builder = new NodeTreeBuilder();
+        xml.build(builder);
+        EncodingWriter w = new EncodingWriter(out, encoding);
+        if(xmlDeclaration)w.append("<?xml version=\"1.0\" encoding=\""+encoding+"\"?>");
+        Printer printer = new Printer(w, indent);
+        for(Node node : builder.roots){
+            printer.print(node);
+        }
+        printer.endLine();
+        w.finish();
+    }
+
+    /**
+     * markup builder for the `build(builder)` protocol of XmlSlurper nodes: creates groovy Node tree with QName names of namespaced elements.
+     * supports element calls {@code name(attributes, text, body)}, namespace prefix properties {@code prefix.name(...)},
+     * and {@code mkp.yield}, {@code mkp.declareNamespace}, {@code mkp.getNamespaces} used by slurper and `replaceNode` closures.
+     */
+    private static final class NodeTreeBuilder extends GroovyObjectSupport {
+        private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+        final List<Node> roots = new ArrayList<>();
+        private Node parent = null;
+        //namespaces in scope and declared for the next element: prefix to uri
+        private Map<String,String> current = new HashMap<>();
+        private final Map<String,String> pending = new HashMap<>();
+        private boolean mkp = false;
+        private String prefix = null;
+
+        @Override
+        public Object getProperty(String name) {
+            if("mkp".equals(name))mkp = true;
+            else prefix = name;
+            return this;
+        }
+
+        @Override
+        public Object invokeMethod(String name, Object args) {
+            Object[] a = args instanceof Object[] ? (Object[])args : new Object[]{args};
+            if(mkp){
+                mkp = false;
+                return markup(name, a);
+            }
+            String p = prefix;
+            prefix = null;
+            element(p, name, a);
+            return null;
+        }
+
+        private Object markup(String name, Object[] args){
+            switch (name){
+                case "getNamespaces":
+                    return Arrays.asList(current, pending);
+                case "declareNamespace":
+                    for(Map.Entry<?,?> e : ((Map<?,?>)args[0]).entrySet()){
+                        pending.put(e.getKey().toString(), e.getValue().toString());
+                    }
+                    return null;
+                case "yield":
+                case "yieldUnescaped":
+                    for(Object o : args)text(o);
+                    return null;
+                case "comment":
+                case "pi":
+                case "xmlDeclaration":
+                    //not represented in groovy Node
+                    return null;
+                default:
+                    throw new IllegalArgumentException("Unsupported markup method: mkp."+name);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void text(Object value){
+            if(parent==null)throw new IllegalStateException("Text outside of root element: "+value);
+            parent.children().add(InvokerHelper.toString(value));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void element(String p, String name, Object[] args){
+            Map<String,String> scope = current;
+            if(!pending.isEmpty()){
+                //declared namespaces are visible for this element and its children
+                current = new HashMap<>(current);
+                current.putAll(pending);
+                pending.clear();
+            }
+            Node saved = parent;
+            try {
+                Map<Object,Object> attributes = new LinkedHashMap<>();
+                Closure body = null;
+                List<Object> texts = null;
+                for(Object o : args){
+                    if(o instanceof Map){
+                        for(Map.Entry<?,?> e : ((Map<?,?>)o).entrySet())attributes.put(attributeName(e.getKey().toString()), e.getValue());
+                    }else if(o instanceof Closure){
+                        body = (Closure)o;
+                    }else if(o!=null){
+                        if(texts==null)texts = new ArrayList<>();
+                        texts.add(o);
+                    }
+                }
+                Node node = new Node(parent, name(p, name), attributes);
+                if(parent==null)roots.add(node);
+                parent = node;
+                if(texts!=null)for(Object t : texts)text(t);
+                if(body!=null){
+                    Closure c = (Closure)body.clone();
+                    c.setDelegate(this);
+                    c.setResolveStrategy(Closure.DELEGATE_FIRST);
+                    if(c.getMaximumNumberOfParameters()==0)c.call();
+                    else c.call(this);
+                }
+            }finally {
+                parent = saved;
+                current = scope;
+            }
+        }
+
+        /** element name: QName for a declared namespace prefix */
+        private Object name(String p, String name){
+            if(p==null)return name;
+            String uri = current.get(p);
+            if(uri==null || XML_NS.equals(uri))return p.length()==0 ? name : p+":"+name;
+            return new QName(uri, name, p);
+        }
+
+        /** slurper passes namespaced attribute as `prefix$name` */
+        private Object attributeName(String key){
+            int i = key.indexOf('$');
+            if(i<0)return key;
+            String p = key.substring(0, i);
+            String name = key.substring(i+1);
+            if(name.startsWith("{"))name = name.substring(name.indexOf('}')+1);
+            return name(p, name);
+        }
+    }
+
+    /**
+     * non-recursive xml printer with the same output as XmlNodePrinter with preserveWhitespace=true.
+     * declared namespaces kept in a stack with scope marks instead of per element context maps.
+     */
+    private static final class Printer {
+        private final Writer out;
+        private final boolean indent;
+        private int level = 0;
+        private boolean noNewLines = true;
+        //the last element was followed by new line
+        private boolean lineEnd = false;
+        //declared namespaces: prefix and uri
+        private String[] nsPrefix = new String[8];
+        private String[] nsUri = new String[8];
+        private int nsSize = 0;
+        //open elements
+        private String[] names = new String[16];
+        private Iterator<?>[] iters = new Iterator<?>[16];
+        private boolean[] simple = new boolean[16];
+        private int[] marks = new int[16];
+        private int depth = 0;
+
+        Printer(Writer out, boolean indent){
+            this.out = out;
+            this.indent = indent;
+        }
+
+        void print(Node root) throws IOException {
+            open(root);
+            while(depth>0){
+                Iterator<?> it = iters[depth-1];
+                if(it.hasNext()){
+                    Object child = it.next();
+                    if(child instanceof Node){
+                        open((Node)child);
+                    }else if(child!=null){
+                        //preserve whitespace: text printed without indentation
+                        escape(InvokerHelper.toString(child), false);
+                    }
+                }else{
+                    depth--;
+                    level--;
+                    if(!simple[depth])printIndent();
+                    out.write("</");
+                    out.write(names[depth]);
+                    out.write('>');
+                    println();
+                    nsSize = marks[depth];
+                    iters[depth] = null;
+                }
+            }
+        }
+
+        private void open(Node node) throws IOException {
+            int mark = nsSize;
+            printIndent();
+            out.write('<');
+            Object value = node.value();
+            List<?> children = node.children();
+            String name = startTag(node);
+            if(children.isEmpty()){
+                out.write("/>");
+                println();
+                nsSize = mark;
+                return;
+            }
+            out.write('>');
+            if(!(value instanceof List)){
+                escape(InvokerHelper.toString(value), false);
+                out.write("</");
+                out.write(name);
+                out.write('>');
+                println();
+                nsSize = mark;
+                return;
+            }
+            boolean isSimple = true;
+            for(Object child : children){
+                if(child instanceof Node){
+                    isSimple = false;
+                    break;
+                }
+            }
+            if(!isSimple)println();
+            push(name, children.iterator(), isSimple, mark);
+            level++;
+        }
+
+        private void push(String name, Iterator<?> it, boolean isSimple, int mark){
+            if(depth==names.length){
+                names  = Arrays.copyOf(names, depth*2);
+                iters  = Arrays.copyOf(iters, depth*2);
+                simple = Arrays.copyOf(simple, depth*2);
+                marks  = Arrays.copyOf(marks, depth*2);
+            }
+            names[depth] = name;
+            iters[depth] = it;
+            simple[depth] = isSimple;
+            marks[depth] = mark;
+            depth++;
+        }
+
+        /** writes name, namespace and attributes of groovy Node */
+        private String startTag(Node n) throws IOException {
+            Object nodeName = n.name();
+            String name = name(nodeName);
+            out.write(name);
+            declare(nodeName);
+            for(Object o : n.attributes().entrySet()){
+                Map.Entry<?,?> a = (Map.Entry<?,?>)o;
+                out.write(' ');
+                out.write(name(a.getKey()));
+                out.write("=\"");
+                Object v = a.getValue();
+                escape(v instanceof String ? (String)v : InvokerHelper.toString(v), true);
+                out.write('"');
+                declare(a.getKey());
+            }
+            return name;
+        }
+
+        private static String name(Object o){
+            if(o instanceof String)return (String)o;
+            if(o instanceof QName)return ((QName)o).getQualifiedName();
+            return o.toString();
+        }
+
+        private void declare(Object name) throws IOException {
+            if(name instanceof QName){
+                QName q = (QName)name;
+                if(q.getNamespaceURI()!=null)declare(q.getPrefix(), q.getNamespaceURI());
+            }
+        }
+
+        private void declare(String prefix, String uri) throws IOException {
+            for(int i=nsSize-1; i>=0; i--){
+                if(nsPrefix[i].equals(prefix)){
+                    if(nsUri[i].equals(uri))return;
+                    break;
                 }
             }
+            if(nsSize==nsPrefix.length){
+                nsPrefix = Arrays.copyOf(nsPrefix, nsSize*2);
+                nsUri = Arrays.copyOf(nsUri, nsSize*2);
+            }
+            nsPrefix[nsSize] = prefix;
+            nsUri[nsSize] = uri;
+            nsSize++;
+            out.write(" xmlns");
+            if(prefix.length()>0){
+                out.write(':');
+                out.write(prefix);
+            }
+            out.write("=\"");
+            out.write(uri);
+            out.write('"');
+        }
 
-        };
-        XmlNodePrinter nodePrinter = new XmlNodePrinter(pw);
-        nodePrinter.setPreserveWhitespace(true);
-        nodePrinter.print(node);
-        w.flush();
+        private void printIndent() throws IOException {
+            if(indent){
+                for(int i=0; i<level; i++)out.write("  ");
+            }
+        }
+
+        private void println() throws IOException {
+            //no new line after the root element if there was a new line before
+            lineEnd = indent && (noNewLines || level>0);
+            if(lineEnd){
+                out.write('\n');
+                noNewLines = false;
+            }
+        }
+
+        /** terminates the output with new line if the root element was not followed by one */
+        void endLine() throws IOException {
+            if(!lineEnd)out.write('\n');
+            lineEnd = true;
+        }
+
+        private void escape(String s, boolean attribute) throws IOException {
+            int len = s.length();
+            int start = 0;
+            for(int i=0; i<len; i++){
+                char c = s.charAt(i);
+                String r;
+                switch (c){
+                    case '<': r = "&lt;"; break;
+                    case '>': r = "&gt;"; break;
+                    case '&': r = "&amp;"; break;
+                    case '"': r = attribute ? "&quot;" : null; break;
+                    case '\n': r = attribute ? "&#10;" : null; break;
+                    case '\r': r = attribute ? "&#13;" : null; break;
+                    default: r = null;
+                }
+                if(r!=null){
+                    if(i>start)out.write(s, start, i-start);
+                    out.write(r);
+                    start = i+1;
+                }
+            }
+            if(len>start)out.write(s, start, len-start);
+        }
+    }
+
+    //per thread SAX parsers indexed by (validating ? 2 : 0) + (namespaceAware ? 1 : 0)
+    private static final ThreadLocal<SAXParser[]> saxParsers = new ThreadLocal<SAXParser[]>(){
+        @Override
+        protected SAXParser[] initialValue() {
+            return new SAXParser[4];
+        }
+    };
+    private static final SAXParserFactory[] saxFactories = new SAXParserFactory[4];
+
+    private static synchronized SAXParserFactory saxFactory(int i) throws ParserConfigurationException {
+        SAXParserFactory f = saxFactories[i];
+        if(f==null){
+            f = FactorySupport.createSaxParserFactory();
+            f.setValidating((i&2)!=0);
+            f.setNamespaceAware((i&1)!=0);
+            //the same as XmlParser defaults: secure processing, doctype declaration not allowed
+            setQuietly(f, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            setQuietly(f, "http://apache.org/xml/features/disallow-doctype-decl", true);
+            saxFactories[i] = f;
+        }
+        return f;
+    }
+
+    private static void setQuietly(SAXParserFactory f, String feature, boolean value){
+        try {
+            f.setFeature(feature, value);
+        } catch (Exception e) {
+            //the feature is not supported by the parser implementation
+        }
+    }
+
+    /**
+     * returns XmlParser with the same settings as {@code new XmlParser(validating, namespaceAware)}.
+     * the underlying SAX parser is created once per thread and options, and reset before each use
+     * so the returned parser should be used within current thread for one document.
+     * @param validating true if the parser should validate documents as they are parsed
+     * @param namespaceAware true if the parser should provide support for XML namespaces
+     * @return xml parser
+     * @throws ParserConfigurationException if the parser can't be created
+     * @throws SAXException if the parser can't be created
+     */
+    public static XmlParser newXmlParser(boolean validating, boolean namespaceAware) throws ParserConfigurationException, SAXException {
+        int i = (validating ? 2 : 0) + (namespaceAware ? 1 : 0);
+        SAXParser[] parsers = saxParsers.get();
+        SAXParser p = parsers[i];
+        if(p==null){
+            p = saxFactory(i).newSAXParser();
+            parsers[i] = p;
+        }else{
+            //previous parsing could fail in the middle
+            p.reset();
+        }
+        XmlParser parser = new XmlParser(p);
+        parser.setNamespaceAware(namespaceAware);
+        return parser;
+    }
+
+    /**
+     * parses xml into groovy Node with StAX reader. the result is the same as {@code new XmlParser(false, namespaceAware).parse(in)}.
+     * the StAX implementation is the one found by {@code XMLInputFactory.newInstance()}, so with a fast implementation in classpath (e.g. Woodstox)
+     * this is faster than SAX parser. document validation is not supported.
+     * @param in stream with xml
+     * @param namespaceAware true if the parser should provide support for XML namespaces
+     * @return root node
+     * @throws XMLStreamException on xml error
+     */
+    public static Node parseNode(InputStream in, boolean namespaceAware) throws XMLStreamException {
+        XMLInputFactory[] factories = staxReusable.get();
+        int i = namespaceAware ? 1 : 0;
+        if(factories[i]==null){
+            factories[i] = newInputFactory(namespaceAware);
+            //jdk implementation reuses the last closed reader instead of creating a new one. the factory is confined to the thread.
+            try {
+                factories[i].setProperty("reuse-instance", Boolean.TRUE);
+            } catch (IllegalArgumentException e) {
+                //other implementation
+            }
+        }
+        XMLStreamReader r = factories[i].createXMLStreamReader(in);
+        boolean done = false;
+        try {
+            while(r.next()!=XMLStreamReader.START_ELEMENT){
+                //skip prolog: comments, processing instructions
+            }
+            Node node = readNode(r, namespaceAware);
+            //check the rest of document. also reused reader must be closed at the end of document.
+            while(r.hasNext())r.next();
+            done = true;
+            return node;
+        }finally {
+            r.close();
+            //don't reuse the reader that failed in the middle of document
+            if(!done)factories[i] = null;
+        }
+    }
+
+    //per thread StAX factories for `parseNode` indexed by (namespaceAware ? 1 : 0)
+    private static final ThreadLocal<XMLInputFactory[]> staxReusable = new ThreadLocal<XMLInputFactory[]>(){
+        @Override
+        protected XMLInputFactory[] initialValue() {
+            return new XMLInputFactory[2];
+        }
+    };
+    private static final XMLInputFactory staxNamespaceAware = newInputFactory(true);
+    private static final XMLInputFactory staxNamespaceUnaware = newInputFactory(false);
+    private static final XMLOutputFactory staxOutput = XMLOutputFactory.newInstance();
+
+    private static XMLInputFactory newInputFactory(boolean namespaceAware){
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+        //the same as XmlParser defaults: doctype declaration not supported
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return f;
+    }
+
+    /**
+     * creates StAX reader with shared preconfigured factory
+     * @param r reader with xml
+     * @param namespaceAware true if the reader should provide support for XML namespaces
+     * @return xml stream reader
+     * @throws XMLStreamException on xml error
+     */
+    public static XMLStreamReader newStreamReader(Reader r, boolean namespaceAware) throws XMLStreamException {
+        return (namespaceAware ? staxNamespaceAware : staxNamespaceUnaware).createXMLStreamReader(r);
+    }
+
+    /**
+     * creates StAX writer with shared factory
+     * @param w writer for xml output
+     * @return xml stream writer
+     * @throws XMLStreamException on xml error
+     */
+    public static XMLStreamWriter newStreamWriter(Writer w) throws XMLStreamException {
+        return staxOutput.createXMLStreamWriter(w);
+    }
+
+    /**
+     * reads current element of the StAX reader with all its content into groovy Node the same way as XmlParser does:
+     * element names with namespace are QName, whitespace-only text ignored.
+     * the reader must be positioned on START_ELEMENT event. after the call it's positioned on the corresponding END_ELEMENT.
+     * @param r xml stream reader
+     * @param namespaceAware true if the reader is namespace aware
+     * @return node that represents current element
+     * @throws XMLStreamException on xml error
+     */
+    public static Node readNode(XMLStreamReader r, boolean namespaceAware) throws XMLStreamException {
+        List<Node> stack = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        Node root = newNode(null, r, namespaceAware);
+        stack.add(root);
+        while(stack.size()>0){
+            switch (r.next()){
+                case XMLStreamReader.START_ELEMENT:
+                    addText(stack.get(stack.size()-1), text);
+                    stack.add( newNode(stack.get(stack.size()-1), r, namespaceAware) );
+                    break;
+                case XMLStreamReader.END_ELEMENT:
+                    addText(stack.remove(stack.size()-1), text);
+                    break;
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                case XMLStreamReader.ENTITY_REFERENCE:
+                    text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    break;
+                default:
+                    //ignore comments, processing instructions, and ignorable spaces
+            }
+        }
+        return root;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addText(Node node, StringBuilder text){
+        if(text.length()>0){
+            //the same as XmlParser with trimWhitespace=false: whitespace-only text ignored, other text kept as is
+            String s = text.toString();
+            if(s.trim().length()>0)node.children().add(s);
+            text.setLength(0);
+        }
+    }
+
+    private static Node newNode(Node parent, XMLStreamReader r, boolean namespaceAware){
+        Map<Object,String> attributes = new LinkedHashMap<>();
+        for(int i=0; i<r.getAttributeCount(); i++){
+            attributes.put(name(r.getAttributeNamespace(i), r.getAttributeLocalName(i), r.getAttributePrefix(i), namespaceAware), r.getAttributeValue(i));
+        }
+        return new Node(parent, name(r.getNamespaceURI(), r.getLocalName(), r.getPrefix(), namespaceAware), attributes);
+    }
+
+    private static Object name(String uri, String local, String prefix, boolean namespaceAware){
+        if(!namespaceAware){
+            return prefix==null || prefix.length()==0 ? local : prefix+":"+local;
+        }
+        if(uri==null || uri.length()==0)return local;
+        return new QName(uri, local, prefix==null?"":prefix);
+    }
+
+    /**
+     * writes groovy Node to StAX writer without indentation. namespaces declared when not defined in current writer context.
+     * @param node the node to write
+     * @param w xml stream writer
+     * @throws XMLStreamException on xml error
+     */
+    public static void writeNode(Node node, XMLStreamWriter w) throws XMLStreamException {
+        ArrayDeque<Iterator<?>> stack = new ArrayDeque<>();
+        writeStartElement(node, w, stack);
+        while(!stack.isEmpty()){
+            Iterator<?> i = stack.peek();
+            if(i.hasNext()){
+                Object child = i.next();
+                if(child instanceof Node)writeStartElement((Node)child, w, stack);
+                else if(child!=null)w.writeCharacters(child.toString());
+            }else{
+                stack.pop();
+                w.writeEndElement();
+            }
+        }
+    }
+
+    /** writes start element with attributes. simple value written as well and the element closed, otherwise children iterator pushed into stack. */
+    private static void writeStartElement(Node node, XMLStreamWriter w, ArrayDeque<Iterator<?>> stack) throws XMLStreamException {
+        Object name = node.name();
+        if(name instanceof QName){
+            QName q = (QName)name;
+            String prefix = q.getPrefix()==null?"":q.getPrefix();
+            w.writeStartElement(prefix, q.getLocalPart(), q.getNamespaceURI());
+            if(!q.getNamespaceURI().equals(w.getNamespaceContext().getNamespaceURI(prefix))){
+                if(prefix.length()==0)w.writeDefaultNamespace(q.getNamespaceURI());
+                else w.writeNamespace(prefix, q.getNamespaceURI());
+            }
+        }else{
+            w.writeStartElement(name.toString());
+        }
+        for(Object o : node.attributes().entrySet()){
+            Map.Entry<?,?> a = (Map.Entry<?,?>)o;
+            Object key = a.getKey();
+            String value = a.getValue()==null ? "" : a.getValue().toString();
+            if(key instanceof QName){
+                QName q = (QName)key;
+                w.writeAttribute(q.getPrefix()==null?"":q.getPrefix(), q.getNamespaceURI(), q.getLocalPart(), value);
+            }else{
+                w.writeAttribute(key.toString(), value);
+            }
+        }
+        Object value = node.value();
+        if(value instanceof List){
+            stack.push(((List<?>)value).iterator());
+            return;
+        }
+        if(value!=null)w.writeCharacters(value.toString());
+        w.writeEndElement();
     }
 }
@@ -0,0 +1,271 @@
+package groovyx.acme.nifi.worker.jsonToXml;
+
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.JsonStreamReader;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import groovyx.acme.nifi.XmlUtils;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * flow file worker that converts json to xml in one pass: json reader tokens are written directly with StAX writer,
+ * so the document is never loaded into memory. this is the reverse of `xmlToJson` with the same conventions:
+ * <ul>
+ * <li>object key becomes element. if `root` is not defined the top-level value must be an object with one key - the root element.</li>
+ * <li>keys with `attributePrefix` become attributes. they must go before other keys of the object.</li>
+ * <li>value of `textKey` becomes the text of element.</li>
+ * <li>array becomes the sequence of elements with the name of the array key. items of nested arrays are written as `item` elements.</li>
+ * <li>simple values become text, null becomes empty element.</li>
+ * <li>keys that are not valid xml names (like `a b` or `1x`), strings with characters not allowed in xml (like NUL),
+ *     and top-level object without keys when `root` is not defined are not converted: the worker fails with XMLStreamException.</li>
+ * </ul>
+ * The worker {@code jsonToXml(opts)} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>root</td><td>name of the root element to wrap the json value. (default=null)</td></tr>
+ * <tr class="rowColor"><td>item</td><td>element name for items of nested and top-level arrays (default=`item`)</td></tr>
+ * <tr class="rowColor"><td>attributePrefix</td><td>key prefix for attributes (default=`@`)</td></tr>
+ * <tr class="rowColor"><td>textKey</td><td>key for the text of element (default=`#text`)</td></tr>
+ * <tr class="rowColor"><td>xmlDeclaration</td><td>prepend xml declaration (default=false)</td></tr>
+ * <tr class="rowColor"><td>indent</td><td>true to pretty print the output xml (default=false)</td></tr>
+ * </table>
+ *
+ * <pre>{@code
+ * //{"orders":{"order":[{"@id":"1","item":["a","b"]}]}}
+ * withFlowFile(this).jsonToXml()
+ * //<orders><order id="1"><item>a</item><item>b</item></order></orders>
+ * }</pre>
+ */
+public class JsonToXml extends ParseTransformWriteContext {
+    private String encoding;
+    private String root;
+    private String item;
+    private String attributePrefix;
+    private String textKey;
+    private boolean xmlDeclaration;
+    private boolean indent;
+
+    //stack of json containers
+    private String[] names;      //array: element name of items, object: element name
+    private boolean[] isObject;
+    private boolean[] owns;      //the container has its own xml element
+    private int depth;
+    //stack of xml elements
+    private boolean[] content;   //element has text or child elements
+    private boolean[] children;  //element has child elements
+    private int level;
+
+    private static final int ELEMENT = 0;
+    private static final int ATTRIBUTE = 1;
+    private static final int TEXT = 2;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==0){
+            invoke(Collections.EMPTY_MAP);
+            return;
+        }else if(args.length==1){
+            if(args[0] instanceof Map){
+                invoke((Map)args[0]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `jsonToXml` method: " + InvokerHelper.toTypeString(args)+". Expected (Map) or ()." );
+    }
+
+    private void invoke(Map<Object,Object> args) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.root = (String)args.get("root");
+        this.item = (String)args.getOrDefault("item","item");
+        this.attributePrefix = (String)args.getOrDefault("attributePrefix","@");
+        this.textKey = (String)args.getOrDefault("textKey","#text");
+        this.xmlDeclaration = ((Boolean)args.getOrDefault("xmlDeclaration",Boolean.FALSE)).booleanValue();
+        this.indent = ((Boolean)args.getOrDefault("indent",Boolean.FALSE)).booleanValue();
+        this.run();
+    }
+
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws Exception {
+        try(Reader r = IOUtils.toReader(sin, encoding)){
+            EncodingWriter w = new EncodingWriter(sout, encoding);
+            if(xmlDeclaration)w.append("<?xml version=\"1.0\" encoding=\""+encoding+"\"?>\n");
+            XMLStreamWriter xw = XmlUtils.newStreamWriter(w);
+            convert(new JsonStreamReader(r), xw);
+            xw.flush();
+            w.finish();
+        }
+        return true;
+    }
+
+    private void convert(JsonStreamReader r, XMLStreamWriter w) throws Exception {
+        names = new String[16];
+        isObject = new boolean[16];
+        owns = new boolean[16];
+        content = new boolean[16];
+        children = new boolean[16];
+        depth = 0;
+        level = 0;
+        String key = null;
+        String name = root; //element or attribute name for the next value
+        int kind = ELEMENT;
+        if(root==null){
+            //the keys of top-level object are root elements
+            if(r.next()!=JsonStreamReader.START_OBJECT)throw new XMLStreamException("json must be an object with one key or the `root` option of `jsonToXml` must be defined");
+            push(null, true, false);
+        }
+        int rootCount = 0;
+        for(int t = r.next(); t!=JsonStreamReader.END_DOCUMENT; t = r.next()){
+            if(t==JsonStreamReader.NAME){
+                key = r.getText();
+                kind = ELEMENT;
+                name = key;
+                if(level==0){
+                    if(++rootCount>1)throw new XMLStreamException("json has more then one root key: `"+key+"`. Define the `root` option of `jsonToXml`.");
+                }else if(key.startsWith(attributePrefix)){
+                    if(content[level-1])throw new XMLStreamException("json key `"+key+"` must go before other keys to be written as attribute");
+                    kind = ATTRIBUTE;
+                    name = key.substring(attributePrefix.length());
+                }else if(key.equals(textKey)){
+                    kind = TEXT;
+                }
+                continue;
+            }
+            if(t==JsonStreamReader.END_OBJECT || t==JsonStreamReader.END_ARRAY){
+                depth--;
+                if(owns[depth])endElement(w);
+                continue;
+            }
+            //value
+            boolean inArray = depth>0 && !isObject[depth-1];
+            if(inArray){
+                name = names[depth-1];
+                kind = ELEMENT;
+            }
+            if(kind!=ELEMENT){
+                if(t==JsonStreamReader.START_OBJECT || t==JsonStreamReader.START_ARRAY)throw new XMLStreamException("json key `"+key+"` must have simple value");
+                String v = r.getText();
+                if(v!=null){
+                    if(kind==ATTRIBUTE){
+                        w.writeAttribute(checkName(name, "attribute"), checkText(v, key));
+                    }else{
+                        w.writeCharacters(checkText(v, key));
+                        content[level-1] = true;
+                    }
+                }
+            }else if(t==JsonStreamReader.START_OBJECT){
+                startElement(w, name);
+                push(name, true, true);
+            }else if(t==JsonStreamReader.START_ARRAY){
+                //items of object key array are the elements with the key name. top-level and nested arrays need own element.
+                if(depth==0 || inArray){
+                    startElement(w, name);
+                    push(item, false, true);
+                }else{
+                    push(name, false, false);
+                }
+            }else{
+                String v = r.getText();
+                if(v==null){
+                    emptyElement(w, name);
+                }else{
+                    startElement(w, name);
+                    w.writeCharacters(checkText(v, name));
+                    endElement(w);
+                }
+            }
+        }
+        if(root==null && rootCount==0)throw new XMLStreamException("json object has no keys: the root element is not defined. Define the `root` option of `jsonToXml`.");
+        w.writeEndDocument();
+        names = null;
+    }
+
+    private void startElement(XMLStreamWriter w, String name) throws XMLStreamException {
+        beforeElement(w);
+        w.writeStartElement(checkName(name, "element"));
+        if(level==content.length){
+            content = Arrays.copyOf(content, level*2);
+            children = Arrays.copyOf(children, level*2);
+        }
+        content[level] = false;
+        children[level] = false;
+        level++;
+    }
+
+    private void emptyElement(XMLStreamWriter w, String name) throws XMLStreamException {
+        beforeElement(w);
+        w.writeEmptyElement(checkName(name, "element"));
+    }
+
+    /** StAX writer does not validate names, so json keys are checked here: letter, `_` or `:` followed by letters, digits, `.`, `-`, `_`, `:` */
+    private static String checkName(String name, String kind) throws XMLStreamException {
+        boolean valid = name.length()>0;
+        for(int i=0; valid && i<name.length(); i++){
+            char c = name.charAt(i);
+            valid = Character.isLetter(c) || c=='_' || c==':' || (i>0 && (Character.isDigit(c) || c=='.' || c=='-' || c=='\u00B7'));
+        }
+        if(!valid)throw new XMLStreamException("json key `"+name+"` is not a valid xml "+kind+" name");
+        return name;
+    }
+
+    /** StAX writer does not check characters either: only tab, new line, carriage return, and valid unicode from 0x20 are allowed in xml 1.0 */
+    private static String checkText(String v, String key) throws XMLStreamException {
+        for(int i=0; i<v.length(); i++){
+            char c = v.charAt(i);
+            boolean valid;
+            if(c<0x20){
+                valid = c=='\t' || c=='\n' || c=='\r';
+            }else if(Character.isHighSurrogate(c)){
+                valid = i+1<v.length() && Character.isLowSurrogate(v.charAt(i+1));
+                i++;
+            }else{
+                valid = !Character.isLowSurrogate(c) && c!='\uFFFE' && c!='\uFFFF';
+            }
+            if(!valid)throw new XMLStreamException("json value of `"+key+"` has character not allowed in xml: \\u"+String.format("%04X", (int)c));
+        }
+        return v;
+    }
+
+    private void beforeElement(XMLStreamWriter w) throws XMLStreamException {
+        if(level>0){
+            content[level-1] = true;
+            children[level-1] = true;
+            if(indent){
+                w.writeCharacters("\n");
+                for(int i=0; i<level; i++)w.writeCharacters("  ");
+            }
+        }
+    }
+
+    private void endElement(XMLStreamWriter w) throws XMLStreamException {
+        level--;
+        if(indent && children[level]){
+            w.writeCharacters("\n");
+            for(int i=0; i<level; i++)w.writeCharacters("  ");
+        }
+        w.writeEndElement();
+    }
+
+    private void push(String name, boolean object, boolean ownElement){
+        if(depth==names.length){
+            int n = depth*2;
+            names = Arrays.copyOf(names, n);
+            isObject = Arrays.copyOf(isObject, n);
+            owns = Arrays.copyOf(owns, n);
+        }
+        names[depth] = name;
+        isObject[depth] = object;
+        owns[depth] = ownElement;
+        depth++;
+    }
+}
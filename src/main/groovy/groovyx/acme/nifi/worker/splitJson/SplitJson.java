@@ -0,0 +1,184 @@
+package groovyx.acme.nifi.worker.splitJson;
+
+import groovy.lang.Closure;
+import groovyx.acme.json.AcmeJsonFilterHandler;
+import groovyx.acme.json.AcmeJsonNullHandler;
+import groovyx.acme.json.AcmeJsonParser;
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.JsonStreamWriter;
+import groovyx.acme.nifi.JsonUtils;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * flow file worker that splits large json with streaming json reader: each value matched by json path
+ * (or group of `size` values) is written into a new flowfile as soon as it's parsed, so memory usage does not depend on the input size.
+ * The original flow file is dropped.
+ * The worker {@code splitJson(opts){item, attr-> ... }} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>path</td><td>mandatory json path of values to split. see `onValue` in `withJsonReader` for supported syntax. example: {@code '$.message.data.*'}</td></tr>
+ * <tr class="rowColor"><td>size</td><td>number of values per new flowfile. if greater then 1 the new flowfile contains json array of values. (default=1)</td></tr>
+ * <tr class="rowColor"><td>attributes</td><td>map of json paths outside of the split values to attribute names. the values are copied into attributes of all new flowfiles. example: {@code ['$.message.name':'message.name']}</td></tr>
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-files (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>relax</td><td>{@code true} to use relax algorithm to parse json where double quotes are optional. (default=false)</td></tr>
+ * <tr class="rowColor"><td>indent</td><td>true to pretty print the output json (default=false)</td></tr>
+ * </table>
+ * optional closure called for each matched value with one (value) or two (value, attr) parameters, where `attr` are the attributes of original flowfile.
+ * it must return the value to write or null to skip it.
+ * New flowfiles get the standard fragment attributes: `fragment.identifier`, `fragment.index`, `fragment.count`, `segment.original.filename`.
+ *
+ * <pre>{@code
+ * withFlowFile(this).splitJson(path:'$.message.data.*', size:1000, attributes:['$.message.name':'message.name'])
+ * }</pre>
+ */
+public class SplitJson extends ParseTransformWriteContext {
+    private String encoding;
+    private boolean relax;
+    private boolean indent;
+    private String path;
+    private int size;
+    private Map<Object,Object> attributes;
+    private Closure itemTransform;
+
+    //state of current flowfile split
+    private List<Object> items;
+    private List<FlowFile> children;
+    private Map<String,String> envelope;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Map){
+                invoke((Map)args[0], null);
+                return;
+            }
+        }else if(args.length==2){
+            if(args[0] instanceof Map && args[1] instanceof Closure){
+                invoke((Map)args[0] ,(Closure)args[1]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `splitJson` method: " + InvokerHelper.toTypeString(args)+". Expected (Map,Closure) or (Map)." );
+    }
+
+    @SuppressWarnings("unchecked")
+    private void invoke(Map<Object,Object> args, Closure c) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.relax = ((Boolean)args.getOrDefault("relax",Boolean.FALSE)).booleanValue();
+        this.indent = ((Boolean)args.getOrDefault("indent",Boolean.FALSE)).booleanValue();
+        this.path = (String)args.get("path");
+        this.size = ((Number)args.getOrDefault("size",1)).intValue();
+        this.attributes = (Map<Object,Object>)args.getOrDefault("attributes",Collections.EMPTY_MAP);
+        this.itemTransform = c;
+        if(path==null)throw new IllegalArgumentException("The `path` parameter is mandatory for `splitJson`");
+        if(size<1)throw new IllegalArgumentException("The `size` parameter must be positive: "+size);
+        //the original content is only read: there is no need for a new content claim
+        this.setReadOnly(true);
+        this.run();
+    }
+
+    /**
+     * parses content and writes matched values into new flowfiles. the original flowfile is opened with `session.read` (read-only mode).
+     * @return false to drop the original flowfile
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, final ControlMap attr) throws IOException {
+        items = new ArrayList<>(size);
+        children = new ArrayList<>();
+        envelope = new HashMap<>();
+
+        AcmeJsonParser parser = new AcmeJsonParser();
+        AcmeJsonFilterHandler jsonFilter = new AcmeJsonFilterHandler();
+        if(relax)parser.setLenient(true);
+        parser.setHandler( jsonFilter );
+        jsonFilter.setDelegate( new AcmeJsonNullHandler() );
+
+        for(Map.Entry<Object,Object> e : attributes.entrySet()){
+            final String attrName = e.getValue().toString();
+            jsonFilter.addValueFilter(e.getKey().toString(), new Closure<Object>(this){
+                public Object doCall(Object value, Object jPath){
+                    if(value!=null)envelope.put(attrName, value.toString());
+                    return value;
+                }
+            });
+        }
+        jsonFilter.addValueFilter(path, new Closure<Object>(this){
+            public Object doCall(Object value, Object jPath) throws IOException {
+                if(getMetrics()!=null)getMetrics().addMatched(1);
+                Object item = value;
+                if(itemTransform!=null){
+                    if(itemTransform.getMaximumNumberOfParameters()==1){
+                        item = delegated(itemTransform).call(value);
+                    }else{
+                        item = delegated(itemTransform).call(value, attr);
+                    }
+                }
+                if(item!=null){
+                    items.add(item);
+                    if(items.size()>=size)writeChild();
+                }
+                return null;
+            }
+        });
+
+        try(Reader r = IOUtils.toReader(sin,encoding)){
+            parser.parse( r );
+        }
+        if(items.size()>0)writeChild();
+
+        //fragment attributes are known only at the end of the input
+        String fragmentId = UUID.randomUUID().toString();
+        String fileName = flowFile.getAttribute("filename");
+        List<FlowFile> result = new ArrayList<>(children.size());
+        for(int i=0; i<children.size(); i++){
+            Map<String,String> a = new LinkedHashMap<>(envelope);
+            a.put("fragment.identifier", fragmentId);
+            a.put("fragment.index", Integer.toString(i));
+            a.put("fragment.count", Integer.toString(children.size()));
+            if(fileName!=null)a.put("segment.original.filename", fileName);
+            result.add( session.putAllAttributes(children.get(i), a) );
+        }
+        session.transfer(result, REL_SUCCESS);
+        items = null;
+        children = null;
+        envelope = null;
+        return false;
+    }
+
+    /** writes collected items into a new flowfile */
+    private void writeChild(){
+        final Object data = size==1 ? items.get(0) : new ArrayList<>(items);
+        items.clear();
+        FlowFile child = session.create(flowFile);
+        child = session.write(child, new OutputStreamCallback() {
+            @Override
+            public void process(OutputStream out) throws IOException {
+                if(JsonStreamWriter.isAsciiCompatible(encoding)){
+                    JsonUtils.writeJson(data, out, indent?0:-1);
+                }else{
+                    try(Writer w = IOUtils.toWriter(out, encoding)){
+                        JsonUtils.writeJson(data, w, indent?0:-1);
+                    }
+                }
+            }
+        });
+        children.add(child);
+    }
+}
@@ -0,0 +1,189 @@
+package groovyx.acme.nifi.worker.splitLines;
+
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * flow file worker that splits text content into new flowfiles of `lines` lines and/or `maxBytes` bytes.
+ * the content is scanned as bytes for `\n` without decoding, and runs of lines are copied into new flowfiles with bulk writes,
+ * so the cost is per new flowfile and not per line. any ascii-compatible encoding is supported (UTF-8, ISO-8859-1, ...).
+ * line terminators are kept as is. The original flow file is dropped.
+ * The worker {@code splitLines(opts)} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>lines</td><td>max number of lines (without header) per new flowfile</td></tr>
+ * <tr class="rowColor"><td>maxBytes</td><td>max size of new flowfile in bytes including header. a line longer then `maxBytes` is written into a separate flowfile.</td></tr>
+ * <tr class="rowColor"><td>header</td><td>number of header lines copied from the beginning of content to each new flowfile (default=0)</td></tr>
+ * </table>
+ * at least one of `lines` or `maxBytes` must be defined.
+ * New flowfiles get the standard fragment attributes: `fragment.identifier`, `fragment.index`, `fragment.count`, `segment.original.filename`.
+ *
+ * <pre>{@code
+ * withFlowFile(this).splitLines(lines:10000, maxBytes:10*1024*1024, header:1)
+ * }</pre>
+ */
+public class SplitLines extends ParseTransformWriteContext {
+    private static final int BUFFER_SIZE = 65536;
+
+    private long lines;
+    private long maxBytes;
+    private int header;
+
+    //state of current flowfile split
+    private InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private int run; //start of lines accepted into current chunk but not written yet
+    private boolean eof;
+    private byte[] headerBytes;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Map){
+                invoke((Map)args[0]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `splitLines` method: " + InvokerHelper.toTypeString(args)+". Expected (Map)." );
+    }
+
+    private void invoke(Map<Object,Object> args) {
+        Number lines = (Number)args.get("lines");
+        Number maxBytes = (Number)args.get("maxBytes");
+        this.header = ((Number)args.getOrDefault("header",0)).intValue();
+        if(lines==null && maxBytes==null)throw new IllegalArgumentException("The `lines` or `maxBytes` parameter is mandatory for `splitLines`");
+        this.lines = lines==null ? Long.MAX_VALUE : lines.longValue();
+        this.maxBytes = maxBytes==null ? Long.MAX_VALUE : maxBytes.longValue();
+        if(this.lines<1)throw new IllegalArgumentException("The `lines` parameter must be positive: "+lines);
+        if(this.maxBytes<1)throw new IllegalArgumentException("The `maxBytes` parameter must be positive: "+maxBytes);
+        if(header<0)throw new IllegalArgumentException("The `header` parameter must not be negative: "+header);
+        //the original content is only read: there is no need for a new content claim
+        this.setReadOnly(true);
+        this.run();
+    }
+
+    /**
+     * reads content and writes lines into new flowfiles. nothing written to the original flowfile.
+     * @return false to drop the original flowfile
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws IOException {
+        in = sin;
+        buf = new byte[BUFFER_SIZE];
+        pos = 0;
+        limit = 0;
+        eof = false;
+        List<FlowFile> children = new ArrayList<>();
+        try {
+            ByteArrayOutputStream h = new ByteArrayOutputStream();
+            for(int i=0; i<header; i++){
+                int end = nextLine();
+                if(end<0)break;
+                h.write(buf, pos, end-pos);
+                pos = end;
+            }
+            headerBytes = h.toByteArray();
+
+            while(nextLine()>=0){
+                FlowFile child = session.create(flowFile);
+                child = session.write(child, new OutputStreamCallback() {
+                    @Override
+                    public void process(OutputStream out) throws IOException {
+                        writeChunk(out);
+                    }
+                });
+                children.add(child);
+            }
+        }finally {
+            in = null;
+            buf = null;
+            headerBytes = null;
+        }
+
+        //fragment attributes are known only at the end of the input
+        String fragmentId = UUID.randomUUID().toString();
+        String fileName = flowFile.getAttribute("filename");
+        List<FlowFile> result = new ArrayList<>(children.size());
+        for(int i=0; i<children.size(); i++){
+            Map<String,String> a = new HashMap<>();
+            a.put("fragment.identifier", fragmentId);
+            a.put("fragment.index", Integer.toString(i));
+            a.put("fragment.count", Integer.toString(children.size()));
+            if(fileName!=null)a.put("segment.original.filename", fileName);
+            result.add( session.putAllAttributes(children.get(i), a) );
+        }
+        session.transfer(result, REL_SUCCESS);
+        return false;
+    }
+
+    /**
+     * writes header and lines until one of the limits reached. the first line is always written.
+     * consecutive lines in buffer are written with one call.
+     */
+    private void writeChunk(OutputStream out) throws IOException {
+        out.write(headerBytes);
+        long size = headerBytes.length;
+        long count = 0;
+        run = pos;
+        int end;
+        while( count<lines && (end = nextLine(out))>=0 ){
+            if(count>0 && size+end-pos>maxBytes)break;
+            size+=end-pos;
+            count++;
+            pos = end;
+        }
+        out.write(buf, run, pos-run);
+        if(getMetrics()!=null)getMetrics().addRecords(count);
+    }
+
+    private int nextLine() throws IOException {
+        return nextLine(null);
+    }
+
+    /**
+     * finds the end of the line that starts at `pos` reading more data if needed.
+     * before the buffer is compacted the pending bytes from `run` to `pos` are written into `out`.
+     * @return index after `\n` or after the last byte of content, -1 if there is no more data
+     */
+    private int nextLine(OutputStream out) throws IOException {
+        int i = pos;
+        while(true){
+            for(; i<limit; i++){
+                if(buf[i]=='\n')return i+1;
+            }
+            if(eof)return limit>pos ? limit : -1;
+            //compact or grow the buffer to read more
+            if(out!=null && run<pos)out.write(buf, run, pos-run);
+            run = 0;
+            int len = limit-pos;
+            if(pos>0){
+                System.arraycopy(buf, pos, buf, 0, len);
+            }else if(limit==buf.length){
+                byte[] b = new byte[buf.length*2];
+                System.arraycopy(buf, 0, b, 0, len);
+                buf = b;
+            }
+            i = len;
+            pos = 0;
+            limit = len;
+            int n = in.read(buf, limit, buf.length-limit);
+            if(n<0)eof = true;
+            else limit+=n;
+        }
+    }
+}
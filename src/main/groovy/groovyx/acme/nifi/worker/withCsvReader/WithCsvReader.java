@@ -0,0 +1,285 @@
+package groovyx.acme.nifi.worker.withCsvReader;
+
+import groovy.lang.Closure;
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.CsvRow;
+import groovyx.acme.nifi.CsvStreamReader;
+import groovyx.acme.nifi.CsvStreamWriter;
+import groovyx.acme.nifi.DecodingReader;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.ParallelRecords;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import groovyx.acme.nifi.TransformerDelegate;
+import groovyx.acme.nifi.writer.asCsvWriter.AsCsvWriter;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * flow file worker that processes csv content row by row in constant memory.
+ * rows are passed to `onRow` closure as {@code CsvRow} views indexed by header name: {@code row.name} or by field index: {@code row[0]}.
+ * the closure returns the row to write (Map, List, or array) or null to drop it. without `onRow` all rows are written as is.
+ * The worker {@code withCsvReader(opts){attr-> ... }} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read flow-file. the output is written with the same encoding
+ *     unless `asCsvWriter(encoding:...)` defines another one (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>separator</td><td>field separator (default=`,`)</td></tr>
+ * <tr class="rowColor"><td>quote</td><td>quote char (default=`"`)</td></tr>
+ * <tr class="rowColor"><td>header</td><td>true if the first row contains column names (default=true)</td></tr>
+ * <tr class="rowColor"><td>columns</td><td>list of column names. replaces the names from header. without header and columns the keys of row are field indexes.</td></tr>
+ * <tr class="rowColor"><td>parallel</td><td>number of threads to process rows of one flowfile (default=1). the output keeps the order of input rows.
+ *     in parallel mode `onRow` is called concurrently: `attr` is synchronized, but read-modify-write of an attribute is not atomic
+ *     and the order of `attr` modifications is not defined. local variables captured by `onRow`, like `count++` in the example below,
+ *     race the same way. see {@code ParallelRecords}</td></tr>
+ * <tr class="rowColor"><td>chunkSize</td><td>number of rows processed by one task in parallel mode (default=1000)</td></tr>
+ * <tr class="rowColor"><td>executor</td><td>`ExecutorService` for parallel mode instead of the shared pool</td></tr>
+ * </table>
+ * the closure must return `asCsvWriter(...)` to write the output (see {@code AsCsvWriter}) or null to drop the flowfile.
+ *
+ * <pre>{@code
+ * withFlowFile(this).withCsvReader(separator:';'){attr->
+ *     int count = 0
+ *     onRow{row->
+ *         if(row.status=='deleted')return null
+ *         count++
+ *         row.txt = row.txt.capitalize()
+ *         return row
+ *     }
+ *     onEOF{
+ *         attr.RowCount = count
+ *     }
+ *     return asCsvWriter(separator:',')
+ * }
+ * }</pre>
+ */
+public class WithCsvReader extends ParseTransformWriteContext {
+    private String encoding;
+    private char separator;
+    private char quote;
+    private boolean header;
+    private List<String> columns;
+    private Map<Object,Object> options;
+    private Closure readerConfig;
+
+    //state of current flowfile
+    private Closure eventOnRow;
+    private Closure eventOnEOF;
+    //record read on the session thread in parallel mode
+    private final StringBuilder record = new StringBuilder(256);
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Closure){
+                invoke(Collections.EMPTY_MAP, (Closure)args[0]);
+                return;
+            }
+        }else if(args.length==2){
+            if(args[0] instanceof Map && args[1] instanceof Closure){
+                invoke((Map)args[0], (Closure)args[1]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `withCsvReader` method: " + InvokerHelper.toTypeString(args)+". Expected (Map,Closure) or (Closure)." );
+    }
+
+    @SuppressWarnings("unchecked")
+    private void invoke(Map<Object,Object> args, Closure c) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.separator = CsvStreamReader.toChar(args.getOrDefault("separator", ","), "separator");
+        this.quote = CsvStreamReader.toChar(args.getOrDefault("quote", "\""), "quote");
+        this.header = ((Boolean)args.getOrDefault("header",Boolean.TRUE)).booleanValue();
+        this.columns = null;
+        Object cols = args.get("columns");
+        if(cols!=null){
+            this.columns = new ArrayList<>();
+            for(Object o : (Iterable<Object>)cols)columns.add(o.toString());
+        }
+        this.options = args;
+        this.readerConfig = c;
+        this.run();
+    }
+
+    @Override
+    protected Object createTransformerDelegate() {
+        return new CsvReaderDelegate(this);
+    }
+
+    /**
+     * configures events, reads rows, and writes them if `asCsvWriter` returned
+     * @return true if `asCsvWriter` returned
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws Exception {
+        eventOnRow = null;
+        eventOnEOF = null;
+        Object ret = delegated(readerConfig).call(attr);
+        if(ret!=null && !(ret instanceof AsCsvWriter)){
+            throw new IllegalStateException("the return value for withCsvReader must be null (to drop file) or `asCsvWriter(...)`");
+        }
+        AsCsvWriter csv = (AsCsvWriter)ret;
+        ParallelRecords records = new ParallelRecords(options){
+            @Override
+            protected String readRecord(BufferedReader in) throws IOException {
+                return readCsvRecord((DecodingReader)in);
+            }
+        };
+        if(records.isParallel()){
+            processParallel(sin, sout, attr, csv, records);
+        }else{
+            processSequential(sin, sout, attr, csv);
+        }
+        if(eventOnEOF!=null)eventOnEOF.call();
+        eventOnRow = null;
+        eventOnEOF = null;
+        return csv!=null;
+    }
+
+    private void processSequential(InputStream sin, OutputStream sout, ControlMap attr, AsCsvWriter csv) throws Exception {
+        //the reader has its own buffer
+        CsvStreamReader r = new CsvStreamReader(new DecodingReader(sin, encoding), separator, quote);
+        List<String> names = readHeader(r);
+        EncodingWriter w = csv==null ? null : new EncodingWriter(sout, csv.getEncoding(encoding));
+        CsvStreamWriter out = null;
+        List<String> outColumns = null;
+        if(csv!=null){
+            outColumns = csv.writeHeader(w, names);
+            out = csv.newWriter(w);
+        }
+        long n = processRows(r, names, out, outColumns, eventOnRow, attr);
+        if(w!=null)w.finish();
+        if(getMetrics()!=null)getMetrics().addRecords(n);
+    }
+
+    private void processParallel(InputStream sin, OutputStream sout, ControlMap attr, final AsCsvWriter csv, ParallelRecords records) throws Exception {
+        DecodingReader in = new DecodingReader(sin, encoding);
+        final List<String> names;
+        if(header){
+            String h = readCsvRecord(in);
+            CsvStreamReader r = new CsvStreamReader(new StringReader(h==null ? "" : h), separator, quote);
+            names = readHeader(r);
+        }else{
+            names = readHeader(null);
+        }
+        //header and chunks are encoded separately: the byte order mark is written once
+        Charset outCharset = IOUtils.charset(csv==null ? encoding : csv.getEncoding(encoding));
+        final Charset charset = IOUtils.withoutBOM(outCharset);
+        if(csv!=null)sout = IOUtils.withBOM(sout, outCharset);
+        final List<String> outColumns;
+        if(csv!=null){
+            EncodingWriter w = new EncodingWriter(sout, charset);
+            outColumns = csv.writeHeader(w, names);
+            w.finish();
+        }else{
+            outColumns = null;
+        }
+        final Closure onRow = eventOnRow;
+        //closures of parallel tasks share the attributes
+        final Map<String,Object> attrs = Collections.synchronizedMap(attr);
+        long n = records.run(in, sout, new ParallelRecords.Task() {
+            @Override
+            public void process(List<String> chunk, long index, OutputStream sout) throws Exception {
+                StringBuilder text = new StringBuilder(chunk.size()*64);
+                for(String record : chunk)text.append(record).append('\n');
+                CsvStreamReader r = new CsvStreamReader(new StringReader(text.toString()), separator, quote);
+                EncodingWriter w = csv==null ? null : new EncodingWriter(sout, charset);
+                try {
+                    processRows(r, names, csv==null ? null : csv.newWriter(w), outColumns, onRow==null ? null : (Closure)onRow.clone(), attrs);
+                } catch (IOException e) {
+                    throw new IOException("Invalid csv in rows "+(index+1)+".."+(index+chunk.size())+" after header: "+e.getMessage(), e);
+                }
+                if(w!=null)w.finish();
+            }
+        });
+        if(getMetrics()!=null)getMetrics().addRecords(n);
+    }
+
+    /** reads header record if defined and returns column names */
+    private List<String> readHeader(CsvStreamReader r) throws IOException {
+        List<String> names = columns;
+        if(header && r.next() && names==null)names = r.getValues();
+        return names;
+    }
+
+    /** @return number of processed rows */
+    private static long processRows(CsvStreamReader r, List<String> names, CsvStreamWriter out, List<String> outColumns, Closure onRow, Map<String,Object> attr) throws IOException {
+        Map<String,Integer> index = names==null ? null : CsvRow.index(names);
+        boolean withAttr = onRow!=null && onRow.getMaximumNumberOfParameters()>1;
+        long count = 0;
+        while(r.next()){
+            count++;
+            Object row = new CsvRow(r, names, index);
+            if(onRow!=null){
+                row = withAttr ? onRow.call(row, attr) : onRow.call(row);
+            }
+            if(row!=null && out!=null)out.writeRow(row, outColumns);
+        }
+        return count;
+    }
+
+    /**
+     * reads one csv record that could span several lines when quoted fields contain line breaks.
+     * line breaks inside quoted fields are kept as is, the line terminator of the record is removed.
+     */
+    private String readCsvRecord(DecodingReader in) throws IOException {
+        StringBuilder s = record;
+        s.setLength(0);
+        int quotes = 0;
+        boolean read = false;
+        int start = 0;
+        while(in.readLine(s)){
+            read = true;
+            quotes+=countQuotes(s, start);
+            if(quotes%2==0)break;
+            start = s.length();
+        }
+        if(!read)return null;
+        int end = s.length();
+        if(end>0 && s.charAt(end-1)=='\n')end--;
+        if(end>0 && s.charAt(end-1)=='\r')end--;
+        return s.substring(0, end);
+    }
+
+    private int countQuotes(CharSequence s, int start){
+        int n = 0;
+        for(int i=start; i<s.length(); i++){
+            if(s.charAt(i)==quote)n++;
+        }
+        return n;
+    }
+
+    public static class CsvReaderDelegate extends TransformerDelegate {
+        CsvReaderDelegate(WithCsvReader context){
+            super(context);
+        }
+
+        /**
+         * defines row processor
+         * @param c closure with one (row) or two (row, attr) parameters that returns the row to write or null to drop it
+         */
+        public void onRow(Closure c){
+            WithCsvReader csvReader = (WithCsvReader)transformer$context;
+            csvReader.eventOnRow = csvReader.delegated(c);
+        }
+
+        /**
+         * defines event listener that will be triggered on end-of-file - after all rows.
+         * @param c closure without parameters.
+         */
+        public void onEOF(Closure c){
+            WithCsvReader csvReader = (WithCsvReader)transformer$context;
+            csvReader.eventOnEOF = csvReader.delegated(c);
+        }
+    }
+}
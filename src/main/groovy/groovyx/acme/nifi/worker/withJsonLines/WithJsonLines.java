@@ -0,0 +1,134 @@
+package groovyx.acme.nifi.worker.withJsonLines;
+
+import groovy.json.JsonException;
+import groovy.json.JsonParserType;
+import groovy.json.JsonSlurper;
+import groovy.lang.Closure;
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.DecodingReader;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.JsonStreamWriter;
+import groovyx.acme.nifi.ParallelRecords;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * flow file worker that processes JSON Lines (NDJSON) content: each line is a separate json record.
+ * records are parsed one by one with the same parser, passed to the closure, and the returned values written as json lines,
+ * so memory usage is bounded by the largest record and not by the file size.
+ * The closure {@code withJsonLines(opts){rec, attr-> ... }} accepts one (record) or two (record, attr) parameters
+ * and must return the record to write or null to drop the record. empty lines are skipped.
+ * chunks of records are encoded separately, without byte order mark: the mark of `UTF-16` is written once at the start of non-empty output.
+ * The worker supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>relax</td><td>true if reLAX parser must be applied to accept unquoted strings (default=false)</td></tr>
+ * <tr class="rowColor"><td>parser</td><td>JsonSlurper parser type: `CHAR_BUFFER`, `INDEX_OVERLAY`, or `LAX` (default=CHAR_BUFFER, ignored if relax=true)</td></tr>
+ * <tr class="rowColor"><td>parallel</td><td>number of threads to process records of one flowfile (default=1). the output keeps the order of input records.
+ *     in parallel mode the closure is called concurrently: `attr` is synchronized, but read-modify-write of an attribute is not atomic
+ *     and the order of `attr` modifications is not defined. the same for counters and other variables updated by the closure. see {@code ParallelRecords}</td></tr>
+ * <tr class="rowColor"><td>chunkSize</td><td>number of lines processed by one task in parallel mode (default=1000)</td></tr>
+ * <tr class="rowColor"><td>executor</td><td>`ExecutorService` for parallel mode instead of the shared pool</td></tr>
+ * </table>
+ *
+ * <pre>{@code
+ * withFlowFile(this).withJsonLines{rec, attr->
+ *     if(rec.status=='deleted')return null
+ *     rec.name = rec.name.toUpperCase()
+ *     return rec
+ * }
+ * }</pre>
+ */
+public class WithJsonLines extends ParseTransformWriteContext {
+    private String encoding;
+    private JsonParserType parserType;
+    private Closure recordTransform;
+    private ParallelRecords records;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Closure){
+                invoke(Collections.EMPTY_MAP, (Closure)args[0]);
+                return;
+            }
+        }else if(args.length==2){
+            if(args[0] instanceof Map && args[1] instanceof Closure){
+                invoke((Map)args[0], (Closure)args[1]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `withJsonLines` method: " + InvokerHelper.toTypeString(args)+". Expected (Map,Closure) or (Closure)." );
+    }
+
+    private void invoke(Map<Object,Object> args, Closure c) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        boolean relax = ((Boolean)args.getOrDefault("relax",Boolean.FALSE)).booleanValue();
+        this.parserType = relax ? JsonParserType.LAX : JsonParserType.valueOf(((String)args.getOrDefault("parser","CHAR_BUFFER")).toUpperCase());
+        this.recordTransform = c;
+        this.records = new ParallelRecords(args);
+        this.run();
+    }
+
+    /**
+     * reads, transforms and writes records line by line
+     * @return true to transfer flowfile
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, final ControlMap attr) throws Exception {
+        final Closure c = delegated(recordTransform);
+        final boolean withAttr = c.getMaximumNumberOfParameters()>1;
+        //closures of parallel tasks share the attributes
+        final Map<String,Object> attrs = records.isParallel() ? Collections.synchronizedMap(attr) : attr;
+        final Charset charset = IOUtils.withoutBOM(IOUtils.charset(encoding));
+
+        BufferedReader r = new DecodingReader(sin, encoding);
+        long n = records.run(r, IOUtils.withBOM(sout, IOUtils.charset(encoding)), new ParallelRecords.Task() {
+            @Override
+            public void process(List<String> lines, long index, OutputStream sout) throws Exception {
+                JsonSlurper parser = new JsonSlurper();
+                parser.setType(parserType);
+                Closure cc = records.isParallel() ? (Closure)c.clone() : c;
+
+                EncodingWriter w = null;
+                JsonStreamWriter out;
+                if(JsonStreamWriter.isAsciiCompatible(encoding)){
+                    out = new JsonStreamWriter(sout, -1);
+                }else{
+                    w = new EncodingWriter(sout, charset);
+                    out = new JsonStreamWriter(w, -1);
+                }
+                long lineNumber = index;
+                for(String line : lines){
+                    lineNumber++;
+                    if(line.trim().isEmpty())continue;
+                    Object rec;
+                    try {
+                        rec = parser.parseText(line);
+                    } catch (JsonException e) {
+                        throw new JsonException("Invalid json at line "+lineNumber+": "+e.getMessage(), e);
+                    }
+                    rec = withAttr ? cc.call(rec, attrs) : cc.call(rec);
+                    if(rec!=null){
+                        out.value(rec);
+                        out.raw("\n");
+                    }
+                }
+                out.flush();
+                if(w!=null)w.finish();
+            }
+        });
+        if(getMetrics()!=null)getMetrics().addRecords(n);
+        return true;
+    }
+}
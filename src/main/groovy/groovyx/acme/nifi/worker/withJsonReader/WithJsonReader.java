@@ -48,6 +48,7 @@ import java.util.Map;
 
 public class WithJsonReader extends ParseTransformWriteContext {
     private String encoding;
+    private boolean relax;
     private AcmeJsonParser parser;
     private AcmeJsonFilterHandler jsonFilter;
     private Closure parserConfig;
@@ -73,12 +74,8 @@ public class WithJsonReader extends ParseTransformWriteContext {
 
     private void invoke(Map<Object,Object> args, Closure c) {
         this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.relax = ((Boolean)args.getOrDefault("relax",Boolean.FALSE)).booleanValue();
         this.parserConfig = c;
-        //initialize parser
-        this.parser = new AcmeJsonParser();
-        this.jsonFilter = new AcmeJsonFilterHandler();
-        if( ((Boolean)args.getOrDefault("relax",Boolean.FALSE)).booleanValue()==true )this.parser.setLenient(true);
-        parser.setHandler( this.jsonFilter );
         this.run();
     }
 
@@ -92,7 +89,12 @@ public class WithJsonReader extends ParseTransformWriteContext {
      */
     @Override
     protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws IOException {
-        //configure
+        //initialize parser. new one for each flowfile because filters registered by `parserConfig` closure
+        this.parser = new AcmeJsonParser();
+        this.jsonFilter = new AcmeJsonFilterHandler();
+        if(relax)this.parser.setLenient(true);
+        parser.setHandler( this.jsonFilter );
+        this.eventOnEOF = null;
 
         Object ret = null;
         try(Reader r = IOUtils.toReader(sin,encoding)){
@@ -135,7 +137,8 @@ public class WithJsonReader extends ParseTransformWriteContext {
          */
         public void onValue(String jPath, Closure jProc){
             //register processor for json event delegated to current default context
-            jsonFilter.addValueFilter(jPath, delegated(jProc) );
+            Closure c = delegated(jProc);
+            jsonFilter.addValueFilter(jPath, getMetrics()==null ? c : new MatchCounter(c, getMetrics()) );
         }
 
         /**
@@ -159,4 +162,29 @@ public class WithJsonReader extends ParseTransformWriteContext {
 
     }
 
+    /** `onValue` listener that counts matched values. used only when `metrics` option enabled. */
+    private static class MatchCounter extends Closure<Object> {
+        private final Closure target;
+        private final WorkerMetrics metrics;
+
+        MatchCounter(Closure target, WorkerMetrics metrics){
+            super(target.getOwner(), target.getThisObject());
+            this.target = target;
+            this.metrics = metrics;
+            //keep the signature of target closure: the filter could pass arguments depending on it
+            this.maximumNumberOfParameters = target.getMaximumNumberOfParameters();
+            this.parameterTypes = target.getParameterTypes();
+        }
+
+        @Override
+        public Object call(Object... args) {
+            metrics.addMatched(1);
+            return target.call(args);
+        }
+
+        public Object doCall(Object... args) {
+            return call(args);
+        }
+    }
+
 }
@@ -0,0 +1,101 @@
+package groovyx.acme.nifi.worker.withLines;
+
+import groovy.lang.Closure;
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.DecodingReader;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.ParallelRecords;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * flow file worker that transforms text content line by line.
+ * The closure {@code withLines(opts){line, attr-> ... }} accepts one (line) or two (line, attr) parameters
+ * and must return the line to write (converted with toString) or null to drop the line. the line is passed without line terminator
+ * and written with `\n` at the end. chunks of lines are encoded separately, without byte order mark: the mark of `UTF-16` is written once at the start of non-empty output.
+ * The worker supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>parallel</td><td>number of threads to process lines of one flowfile (default=1). the output keeps the order of input lines.
+ *     in parallel mode the closure is called concurrently: `attr` is synchronized, but read-modify-write of an attribute is not atomic
+ *     and the order of `attr` modifications is not defined. variables of the script changed by the closure are not synchronized at all. see {@code ParallelRecords}</td></tr>
+ * <tr class="rowColor"><td>chunkSize</td><td>number of lines processed by one task in parallel mode (default=1000)</td></tr>
+ * <tr class="rowColor"><td>executor</td><td>`ExecutorService` for parallel mode instead of the shared pool</td></tr>
+ * </table>
+ *
+ * <pre>{@code
+ * withFlowFile(this).withLines(parallel:4){line->
+ *     line.startsWith('#') ? null : line.toUpperCase()
+ * }
+ * }</pre>
+ */
+public class WithLines extends ParseTransformWriteContext {
+    private String encoding;
+    private Closure lineTransform;
+    private ParallelRecords records;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Closure){
+                invoke(Collections.EMPTY_MAP, (Closure)args[0]);
+                return;
+            }
+        }else if(args.length==2){
+            if(args[0] instanceof Map && args[1] instanceof Closure){
+                invoke((Map)args[0], (Closure)args[1]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `withLines` method: " + InvokerHelper.toTypeString(args)+". Expected (Map,Closure) or (Closure)." );
+    }
+
+    private void invoke(Map<Object,Object> args, Closure c) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.lineTransform = c;
+        this.records = new ParallelRecords(args);
+        this.run();
+    }
+
+    /**
+     * reads, transforms and writes content line by line
+     * @return true to transfer flowfile
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, final ControlMap attr) throws Exception {
+        final Closure c = delegated(lineTransform);
+        final boolean withAttr = c.getMaximumNumberOfParameters()>1;
+        //closures of parallel tasks share the attributes
+        final Map<String,Object> attrs = records.isParallel() ? Collections.synchronizedMap(attr) : attr;
+        final Charset charset = IOUtils.withoutBOM(IOUtils.charset(encoding));
+
+        BufferedReader r = new DecodingReader(sin, encoding);
+        long n = records.run(r, IOUtils.withBOM(sout, IOUtils.charset(encoding)), new ParallelRecords.Task() {
+            @Override
+            public void process(List<String> lines, long index, OutputStream sout) throws Exception {
+                Closure cc = records.isParallel() ? (Closure)c.clone() : c;
+                EncodingWriter w = new EncodingWriter(sout, charset);
+                for(String line : lines){
+                    Object res = withAttr ? cc.call(line, attrs) : cc.call(line);
+                    if(res!=null){
+                        w.append(res.toString());
+                        w.write('\n');
+                    }
+                }
+                w.finish();
+            }
+        });
+        if(getMetrics()!=null)getMetrics().addRecords(n);
+        return true;
+    }
+}
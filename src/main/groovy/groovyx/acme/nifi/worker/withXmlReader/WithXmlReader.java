@@ -0,0 +1,281 @@
+package groovyx.acme.nifi.worker.withXmlReader;
+
+import groovy.lang.Closure;
+import groovy.util.Node;
+import groovyx.acme.nifi.*;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * flow file worker that processes content with StAX xml reader that is useful for large xml files.
+ * only elements matched by `onElement` paths are loaded into memory as {@code groovy.util.Node}, all other content copied to output as is.
+ * The worker {@code withXmlReader(opts){attr-> ... }} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>namespaceAware</td><td>true if the reader should provide support for XML namespaces (default=true)</td></tr>
+ * </table>
+ *
+ * <pre>{@code
+ * //add attribute `index` to each record and count them
+ * withFlowFile(this).withXmlReader(encoding:"UTF-8"){attr->
+ *     int count = 0
+ *     //declare xml element event
+ *     onElement('/root/records/record'){node, path->
+ *         node.@index = count++
+ *         //return the node to write or null to remove the element from output
+ *         return node
+ *     }
+ *     onEOF{
+ *         attr.RecordCount = count
+ *     }
+ *     //without following line the output flow file will be dropped
+ *     return asXmlWriter()
+ * }
+ * }</pre>
+ *
+ */
+public class WithXmlReader extends ParseTransformWriteContext {
+    private String encoding;
+    private boolean namespaceAware;
+    private Closure readerConfig;
+    private Writer contentWriter = null;
+    private Closure eventOnEOF = null;
+    private List<ElementFilter> filters = null;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==1){
+            if(args[0] instanceof Closure){
+                invoke(Collections.EMPTY_MAP ,(Closure)args[0]);
+                return;
+            }
+        }else if(args.length==2){
+            if(args[0] instanceof Map && args[1] instanceof Closure){
+                invoke((Map)args[0] ,(Closure)args[1]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `withXmlReader` method: " + InvokerHelper.toTypeString(args)+". Expected (Map,Closure) or (Closure)." );
+    }
+
+    private void invoke(Map<Object,Object> args, Closure c) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.namespaceAware = ((Boolean)args.getOrDefault("namespaceAware",Boolean.TRUE)).booleanValue();
+        this.readerConfig = c;
+        this.run();
+    }
+
+    /**
+     * configure xml reader, parse content, write output if defined
+     * @param sin flow file input stream
+     * @param sout flow file output stream
+     * @param attr attributes map
+     * @return true if `asXmlWriter` returned by configuration closure
+     * @throws Exception if io or xml error occurres
+     */
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws Exception {
+        Object ret = null;
+        filters = new ArrayList<>();
+        eventOnEOF = null;
+        try(Reader r = IOUtils.toReader(sin,encoding)){
+            try(Writer w = IOUtils.toWriter(sout,encoding)){
+                this.contentWriter = w;
+
+                readerConfig.setDelegate( new TransformerDelegateLocal() );
+                ret = readerConfig.call(attr);
+
+                if(ret!=null && !(ret instanceof XMLStreamWriter)){
+                    throw new IllegalStateException("the return value for XmlReader must be null (to drop file) or `asXmlWriter()`");
+                }
+                XMLStreamReader xr = XmlUtils.newStreamReader(r, namespaceAware);
+                try {
+                    stream(xr, (XMLStreamWriter) ret);
+                }finally {
+                    xr.close();
+                }
+                if(ret!=null)((XMLStreamWriter) ret).flush();
+                w.flush();
+            }
+            this.contentWriter = null;
+        }
+        if(eventOnEOF!=null){
+            eventOnEOF.call();
+        }
+        return ret!=null; //transfer
+    }
+
+    /** main loop: copies xml events to writer (if not null) and calls element filters */
+    private void stream(XMLStreamReader r, XMLStreamWriter w) throws XMLStreamException {
+        List<String> path = new ArrayList<>();
+        if(w!=null && r.getVersion()!=null){
+            w.writeStartDocument(encoding, r.getVersion());
+            w.writeCharacters("\n");
+        }
+        while(r.hasNext()){
+            int event = r.next();
+            switch (event){
+                case XMLStreamReader.START_ELEMENT: {
+                    String name = r.getLocalName();
+                    if(!namespaceAware && r.getPrefix()!=null && r.getPrefix().length()>0)name = r.getPrefix()+":"+name;
+                    path.add(name);
+                    ElementFilter filter = match(path);
+                    if(filter!=null){
+                        Node node = XmlUtils.readNode(r, namespaceAware);
+                        Object result = filter.call(node, path);
+                        if(getMetrics()!=null)getMetrics().addMatched(1);
+                        if(w!=null && result!=null){
+                            if(result instanceof Node)XmlUtils.writeNode((Node)result, w);
+                            else w.writeCharacters(result.toString());
+                        }
+                        path.remove(path.size()-1);
+                    }else if(w!=null){
+                        copyStartElement(r, w);
+                    }
+                    break;
+                }
+                case XMLStreamReader.END_ELEMENT:
+                    path.remove(path.size()-1);
+                    if(w!=null)w.writeEndElement();
+                    break;
+                default:
+                    if(w!=null)copyEvent(event, r, w);
+            }
+        }
+        if(w!=null)w.writeEndDocument();
+    }
+
+    private void copyStartElement(XMLStreamReader r, XMLStreamWriter w) throws XMLStreamException {
+        if(namespaceAware){
+            w.writeStartElement(nvl(r.getPrefix()), r.getLocalName(), nvl(r.getNamespaceURI()));
+            for(int i=0; i<r.getNamespaceCount(); i++){
+                String prefix = r.getNamespacePrefix(i);
+                if(prefix==null || prefix.length()==0)w.writeDefaultNamespace(nvl(r.getNamespaceURI(i)));
+                else w.writeNamespace(prefix, nvl(r.getNamespaceURI(i)));
+            }
+            for(int i=0; i<r.getAttributeCount(); i++){
+                w.writeAttribute(nvl(r.getAttributePrefix(i)), nvl(r.getAttributeNamespace(i)), r.getAttributeLocalName(i), r.getAttributeValue(i));
+            }
+        }else{
+            w.writeStartElement(path(r.getPrefix(), r.getLocalName()));
+            for(int i=0; i<r.getAttributeCount(); i++){
+                w.writeAttribute(path(r.getAttributePrefix(i), r.getAttributeLocalName(i)), r.getAttributeValue(i));
+            }
+        }
+    }
+
+    private static void copyEvent(int event, XMLStreamReader r, XMLStreamWriter w) throws XMLStreamException {
+        switch (event){
+            case XMLStreamReader.CHARACTERS:
+            case XMLStreamReader.SPACE:
+                w.writeCharacters(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                break;
+            case XMLStreamReader.CDATA:
+                w.writeCData(r.getText());
+                break;
+            case XMLStreamReader.COMMENT:
+                w.writeComment(r.getText());
+                break;
+            case XMLStreamReader.PROCESSING_INSTRUCTION:
+                w.writeProcessingInstruction(r.getPITarget(), r.getPIData());
+                break;
+            case XMLStreamReader.ENTITY_REFERENCE:
+                w.writeEntityRef(r.getLocalName());
+                break;
+            default:
+                //START_DOCUMENT and END_DOCUMENT handled by main loop. DTD is not supported.
+        }
+    }
+
+    private static String nvl(String s){
+        return s==null?"":s;
+    }
+
+    private static String path(String prefix, String local){
+        return prefix==null || prefix.length()==0 ? local : prefix+":"+local;
+    }
+
+    private ElementFilter match(List<String> path){
+        for(ElementFilter f : filters){
+            if(f.matches(path))return f;
+        }
+        return null;
+    }
+
+    /** element path filter: `/a/b/c` absolute path, `//b/c` path at any level, `*` matches any element name */
+    private static class ElementFilter {
+        final String[] steps;
+        final boolean anyLevel;
+        final Closure handler;
+
+        ElementFilter(String xPath, Closure handler){
+            if(xPath==null || !xPath.startsWith("/"))throw new IllegalArgumentException("The element path must start with `/` or `//`: "+xPath);
+            this.anyLevel = xPath.startsWith("//");
+            this.steps = xPath.substring(anyLevel?2:1).split("/");
+            this.handler = handler;
+        }
+
+        boolean matches(List<String> path){
+            int size = path.size();
+            if(anyLevel ? size<steps.length : size!=steps.length)return false;
+            int offset = size - steps.length;
+            for(int i=steps.length-1; i>=0; i--){
+                if(!"*".equals(steps[i]) && !steps[i].equals(path.get(offset+i)))return false;
+            }
+            return true;
+        }
+
+        Object call(Node node, List<String> path){
+            if(handler.getMaximumNumberOfParameters()==1)return handler.call(node);
+            StringBuilder p = new StringBuilder();
+            for(String s : path)p.append('/').append(s);
+            return handler.call(node, p.toString());
+        }
+    }
+
+    public class TransformerDelegateLocal {
+        /**
+         * register element listener for the xml reader. matched element is loaded into memory as {@code groovy.util.Node}
+         * and replaced in output with the value returned by the closure.
+         * @param xPath simple element path. supported syntax:
+         *              `/root/child` - absolute path of element.
+         *              `//child/subchild` - path at any level.
+         *              `*` - any element name in path: `/root/*&#47;child`.
+         * @param c closure that will be triggered when `xPath` matched with one or two params:
+         *              `node` - groovy.util.Node with the content of matched element.
+         *              `path` - the real path of matched element.
+         *              closure must return the node to write or null to remove the element from output.
+         */
+        public void onElement(String xPath, Closure c){
+            filters.add( new ElementFilter(xPath, delegated(c)) );
+        }
+
+        /**
+         * defines event listener thar will be triggered on end-of-file - after all xml events.
+         * @param c closure without parameters.
+         */
+        public void onEOF(Closure c){
+            eventOnEOF = delegated(c);
+        }
+
+        /**
+         * creates xml writer for xml reader. this could be one of returned values in `withXmlReader{ }` closure
+         * @return xml stream writer that writes to output flowfile
+         * @throws XMLStreamException on xml error
+         */
+        public XMLStreamWriter asXmlWriter() throws XMLStreamException {
+            if(contentWriter==null)throw new IllegalStateException("xml writer not yet defined");
+            return XmlUtils.newStreamWriter(contentWriter);
+        }
+    }
+
+}
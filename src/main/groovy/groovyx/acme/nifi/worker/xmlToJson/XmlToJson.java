@@ -0,0 +1,244 @@
+package groovyx.acme.nifi.worker.xmlToJson;
+
+import groovyx.acme.nifi.ControlMap;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.IOUtils;
+import groovyx.acme.nifi.JsonStreamWriter;
+import groovyx.acme.nifi.ParseTransformWriteContext;
+import groovyx.acme.nifi.XmlUtils;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * flow file worker that converts xml to json in one pass: StAX reader events are written directly with json stream writer,
+ * so the document is never loaded into memory.
+ * <ul>
+ * <li>element becomes the object key. the root element is the only key of the top-level object.</li>
+ * <li>element with text only and without attributes becomes string value, empty element without attributes becomes null.</li>
+ * <li>attributes become keys with `attributePrefix`, the text of element with attributes or child elements becomes key `textKey`.</li>
+ * <li>elements listed in `arrays` become json arrays: the sequence of siblings with the same name written as one array.
+ *     the sequence must be contiguous: array elements separated by other siblings fail the conversion,
+ *     because json object can't have the same key twice. the elements not listed in `arrays` must not repeat within the same parent.</li>
+ * </ul>
+ * whitespace-only text is ignored, comments and processing instructions are skipped, element names are written as in document (with prefix).
+ * The worker {@code xmlToJson(opts)} supports the following options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to read/write flow-file (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>attributePrefix</td><td>key prefix for attributes (default=`@`)</td></tr>
+ * <tr class="rowColor"><td>textKey</td><td>key for the text of element with attributes or child elements (default=`#text`)</td></tr>
+ * <tr class="rowColor"><td>arrays</td><td>collection of element names to write as json arrays or `true` for all elements (default=[])</td></tr>
+ * <tr class="rowColor"><td>indent</td><td>true to pretty print the output json (default=false)</td></tr>
+ * </table>
+ *
+ * <pre>{@code
+ * //<orders><order id="1"><item>a</item><item>b</item></order></orders>
+ * withFlowFile(this).xmlToJson(arrays:['order','item'])
+ * //{"orders":{"order":[{"@id":"1","item":["a","b"]}]}}
+ * }</pre>
+ */
+public class XmlToJson extends ParseTransformWriteContext {
+    private String encoding;
+    private String attributePrefix;
+    private String textKey;
+    private Set<String> arrays;
+    private boolean allArrays;
+    private boolean indent;
+
+    //element stack
+    private String[] names;      //element name
+    private String[] arrayNames; //name of the array of child elements that is open in this element
+    private Set<String>[] seen;  //names of child elements already written
+    private boolean[] isObject;  //object started for this element
+    private StringBuilder[] texts;
+    private int depth;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void invoke(Object[] args) {
+        if(args.length==0){
+            invoke(Collections.EMPTY_MAP);
+            return;
+        }else if(args.length==1){
+            if(args[0] instanceof Map){
+                invoke((Map)args[0]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `xmlToJson` method: " + InvokerHelper.toTypeString(args)+". Expected (Map) or ()." );
+    }
+
+    @SuppressWarnings("unchecked")
+    private void invoke(Map<Object,Object> args) {
+        this.encoding = (String)args.getOrDefault("encoding","UTF-8");
+        this.attributePrefix = (String)args.getOrDefault("attributePrefix","@");
+        this.textKey = (String)args.getOrDefault("textKey","#text");
+        this.indent = ((Boolean)args.getOrDefault("indent",Boolean.FALSE)).booleanValue();
+        Object a = args.getOrDefault("arrays", Collections.EMPTY_LIST);
+        this.allArrays = Boolean.TRUE.equals(a);
+        if(a instanceof Collection){
+            this.arrays = new HashSet<>();
+            for(Object o : (Collection<Object>)a)arrays.add(o.toString());
+        }else if(a instanceof CharSequence){
+            this.arrays = new HashSet<>(Arrays.asList(a.toString().split("\\s*,\\s*")));
+        }else{
+            this.arrays = Collections.EMPTY_SET;
+        }
+        this.run();
+    }
+
+    @Override
+    protected boolean processContent(InputStream sin, OutputStream sout, ControlMap attr) throws Exception {
+        try(Reader r = IOUtils.toReader(sin, encoding)){
+            XMLStreamReader xr = XmlUtils.newStreamReader(r, false);
+            try {
+                if(JsonStreamWriter.isAsciiCompatible(encoding)){
+                    convert(xr, new JsonStreamWriter(sout, indent?0:-1));
+                }else{
+                    EncodingWriter w = new EncodingWriter(sout, encoding);
+                    convert(xr, new JsonStreamWriter(w, indent?0:-1));
+                    w.finish();
+                }
+            }finally {
+                xr.close();
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void convert(XMLStreamReader r, JsonStreamWriter w) throws Exception {
+        names = new String[16];
+        arrayNames = new String[16];
+        seen = new Set[16];
+        isObject = new boolean[16];
+        texts = new StringBuilder[16];
+        depth = 0;
+        w.beginObject();
+        while(r.hasNext()){
+            switch (r.next()){
+                case XMLStreamReader.START_ELEMENT:
+                    startElement(r, w);
+                    break;
+                case XMLStreamReader.END_ELEMENT:
+                    endElement(w);
+                    break;
+                case XMLStreamReader.CHARACTERS:
+                case XMLStreamReader.CDATA:
+                case XMLStreamReader.SPACE:
+                case XMLStreamReader.ENTITY_REFERENCE:
+                    if(depth>0)texts[depth-1].append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    break;
+                default:
+                    //ignore comments, processing instructions
+            }
+        }
+        w.end();
+        w.flush();
+        names = arrayNames = null;
+        seen = null;
+        texts = null;
+    }
+
+    private void startElement(XMLStreamReader r, JsonStreamWriter w) throws Exception {
+        String name = name(r.getPrefix(), r.getLocalName());
+        if(depth>0){
+            int p = depth-1;
+            //parent has child elements: it's an object
+            startObject(p, w);
+            if(arrayNames[p]!=null && !arrayNames[p].equals(name)){
+                w.end();
+                arrayNames[p] = null;
+            }
+            if(arrayNames[p]==null){
+                boolean isArray = allArrays || arrays.contains(name);
+                if(seen[p]==null)seen[p] = new HashSet<>();
+                if(!seen[p].add(name)){
+                    if(isArray)throw new XMLStreamException("Elements `"+name+"` in `"+names[p]+"` are separated by other elements and can't be written as one json array.", r.getLocation());
+                    throw new XMLStreamException("Element `"+name+"` repeated in `"+names[p]+"`. Add it to `arrays` option of `xmlToJson`.", r.getLocation());
+                }
+                w.name(name);
+                if(isArray){
+                    w.beginArray();
+                    arrayNames[p] = name;
+                }
+            }
+        }else{
+            w.name(name);
+        }
+        push(name);
+        int count = r.getAttributeCount();
+        if(count>0){
+            startObject(depth-1, w);
+            for(int i=0; i<count; i++){
+                w.name(attributePrefix+name(r.getAttributePrefix(i), r.getAttributeLocalName(i)));
+                w.value(r.getAttributeValue(i));
+            }
+        }
+    }
+
+    private void endElement(JsonStreamWriter w) throws Exception {
+        int top = depth-1;
+        StringBuilder text = texts[top];
+        boolean hasText = !isBlank(text);
+        if(isObject[top]){
+            if(arrayNames[top]!=null)w.end();
+            if(hasText){
+                w.name(textKey);
+                w.value(text.toString());
+            }
+            w.end();
+        }else{
+            w.value(hasText ? text.toString() : null);
+        }
+        text.setLength(0);
+        depth--;
+    }
+
+    /** starts json object for the element if not yet started. the text collected before goes into `textKey` at the end of element. */
+    private void startObject(int i, JsonStreamWriter w) throws IOException {
+        if(!isObject[i]){
+            w.beginObject();
+            isObject[i] = true;
+        }
+    }
+
+    private void push(String name){
+        if(depth==names.length){
+            int n = depth*2;
+            names = Arrays.copyOf(names, n);
+            arrayNames = Arrays.copyOf(arrayNames, n);
+            seen = Arrays.copyOf(seen, n);
+            isObject = Arrays.copyOf(isObject, n);
+            texts = Arrays.copyOf(texts, n);
+        }
+        names[depth] = name;
+        arrayNames[depth] = null;
+        if(seen[depth]!=null)seen[depth].clear();
+        isObject[depth] = false;
+        if(texts[depth]==null)texts[depth] = new StringBuilder();
+        depth++;
+    }
+
+    private static boolean isBlank(CharSequence s){
+        for(int i=0; i<s.length(); i++){
+            if(!Character.isWhitespace(s.charAt(i)))return false;
+        }
+        return true;
+    }
+
+    private static String name(String prefix, String local){
+        return prefix==null || prefix.length()==0 ? local : prefix+":"+local;
+    }
+}
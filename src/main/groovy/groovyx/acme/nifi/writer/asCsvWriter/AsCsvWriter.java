@@ -0,0 +1,131 @@
+package groovyx.acme.nifi.writer.asCsvWriter;
+
+import groovyx.acme.nifi.CsvStreamReader;
+import groovyx.acme.nifi.CsvStreamWriter;
+import groovyx.acme.nifi.StreamWritable;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * writer that streams rows as csv. as the result of `withCsvReader` it writes the rows returned by `onRow`,
+ * in other workers it writes the rows from `rows` option:
+ * <pre>{@code
+ * withFlowFile(this).withJson{json->
+ *     asCsvWriter(rows: json.data, columns:['id','txt'], separator:';')
+ * }
+ * }</pre>
+ * {@code asCsvWriter(...)} options:
+ * <table summary="">
+ * <tr class="rowColor"><td>encoding</td><td>encoding to use to write flow-file out stream (default=UTF-8, in `withCsvReader` the input encoding)</td></tr>
+ * <tr class="rowColor"><td>rows</td><td>Iterable or Iterator of rows to write. each row is a Map, List, or array. not used by `withCsvReader`.</td></tr>
+ * <tr class="rowColor"><td>columns</td><td>list of column names to write from Map rows. by default the header of `withCsvReader` input or the keys of the first row</td></tr>
+ * <tr class="rowColor"><td>header</td><td>true to write the header line with column names (default=true)</td></tr>
+ * <tr class="rowColor"><td>separator</td><td>field separator (default=`,`)</td></tr>
+ * <tr class="rowColor"><td>quote</td><td>quote char (default=`"`)</td></tr>
+ * <tr class="rowColor"><td>lineSeparator</td><td>line separator (default=`\n`)</td></tr>
+ * </table>
+ */
+public class AsCsvWriter extends StreamWritable {
+    private String encodingOption;
+    private Object rows;
+    private List<String> columns;
+    private boolean header;
+    private char separator;
+    private char quote;
+    private String lineSeparator;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(Object[] args) {
+        if(args.length==0){
+            init(Collections.<Object,Object>emptyMap());
+            return;
+        }else if(args.length==1){
+            if(args[0] instanceof Map){
+                init((Map<Object,Object>)args[0]);
+                return;
+            }
+        }
+        throw new IllegalArgumentException( "Unsupported arguments for `asCsvWriter` method: " + InvokerHelper.toTypeString(args)+". Expected (Map) or ()." );
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init(Map<Object,Object> opts){
+        this.encodingOption= (String)opts.get("encoding");
+        this.encoding      = encodingOption!=null ? encodingOption : "UTF-8";
+        this.rows          = opts.get("rows");
+        this.header        = ((Boolean)opts.getOrDefault("header", Boolean.TRUE)).booleanValue();
+        this.separator     = CsvStreamReader.toChar(opts.getOrDefault("separator", ","), "separator");
+        this.quote         = CsvStreamReader.toChar(opts.getOrDefault("quote", "\""), "quote");
+        this.lineSeparator = (String)opts.getOrDefault("lineSeparator", "\n");
+        Object c = opts.get("columns");
+        if(c!=null){
+            this.columns = new ArrayList<>();
+            for(Object o : (Iterable<Object>)c)columns.add(o.toString());
+        }
+    }
+
+    /**
+     * @param defaultEncoding encoding to use if `encoding` option not defined
+     * @return output encoding
+     */
+    public String getEncoding(String defaultEncoding){
+        return encodingOption!=null ? encodingOption : defaultEncoding;
+    }
+
+    /**
+     * @param out where to write
+     * @return new csv writer with options of this writer
+     */
+    public CsvStreamWriter newWriter(Writer out){
+        return new CsvStreamWriter(out, separator, quote, lineSeparator);
+    }
+
+    /**
+     * writes the header line if required. used by workers that stream rows through this writer.
+     * @param out where to write
+     * @param defaultColumns column names used if `columns` option not defined, could be null
+     * @return column names to use to write Map rows, could be null
+     * @throws IOException on io error
+     */
+    public List<String> writeHeader(Writer out, List<String> defaultColumns) throws IOException {
+        List<String> c = columns!=null ? columns : defaultColumns;
+        if(header && c!=null)newWriter(out).writeRow(c, null);
+        return c;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Writer writeTo(Writer out) throws IOException {
+        Iterator<Object> i;
+        if(rows==null)i = Collections.emptyIterator();
+        else if(rows instanceof Iterator)i = (Iterator<Object>)rows;
+        else if(rows instanceof Iterable)i = ((Iterable<Object>)rows).iterator();
+        else throw new IllegalArgumentException("Unsupported `rows` type: "+rows.getClass()+". Expected: Iterable, Iterator");
+
+        CsvStreamWriter w = newWriter(out);
+        List<String> c = columns;
+        boolean first = true;
+        while(i.hasNext()){
+            Object row = i.next();
+            if(first){
+                if(c==null && row instanceof Map){
+                    c = new ArrayList<>();
+                    for(Object k : ((Map<Object,Object>)row).keySet())c.add(String.valueOf(k));
+                }
+                if(header && c!=null)w.writeRow(c, null);
+                first = false;
+            }
+            w.writeRow(row, c);
+        }
+        if(first && header && c!=null)w.writeRow(c, null);
+        return out;
+    }
+}
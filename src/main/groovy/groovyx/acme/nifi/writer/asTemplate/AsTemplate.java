@@ -1,15 +1,21 @@
 package groovyx.acme.nifi.writer.asTemplate;
 
+import groovy.lang.Closure;
+import groovy.lang.Writable;
 import groovy.text.Template;
+import groovyx.acme.nifi.EncodingWriter;
+import groovyx.acme.nifi.JsonUtils;
 import groovyx.acme.nifi.StreamWritable;
-import groovyx.acme.text.AcmeTemplateEngine;
-import org.apache.nifi.components.PropertyValue;
 import org.codehaus.groovy.runtime.InvokerHelper;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.util.AbstractMap;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
 
 /**
  * helper to create alternate serializer based on GSP-like template.
@@ -17,13 +23,19 @@ import java.util.WeakHashMap;
  * {@code asTemplate(...)} options:
  * <table summary="">
  * <tr class="rowColor"><td>encoding</td><td>encoding to use to write flow-file out stream (default=UTF-8)</td></tr>
- * <tr class="rowColor"><td>template</td><td>mandatory parameter that defines a template. could be a string or the parameter of current processor, or any standard groovy templates</td></tr>
+ * <tr class="rowColor"><td>template</td><td>mandatory parameter (if `file` not defined) that defines a template. could be a string or the parameter of current processor, or any standard groovy templates</td></tr>
+ * <tr class="rowColor"><td>file</td><td>path to template file. the compiled template is cached and recompiled only when the file modified (see {@code TemplateRepository})</td></tr>
  * <tr class="rowColor"><td>mode</td><td>template processing mode: <ul>
  *     <li> {@code '%'} - JSP like template that supports {@code <% ... %>} code injection and {@code <%= ... %>} value injection </li>
  *     <li> {@code '$'} - GroovyString like template  that supports {@code ${...}} value injections </li>
  *     <li> {@code '&'} - mode that supports both modes above </li>
  *     </ul></td></tr>
  * </table>
+ * compiled templates are shared through {@code TemplateCache}.
+ * the template is rendered directly into flowfile stream through {@code EncodingWriter}, so the output is never held in memory as a string.
+ * the binding gets helper {@code asJson(value[, indent])} that streams maps and lists as json without building intermediate strings:
+ * <pre>{@code return asTemplate(binding: [data:json.data], template:'{"count":<%= data.size() %>, "items":<%= asJson(data) %>}' )}</pre>
+ * the binding is not copied for each render: template reads it directly and variables assigned by the template are set into it.
  * */
 
 public class AsTemplate extends StreamWritable {
@@ -44,48 +56,113 @@ public class AsTemplate extends StreamWritable {
     }
 
     /**
-     * initialize StreamWritable as a template. valid options: template, encoding, binding, mode.
+     * initialize StreamWritable as a template. valid options: template, file, encoding, binding, mode.
      * @param opts
      */
     private void init(Map<Object,Object> opts){
         this.encoding   = (String)opts.getOrDefault("encoding", "UTF-8");
         this.binding    = (Map) opts.get("binding");
         Object template = opts.get("template");
+        Object file = opts.get("file");
 
-        if(template instanceof Template){
+        if(template==null && file!=null){
+            String mode = (String)opts.getOrDefault("mode", "%");
+            this.template = TemplateRepository.FILES.get(file.toString(), mode);
+        }else if(template instanceof Template){
             this.template = (Template)template;
         }else{
             String mode = (String)opts.getOrDefault("mode", "%");  //%, $, &
-            if(template instanceof String){
-            }else if(template instanceof CharSequence) {
-                template = template.toString();
-            }if(template instanceof PropertyValue){
-                template = ((PropertyValue)template).getValue() ;
-            }else throw new IllegalArgumentException("Unsupported template type: "+(template==null?"null":template.getClass())+". Expected: String, NiFi-Property");
-            this.template = get(mode, (String)template);
+            this.template = TemplateCache.precompile(mode, template);
         }
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     protected Writer writeTo(Writer out) throws IOException {
-        template.make(this.binding).writeTo(out);
+        template.make(new HelperBinding(binding==null ? new HashMap() : binding)).writeTo(out);
+        return out;
+    }
+
+    @Override
+    public OutputStream streamTo(OutputStream out) throws IOException {
+        EncodingWriter w = new EncodingWriter(out, encoding);
+        writeTo(w);
+        w.finish();
         return out;
     }
 
-    //assume that the same template normally processed with the same mode as previously
-    private static WeakHashMap<String, Template> cache = new WeakHashMap<>();
+    /** `asJson(value[, indent])` template helper: json writable that streams the value into template output */
+    private static final Closure<Writable> AS_JSON = new Closure<Writable>(null) {
+        public Writable doCall(Object value){
+            return doCall(value, false);
+        }
+        public Writable doCall(final Object value, final boolean indent){
+            return new Writable() {
+                @Override
+                public Writer writeTo(Writer out) throws IOException {
+                    JsonUtils.writeJson(value, out, indent?0:-1);
+                    return out;
+                }
+                @Override
+                public String toString() {
+                    StringWriter w = new StringWriter();
+                    try {
+                        writeTo(w);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e.toString(), e);
+                    }
+                    return w.toString();
+                }
+            };
+        }
+    };
+
+    /**
+     * read-through view of the caller binding with template helpers on top of it.
+     * the binding is not copied per render and variables assigned by the template are written into the caller binding.
+     * helpers and the template `out` writer are visible through get/containsKey only; a caller variable with the same name hides the helper.
+     */
+    private static final class HelperBinding extends AbstractMap<Object,Object> {
+        private final Map<Object,Object> binding;
+        //the template engine sets its output writer into binding; keep it out of the caller map
+        private Object out;
+
+        HelperBinding(Map<Object,Object> binding){
+            this.binding = binding;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if("out".equals(key))return out;
+            Object v = binding.get(key);
+            if(v==null && "asJson".equals(key) && !binding.containsKey(key))return AS_JSON;
+            return v;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return binding.containsKey(key) || "asJson".equals(key) || ("out".equals(key) && out!=null);
+        }
 
-    private static Template get(String mode, String template){
-        Template t = cache.get(template);
-        if(t==null){
-            try {
-                t = new AcmeTemplateEngine().setMode(mode).createTemplate(template);
-            } catch (Exception e) {
-                throw new RuntimeException(e.toString(),e);
+        @Override
+        public Object put(Object key, Object value) {
+            if("out".equals(key)){
+                Object prev = out;
+                out = value;
+                return prev;
             }
-            cache.put(template, t);
+            return binding.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return binding.remove(key);
+        }
+
+        @Override
+        public Set<Entry<Object,Object>> entrySet() {
+            return binding.entrySet();
         }
-        return t;
     }
 
 }
@@ -0,0 +1,188 @@
+package groovyx.acme.nifi.writer.asTemplate;
+
+import groovy.text.Template;
+import groovyx.acme.text.AcmeTemplateEngine;
+import org.apache.nifi.components.PropertyValue;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * process-wide cache of compiled templates used by {@code asTemplate(...)}.
+ * the cache is keyed by (mode, template text), bounded by the number of templates and by the total length of template texts,
+ * and evicts the least recently used templates. when several threads request the same missing template it's compiled only once.
+ * <p>to compile templates when processor started (ExecuteGroovyScript):</p>
+ * <pre>{@code
+ *     import groovyx.acme.nifi.writer.asTemplate.TemplateCache
+ *     def onStart(context){
+ *         TemplateCache.precompile('%', context.getProperty('MY_TEMPLATE'))
+ *     }
+ * }</pre>
+ */
+public final class TemplateCache {
+    //no need to instantiate
+    private TemplateCache(){}
+
+    /** cache key: mode + template text with precomputed hash */
+    private static final class Key {
+        final String mode;
+        final String text;
+        final int hash;
+
+        Key(String mode, String text){
+            this.mode = mode;
+            this.text = text;
+            this.hash = 31*mode.hashCode() + text.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this==o)return true;
+            if(!(o instanceof Key))return false;
+            Key k = (Key)o;
+            return hash==k.hash && mode.equals(k.mode) && text.equals(k.text);
+        }
+    }
+
+    private static int maxEntries = 256;
+    private static long maxWeight = 16L*1024*1024;
+    private static long weight = 0;
+    //access ordered map guarded by `lock`. values are completed or in-progress compilations.
+    private static final LinkedHashMap<Key,Future<Template>> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private static final Object lock = new Object();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong compileNanos = new AtomicLong();
+
+    /**
+     * returns compiled template from cache or compiles and caches it
+     * @param mode template mode: `%`, `$`, or `&amp;`
+     * @param text template text
+     * @return compiled template
+     */
+    public static Template get(String mode, String text){
+        final Key key = new Key(mode, text);
+        Future<Template> f;
+        FutureTask<Template> task = null;
+        synchronized (lock){
+            f = cache.get(key);
+            if(f==null){
+                task = new FutureTask<>(new Callable<Template>() {
+                    @Override
+                    public Template call() throws Exception {
+                        long start = System.nanoTime();
+                        try {
+                            return new AcmeTemplateEngine().setMode(key.mode).createTemplate(key.text);
+                        }finally {
+                            compileNanos.addAndGet(System.nanoTime()-start);
+                        }
+                    }
+                });
+                f = task;
+                cache.put(key, task);
+                weight += text.length();
+                evict();
+            }
+        }
+        if(task!=null){
+            misses.incrementAndGet();
+            //compile outside of the lock. other threads asking for the same template wait for this task.
+            task.run();
+        }else{
+            hits.incrementAndGet();
+        }
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e.toString(), e);
+        } catch (ExecutionException e) {
+            //don't keep failed compilation in cache
+            synchronized (lock){
+                if(cache.get(key)==f){
+                    cache.remove(key);
+                    weight -= text.length();
+                }
+            }
+            Throwable t = e.getCause();
+            if(t instanceof RuntimeException)throw (RuntimeException)t;
+            throw new RuntimeException(t.toString(), t);
+        }
+    }
+
+    /**
+     * compiles and caches template in advance. for example when processor started.
+     * @param mode template mode: `%`, `$`, or `&amp;`
+     * @param template template text as String or processor property
+     * @return compiled template
+     */
+    public static Template precompile(String mode, Object template){
+        if(template instanceof PropertyValue)template = ((PropertyValue)template).getValue();
+        if(!(template instanceof CharSequence))throw new IllegalArgumentException("Unsupported template type: "+(template==null?"null":template.getClass())+". Expected: String, NiFi-Property");
+        return get(mode, template.toString());
+    }
+
+    /**
+     * sets the cache limits. exceeding templates evicted immediately.
+     * @param maxEntries max number of compiled templates (default=256)
+     * @param maxWeight max total length of templates texts in chars (default=16M)
+     */
+    public static void setLimits(int maxEntries, long maxWeight){
+        if(maxEntries<1 || maxWeight<1)throw new IllegalArgumentException("The cache limits must be positive: "+maxEntries+", "+maxWeight);
+        synchronized (lock){
+            TemplateCache.maxEntries = maxEntries;
+            TemplateCache.maxWeight = maxWeight;
+            evict();
+        }
+    }
+
+    /**
+     * removes all templates from cache
+     */
+    public static void clear(){
+        synchronized (lock){
+            cache.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * @return cache statistics: `size`, `weight`, `hits`, `misses`, `evictions`, `compileMillis`
+     */
+    public static Map<String,Long> getStats(){
+        Map<String,Long> stats = new LinkedHashMap<>();
+        synchronized (lock){
+            stats.put("size", (long)cache.size());
+            stats.put("weight", weight);
+        }
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("compileMillis", compileNanos.get()/1000000);
+        return stats;
+    }
+
+    //must be called under lock. keeps at least the most recent template even if it exceeds the weight.
+    private static void evict(){
+        Iterator<Map.Entry<Key,Future<Template>>> i = cache.entrySet().iterator();
+        while( cache.size()>1 && (cache.size()>maxEntries || weight>maxWeight) ){
+            Key k = i.next().getKey();
+            i.remove();
+            weight -= k.text.length();
+            evictions.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package groovyx.acme.nifi.writer.asTemplate;
+
+import groovy.text.Template;
+import groovyx.acme.text.AcmeTemplateEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * file-backed templates. compiled template is cached per file and recompiled only when the file modification time or size changed.
+ * the file check itself is done not more often then `checkInterval` milliseconds, so in most cases getting a template costs one map lookup.
+ * like {@code TemplateCache} the repository is bounded by the number of templates and by the total size of template files,
+ * and evicts the least recently used templates.
+ * <pre>{@code
+ *     import groovyx.acme.nifi.writer.asTemplate.TemplateRepository
+ *     @groovy.transform.Field static repo = new TemplateRepository(dir:'/opt/nifi/templates', mode:'%')
+ *
+ *     withFlowFile(this).withJson{json->
+ *         asTemplate(template: repo.get('order.tpl'), binding:[order:json])
+ *     }
+ * }</pre>
+ * repository options:
+ * <table summary="">
+ * <tr class="rowColor"><td>dir</td><td>base directory of templates. template names must be relative to this directory and can't point outside of it.
+ *     if not defined the names are used as file paths as is.</td></tr>
+ * <tr class="rowColor"><td>mode</td><td>default template mode: `%`, `$`, or `&amp;` (default=%) see {@code asTemplate}</td></tr>
+ * <tr class="rowColor"><td>encoding</td><td>encoding of template files (default=UTF-8)</td></tr>
+ * <tr class="rowColor"><td>checkInterval</td><td>min interval in milliseconds between checks of file modification (default=2000)</td></tr>
+ * <tr class="rowColor"><td>maxEntries</td><td>max number of compiled templates (default=256)</td></tr>
+ * <tr class="rowColor"><td>maxWeight</td><td>max total size of template files in bytes (default=16M)</td></tr>
+ * </table>
+ */
+public class TemplateRepository {
+    /** repository without base directory used by {@code asTemplate(file:...)} */
+    static final TemplateRepository FILES = new TemplateRepository(Collections.<String,Object>emptyMap());
+
+    private final File dir;
+    private final String mode;
+    private final Charset charset;
+    private final long checkInterval;
+    private final int maxEntries;
+    private final long maxWeight;
+    private long weight = 0;
+    //access ordered map guarded by itself. the entry size is its weight.
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    /** compiled template of one file */
+    private static final class Entry {
+        volatile Template template;
+        volatile long checked;
+        long modified;
+        long size;
+        File file;
+    }
+
+    /**
+     * @param dir base directory of templates
+     */
+    public TemplateRepository(String dir){
+        this(Collections.<String,Object>singletonMap("dir", dir));
+    }
+
+    /**
+     * @param opts repository options: dir, mode, encoding, checkInterval, maxEntries, maxWeight
+     */
+    public TemplateRepository(Map<String,Object> opts){
+        Object d = opts.get("dir");
+        try {
+            this.dir = d==null ? null : (d instanceof File ? (File)d : new File(d.toString())).getCanonicalFile();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid template directory: "+d, e);
+        }
+        if(dir!=null && !dir.isDirectory())throw new IllegalArgumentException("Template directory not found: "+dir);
+        this.mode = (String)opts.getOrDefault("mode", "%");
+        this.charset = Charset.forName((String)opts.getOrDefault("encoding", "UTF-8"));
+        this.checkInterval = ((Number)opts.getOrDefault("checkInterval", 2000L)).longValue();
+        this.maxEntries = ((Number)opts.getOrDefault("maxEntries", 256)).intValue();
+        this.maxWeight = ((Number)opts.getOrDefault("maxWeight", 16L*1024*1024)).longValue();
+        if(maxEntries<1 || maxWeight<1)throw new IllegalArgumentException("The repository limits must be positive: "+maxEntries+", "+maxWeight);
+    }
+
+    /**
+     * @param name template file name
+     * @return compiled template with the repository default mode
+     */
+    public Template get(String name){
+        return get(name, mode);
+    }
+
+    /**
+     * returns compiled template. the template is (re)compiled if file was not loaded yet or modified.
+     * @param name template file name
+     * @param mode template mode: `%`, `$`, or `&amp;`
+     * @return compiled template
+     */
+    public Template get(String name, String mode){
+        String key = mode + '\0' + name;
+        Entry e;
+        synchronized (entries){
+            e = entries.get(key);
+            if(e==null){
+                e = new Entry();
+                entries.put(key, e);
+                evict();
+            }
+        }
+        long now = System.currentTimeMillis();
+        Template t = e.template;
+        if(t!=null && now-e.checked<checkInterval)return t;
+        synchronized (e){
+            //another thread could reload the template while we were waiting
+            if(e.template!=null && now-e.checked<checkInterval)return e.template;
+            if(e.file==null)e.file = resolve(name);
+            long modified = e.file.lastModified();
+            long size = e.file.length();
+            if(modified==0L && !e.file.isFile())throw new IllegalArgumentException("Template file not found: "+e.file);
+            if(e.template==null || modified!=e.modified || size!=e.size){
+                e.template = compile(e.file, mode);
+                e.modified = modified;
+                synchronized (entries){
+                    //the entry could be evicted while compiling
+                    if(entries.get(key)==e)weight += size - e.size;
+                    e.size = size;
+                    evict();
+                }
+            }
+            e.checked = System.currentTimeMillis();
+            return e.template;
+        }
+    }
+
+    /**
+     * removes all compiled templates
+     */
+    public void clear(){
+        synchronized (entries){
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    //must be called under entries lock. keeps at least the most recent template even if it exceeds the weight.
+    private void evict(){
+        Iterator<Entry> i = entries.values().iterator();
+        while( entries.size()>1 && (entries.size()>maxEntries || weight>maxWeight) ){
+            Entry e = i.next();
+            i.remove();
+            weight -= e.size;
+        }
+    }
+
+    private File resolve(String name){
+        if(dir==null)return new File(name);
+        try {
+            File f = new File(dir, name).getCanonicalFile();
+            if(!f.getPath().startsWith(dir.getPath()+File.separator))throw new IllegalArgumentException("Template file outside of repository directory: "+name);
+            return f;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid template file name: "+name, e);
+        }
+    }
+
+    private Template compile(File f, String mode){
+        try(Reader r = Files.newBufferedReader(f.toPath(), charset)){
+            return new AcmeTemplateEngine().setMode(mode).createTemplate(r);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compile template "+f+": "+e.toString(), e);
+        }
+    }
+}
@@ -102,7 +102,7 @@ class AcmeNiFiScriptsTest extends GroovyTestCase {
                 results.eachWithIndex{ key,attrDef, int i ->
                     Properties attributes = new ConfigSlurper().parse(attrDef).toProperties()
                     attributes.each {k,v->
-                        success.get(0).assertAttributeEquals((String)k, (String)v)
+                        success.get(i).assertAttributeEquals((String)k, (String)v)
                     }
                 }
             }
@@ -19,7 +19,15 @@
 package groovyx.acme.nifi
 
 import groovy.json.JsonOutput
+import groovy.json.JsonParserType
 import groovy.json.JsonSlurper
+import groovyx.acme.nifi.writer.asTemplate.TemplateCache
+import groovyx.acme.nifi.writer.asTemplate.TemplateRepository
+import java.util.concurrent.Executors
+import java.util.zip.GZIPOutputStream
+import org.apache.nifi.processors.groovyx.ExecuteGroovyScript
+import org.apache.nifi.util.TestRunner
+import org.apache.nifi.util.TestRunners
 
 class AcmeNiFiTest extends GroovyTestCase {
 	public void testJson(){
@@ -30,6 +38,986 @@ class AcmeNiFiTest extends GroovyTestCase {
         JsonUtils.writeJson(o,w,-1)
         assert w.toString()==JsonOutput.toJson(o)
 	}
+
+    public void testJsonEscapeAndTypes(){
+        def o = [
+            s: (0..300).collect{ (char)it }.join('') + "\u0436\ud83d\ude00",
+            n: [1, -1L, Long.MIN_VALUE, Long.MAX_VALUE, (short)7, (byte)-8, 1.5f, 2.5d, 1e20d, new BigDecimal("1.50"), new BigInteger("12345678901234567890")],
+            b: [true, false, null],
+            d: new Date(0),
+            e: [:], a: []
+        ]
+        def w = new StringWriter()
+        JsonUtils.writeJson(o,w,-1)
+        assert w.toString()==JsonOutput.toJson(o)
+        def b = new ByteArrayOutputStream()
+        JsonUtils.writeJson(o,b,-1)
+        assert b.toString("UTF-8")==w.toString()
+        shouldFail(groovy.json.JsonException){ JsonUtils.writeJson([Double.NaN],new StringWriter(),-1) }
+    }
+
+    public void testJsonParserType(){
+        assert FlowFileWorker.jsonParserType(false, 'auto', 100, 99) == JsonParserType.CHAR_BUFFER
+        assert FlowFileWorker.jsonParserType(false, 'auto', 100, 100) == JsonParserType.CHARACTER_SOURCE
+        assert FlowFileWorker.jsonParserType(false, 'index_overlay', 100, 100) == JsonParserType.INDEX_OVERLAY
+        assert FlowFileWorker.jsonParserType(true, 'INDEX_OVERLAY', 100, 100) == JsonParserType.LAX
+        shouldFail(IllegalArgumentException){ FlowFileWorker.jsonParserType(false, 'fast', 100, 100) }
+
+        def source = '{"id":123, "txt":"carpe vinum", "tags":["a","b"]}'
+        //default size threshold, small threshold crossed by the content, and each parser type
+        [ [:], [largeSize:10], [parser:'CHAR_BUFFER'], [parser:'CHARACTER_SOURCE'], [parser:'INDEX_OVERLAY'], [parser:'LAX'], [relax:true] ].each{opts->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).withJson(${opts.inspect()}){json,attr->
+                    attr.type = json.getClass().getSimpleName()
+                    return [id:json.id, txt:json.txt.toUpperCase(), tags:json.tags]
+                }
+            """, [opts.parser=='LAX' ? "{id:123, txt:'carpe vinum', tags:[a,b]}" : source])
+            def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+            assert new String(f.toByteArray(), "UTF-8") == '{"id":123,"txt":"CARPE VINUM","tags":["a","b"]}' : opts
+            //index overlay and lax parsers materialize values on access
+            boolean overlay = opts.parser in ['INDEX_OVERLAY', 'LAX'] || opts.relax
+            assert f.getAttribute('type') == (overlay ? 'LazyValueMap' : 'LazyMap') : opts
+        }
+    }
+
+    public void testJsonIndent(){
+        def deep = [z:1]
+        ('a'..'y').each{ deep = [(it):[deep]] }
+        def o = [a:[b:[1,[],[:],[c:[2,3]]]], d:"e", f:deep]
+        [-1,0,2].each{indent->
+            def w = new StringWriter()
+            JsonUtils.writeJson(o,w,indent)
+            assert w.toString()==legacyWriteJson(o,indent)
+        }
+        def w = new StringWriter()
+        JsonUtils.writeJson([a:[1],b:[:]],w,0)
+        assert w.toString()=='{\n  "a":[\n    1\n  ],\n  "b":{}\n}'
+    }
+
+    public void testJsonStream(){
+        def o = [a:[b:[1,[],[:],[c:[2,-3.5e2,true,null]]]], d:"e \"\u0436\ud83d\ude00\n/", f:12345678901, g:-1234567890123456789, h:[[[]]]]
+        String json = JsonOutput.toJson(o)
+        //read tokens and write them back with writer events
+        [-1,0].each{indent->
+            def r = new JsonStreamReader(new StringReader(indent==-1 ? json : JsonOutput.prettyPrint(json)))
+            def w = new StringWriter()
+            def jw = new JsonStreamWriter(w, indent)
+            for(int t = r.next(); t!=JsonStreamReader.END_DOCUMENT; t = r.next()){
+                switch(t){
+                    case JsonStreamReader.START_OBJECT: jw.beginObject(); break
+                    case JsonStreamReader.START_ARRAY: jw.beginArray(); break
+                    case JsonStreamReader.END_OBJECT: case JsonStreamReader.END_ARRAY: jw.end(); break
+                    case JsonStreamReader.NAME: jw.name(r.getText()); break
+                    default: jw.value(r.getValue())
+                }
+            }
+            jw.flush()
+            def expected = new StringWriter()
+            JsonUtils.writeJson(new JsonSlurper().parseText(json), expected, indent)
+            assert w.toString()==expected.toString()
+        }
+        //long strings cross the buffer boundary
+        String s = (1..5000).collect{ "\\u0436$it\\\"" }.join('')
+        def r = new JsonStreamReader(new StringReader('["'+s+'"]'))
+        assert r.next()==JsonStreamReader.START_ARRAY && r.next()==JsonStreamReader.STRING
+        assert r.getValue()==new JsonSlurper().parseText('["'+s+'"]')[0]
+        ['', '{', '[1,]', '{"a" 1}', '{"a":1,}', '[01]', '[1.]', '[tru]', '["a\\x"]', '[1] 2', '{"a":[}', '[-]', '["\n"]'].each{bad->
+            shouldFail(groovy.json.JsonException){
+                def br = new JsonStreamReader(new StringReader(bad))
+                while(br.next()!=JsonStreamReader.END_DOCUMENT){}
+            }
+        }
+        //writer events in wrong order
+        shouldFail(IllegalStateException){ new JsonStreamWriter(new StringWriter(), -1).beginObject().value(1) }
+        shouldFail(IllegalStateException){ new JsonStreamWriter(new StringWriter(), -1).beginArray().name("a") }
+        shouldFail(IllegalStateException){ new JsonStreamWriter(new StringWriter(), -1).end() }
+    }
+
+    public void testCsvStream(){
+        def read = { String s, char sep=',' as char ->
+            def r = new CsvStreamReader(new StringReader(s), sep, '"' as char)
+            def rows = []
+            while(r.next())rows << r.getValues()
+            rows
+        }
+        assert read('a,b\r\n1,"x, ""y"""\n\n"multi\r\nline",\n,') == [['a','b'], ['1','x, "y"'], ['multi\r\nline',''], ['','']]
+        assert read('\uFEFFa;b', ';' as char) == [['a','b']]
+        assert read('') == []
+        shouldFail(IOException){ read('"a"b') }
+        shouldFail(IOException){ read('"a,b') }
+
+        //random round trip through writer and reader with a buffer boundary inside fields
+        def rnd = new Random(1)
+        def chars = ['a','b',',','"','\n','\r',' ','\u0436']
+        def rows = (1..500).collect{
+            (1..(rnd.nextInt(5)+1)).collect{ (1..rnd.nextInt(2000)).collect{ chars[rnd.nextInt(chars.size())] }.join() }
+        }
+        rows = rows.findAll{ it!=[''] } //empty line is skipped by reader
+        def sw = new StringWriter()
+        def w = new CsvStreamWriter(sw, ',' as char, '"' as char, '\r\n')
+        rows.each{ w.writeRow(it, null) }
+        w.flush()
+        assert read(sw.toString()) == rows
+
+        //row view
+        def r = new CsvStreamReader(new StringReader('1,x,extra\n2,y'), ',' as char, '"' as char)
+        def cols = ['id','txt']
+        def index = CsvRow.index(cols)
+        assert r.next()
+        def row = new CsvRow(r, cols, index)
+        assert row.id == '1' && row[1] == 'x' && row[2] == 'extra' && row.zzz == null
+        row.txt = 'X'
+        row.added = 5
+        assert row == [id:'1', txt:'X', added:5]
+        def copy = row.toMap()
+        def untouched = new CsvRow(r, cols, index)
+        assert r.next()
+        assert row.txt == 'X' //modified and accessed values are kept
+        shouldFail(IllegalStateException){ untouched.txt }
+        assert copy == [id:'1', txt:'X', added:5]
+        assert new CsvRow(r, null, null) == ['0':'2', '1':'y']
+
+        //header and row chunks of parallel worker are one text: one byte order mark
+        String csv = 'id,txt\n' + (1..20).collect{ "$it,\u0436$it\n" }.join('')
+        ['UTF-16', 'windows-1251'].each{enc->
+            [1, 3].each{parallel->
+                def runner = runScript("""
+                    import static groovyx.acme.nifi.AcmeNiFi.*
+                    withFlowFile(this).withCsvReader(encoding:'$enc', parallel:$parallel, chunkSize:3){
+                        onRow{row-> row.id in ['1','2','3'] ? null : row }
+                        return asCsvWriter()
+                    }
+                """, [csv.getBytes(enc)])
+                def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+                def expected = csv.readLines().findAll{ !(it.split(',')[0] in ['1','2','3']) }.collect{ it + '\n' }.join('')
+                assert f.toByteArray() == expected.getBytes(enc) : "$enc $parallel"
+            }
+        }
+        //output encoding of asCsvWriter, line breaks inside quoted fields are kept as is
+        csv = 'id,txt\r\n1,"a\r\nb"\r\n2,"c\nd"\n3,"e\rf"\r4,\u0436\n'
+        [1, 3].each{parallel->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).withCsvReader(encoding:'windows-1251', parallel:$parallel, chunkSize:1){
+                    return asCsvWriter(encoding:'UTF-16', lineSeparator:'\\r\\n')
+                }
+            """, [csv.getBytes('windows-1251')])
+            def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+            assert f.toByteArray() == 'id,txt\r\n1,"a\r\nb"\r\n2,"c\nd"\r\n3,"e\rf"\r\n4,\u0436\r\n'.getBytes('UTF-16') : "$parallel"
+        }
+    }
+
+    public void testControlMap(){
+        def base = [a:'1', b:'2', c:'3']
+        def m = new ControlMap(base)
+        assert m == base
+        assert m.getModifiedKeys().isEmpty() && m.getRemovedKeys().isEmpty()
+        m.b = 22
+        m.d = 'x'
+        m.remove('c')
+        m.remove('zzz')
+        assert m == [a:'1', b:22, d:'x']
+        assert m.size() == 3
+        assert m.getModifiedKeys() == ['b','d'] as Set
+        assert m.getRemovedKeys() == ['c'] as Set
+        m.c = 'back'
+        m.d = null
+        assert m == [a:'1', b:22, c:'back']
+        assert m.getRemovedKeys().isEmpty()
+        m.entrySet().removeAll{ it.key=='a' }
+        m.each{ if(it.key=='b')it.value = 23 }
+        assert m == [b:23, c:'back']
+        assert base == [a:'1', b:'2', c:'3']
+        m.clear()
+        assert m.isEmpty() && m.getRemovedKeys() == ['a','b','c'] as Set
+    }
+
+    public void testParallelRecords(){
+        def lines = (1..5000).collect{ "line $it" }
+        def text = lines.join('\n')
+        def task = new ParallelRecords.Task(){
+            void process(List<String> records, long index, OutputStream out){
+                if(records.size()>1 && index%3==0)Thread.sleep(1)
+                records.eachWithIndex{ r, i-> out.write("${index+i}:${r.toUpperCase()}\n".getBytes("UTF-8")) }
+            }
+        }
+        def expected = lines.withIndex().collect{ r, i-> "$i:${r.toUpperCase()}\n" }.join()
+        [[:], [parallel:4], [parallel:3, chunkSize:7], [parallel:2, chunkSize:1]].each{ opts->
+            def out = new ByteArrayOutputStream()
+            new ParallelRecords(opts).run(new BufferedReader(new StringReader(text)), out, task)
+            assert out.toString("UTF-8") == expected
+        }
+        //the first error stops processing
+        def failing = new ParallelRecords.Task(){
+            void process(List<String> records, long index, OutputStream out){
+                if(index==700)throw new IOException("chunk $index")
+            }
+        }
+        def e = shouldFail(IOException){
+            new ParallelRecords(parallel:4, chunkSize:100).run(new BufferedReader(new StringReader(text)), new ByteArrayOutputStream(), failing)
+        }
+        assert e == 'chunk 700'
+        //errors are rethrown as is
+        def error = new ParallelRecords.Task(){
+            void process(List<String> records, long index, OutputStream out){
+                if(index==700)throw new OutOfMemoryError("chunk $index")
+            }
+        }
+        e = shouldFail(OutOfMemoryError){
+            new ParallelRecords(parallel:4, chunkSize:100).run(new BufferedReader(new StringReader(text)), new ByteArrayOutputStream(), error)
+        }
+        assert e == 'chunk 700'
+        shouldFail(IllegalArgumentException){ new ParallelRecords(parallel:0) }
+        assert new ParallelRecords(parallel:2, chunkSize:7).run(new BufferedReader(new StringReader(text)), new ByteArrayOutputStream(), task) == 5000
+    }
+
+    /** runs script with ExecuteGroovyScript over all inputs enqueued at once. input: content or [content, attributes] */
+    private TestRunner runScript(String script, List inputs){
+        TestRunner runner = TestRunners.newTestRunner(new ExecuteGroovyScript())
+        runner.setValidateExpressionUsage(false)
+        runner.setProperty(ExecuteGroovyScript.SCRIPT_BODY, script)
+        inputs.each{ input->
+            def (content, attrs) = input instanceof List ? input : [input, [:]]
+            runner.enqueue(content instanceof byte[] ? content : content.toString().getBytes("UTF-8"), attrs)
+        }
+        runner.run()
+        return runner
+    }
+
+    public void testRecordsEncoding(){
+        def lines = (1..20).collect{ "{\"id\":$it}\n" }
+        ['UTF-16', 'x-UTF-16LE-BOM', 'windows-1251'].each{enc->
+            [1, 3].each{parallel->
+                //chunks without output lines, and flowfile without output
+                [ 'id%3!=1':{it%3!=1}, 'id>3':{it>3}, 'false':{false} ].each{cond, keep->
+                    def expected = (1..20).findAll{ keep(it) }.collect{ lines[it-1] }.join('')
+                    [
+                        "withLines(encoding:'$enc', parallel:$parallel, chunkSize:3){line-> def id = line.replaceAll(/\\D/, '') as int; $cond ? line : null }",
+                        "withJsonLines(encoding:'$enc', parallel:$parallel, chunkSize:3){rec-> def id = rec.id; $cond ? rec : null }",
+                    ].each{worker->
+                        def runner = runScript("""
+                            import static groovyx.acme.nifi.AcmeNiFi.*
+                            withFlowFile(this).$worker
+                        """, [lines.join('').getBytes(enc)])
+                        def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+                        //the same bytes as one writer: the byte order mark only at the start and only for non-empty output
+                        assert f.toByteArray() == (expected ? expected.getBytes(enc) : new byte[0]) : "$enc $parallel $cond $worker"
+                    }
+                }
+            }
+        }
+    }
+
+    public void testWithStreams(){
+        ["withStreams{sin, sout-> sout << sin.getText('UTF-8').toUpperCase().getBytes('UTF-8') }",
+         "withStreams{sin, sout, attr-> attr.case = 'upper'; sout << sin.getText('UTF-8').toUpperCase().getBytes('UTF-8') }"].each{worker->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).$worker
+            """, ['carpe vinum'])
+            def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+            assert new String(f.toByteArray(), "UTF-8") == 'CARPE VINUM'
+            if(worker.contains('attr'))f.assertAttributeEquals('case', 'upper')
+        }
+        //common options
+        def gz = new ByteArrayOutputStream()
+        new GZIPOutputStream(gz).withStream{ it << 'carpe vinum'.getBytes('UTF-8') }
+        def runner = runScript("""
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withStreams(decompress:true, compress:'deflate', hash:'crc32'){sin, sout-> sout << sin.getText('UTF-8').toUpperCase().getBytes('UTF-8') }
+        """, [[gz.toByteArray(), ['mime.type':'application/gzip']]])
+        def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+        assert new java.util.zip.InflaterInputStream(new ByteArrayInputStream(f.toByteArray())).getText('UTF-8') == 'CARPE VINUM'
+        f.assertAttributeEquals('hash.algorithm', 'crc32')
+        f.assertAttributeEquals('mime.type', 'application/x-deflate')
+    }
+
+    public void testContentSlice(){
+        def runner = runScript("""
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withStream{sin-> asSlice(6, 5) }
+        """, ['carpe vinum'])
+        def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+        assert new String(f.toByteArray(), "UTF-8") == 'vinum'
+        //the slice is a clone and the original is removed. mock session copies `uuid` attribute into clone, so check the flowfile id.
+        runner.assertTransferCount(ExecuteGroovyScript.REL_SUCCESS, 1)
+        assert f.getId() == 1
+        //the input is returned untouched: the same flowfile
+        runner = runScript("""
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withStream{sin-> sin }
+        """, ['carpe vinum'])
+        f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+        assert new String(f.toByteArray(), "UTF-8") == 'carpe vinum'
+        assert f.getId() == 0
+    }
+
+    public void testBatchParallel(){
+        def gzip = { String s->
+            def out = new ByteArrayOutputStream()
+            new GZIPOutputStream(out).withStream{ it.write(s.getBytes("UTF-8")) }
+            out.toByteArray()
+        }
+        def inputs = (0..<40).collect{ i->
+            String json = JsonOutput.toJson([id:i, values:(0..i).collect{it}])
+            //every third flowfile is compressed: its size must not be taken from in-memory content
+            i%3==0 ? [gzip(json), ['mime.type':'application/gzip']] : json
+        }
+        [
+            "withFlowFiles(this, max:100, parallel:4, maxInFlightBytes:200)",
+            "withFlowFiles(this, max:100, parallel:3, executor:java.util.concurrent.ForkJoinPool.commonPool())",
+        ].each{ batch->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                ${batch}.withJson(decompress:true, largeSize:200){json,attr->
+                    if(json.id%5==4)return null
+                    attr.thread = Thread.currentThread().getName()
+                    return [id:json.id, total:json.values.sum()]
+                }
+            """, inputs)
+            def out = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)
+            def expected = (0..<40).findAll{ it%5!=4 }
+            assert out.size() == expected.size()
+            out.eachWithIndex{ f, n->
+                int i = expected[n]
+                assert new String(f.toByteArray(), "UTF-8") == JsonOutput.toJson([id:i, total:(0..i).sum()]) : batch
+                //decompressed output has no mime.type
+                assert f.getAttribute('mime.type') == null
+                assert f.getAttribute('thread') != Thread.currentThread().getName()
+            }
+            assert runner.getCounterValue("AcmeNiFi batch flowfiles") == 40
+        }
+    }
+
+    public void testExtensions(){
+        //registered services
+        assert Extensions.newWorker('withJsonReader') instanceof groovyx.acme.nifi.worker.withJsonReader.WithJsonReader
+        assert Extensions.newWriter('asTemplate') instanceof groovyx.acme.nifi.writer.asTemplate.AsTemplate
+        //each call creates a new instance
+        assert !Extensions.newWorker('withLines').is(Extensions.newWorker('withLines'))
+        //unknown names and classes of wrong type are resolved to null (and the miss is cached)
+        2.times{
+            assert Extensions.newWorker('withNothing') == null
+            assert Extensions.newWriter('asNothing') == null
+        }
+        assert Extensions.newWriter('withLines') == null
+        shouldFail(IllegalStateException){ Extensions.registerWorker('withNoConstructor', NoConstructorWorker) }
+        //the cache of misses is bounded
+        (Extensions.MAX_MISSES + 10).times{ assert Extensions.newWriter("asMissing$it") == null }
+        assert Extensions.writerMisses.size() <= Extensions.MAX_MISSES
+        //cached miss could be registered later
+        assert Extensions.newWorker('withUpperCase') == null
+
+        //registered worker is called from script as `withXxx`
+        Extensions.registerWorker('withUpperCase', WithUpperCase)
+        def runner = runScript('''
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withUpperCase()
+        ''', ["carpe vinum"])
+        assert runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS).collect{ new String(it.toByteArray(), "UTF-8") } == ["CARPE VINUM"]
+        def e = shouldFail(MissingMethodException){ new FlowFileWorker(null, null, null).withNothing() }
+        assert e.contains('withNothing')
+    }
+
+    public void testMetrics(){
+        def m = new WorkerMetrics()
+        def sin = m.countIn(new ByteArrayInputStream(new byte[100]))
+        sin.read()
+        sin.read(new byte[10])
+        sin.skip(20)
+        def sout = m.countOut(new ByteArrayOutputStream())
+        sout.write(1)
+        sout.write(new byte[5], 1, 3)
+        m.addRecords(3)
+        m.parseNanos = 10
+        assert m.toMap() == ['total.nanos':0L, 'parse.nanos':10L, 'bytes.in':31L, 'bytes.out':4L, records:3L]
+
+        def counters = [:]
+        def reported = []
+        def session = [
+            adjustCounter: { name, delta, immediate-> counters[name] = delta },
+            putAllAttributes: { ff, a-> reported << a; ff },
+        ] as org.apache.nifi.processor.ProcessSession
+        assert Metrics.create('withJson', null) == null
+        assert Metrics.create('withJson', false) == null
+        Metrics.create('withJson', true).report(session, null, m)
+        assert counters == ['AcmeNiFi withJson parse.nanos':10L, 'AcmeNiFi withJson bytes.in':31L, 'AcmeNiFi withJson bytes.out':4L, 'AcmeNiFi withJson records':3L]
+        assert reported.isEmpty()
+        counters.clear()
+        def sink = []
+        Metrics.create('withLines', [counters:false, attributes:'m.', sink:{w, ff, values-> sink << w << values.records}]).report(session, null, m)
+        assert counters.isEmpty()
+        assert reported == [['m.total.nanos':'0', 'm.parse.nanos':'10', 'm.bytes.in':'31', 'm.bytes.out':'4', 'm.records':'3']]
+        assert sink == ['withLines', 3L]
+        shouldFail(IllegalArgumentException){ Metrics.create('withJson', 'yes') }
+    }
+
+    public void testCompression(){
+        def text = "carpe vinum\n"*1000
+        def flowFile = { Map a-> [getSize:{ 100L }, getAttribute:{ a[it] }] as org.apache.nifi.flowfile.FlowFile }
+        def roundTrip = { Compression c, Map attrs, Compression.Codec output->
+            def out = new ByteArrayOutputStream()
+            def z = c.compress(out, output)
+            z.write(text.getBytes("UTF-8"))
+            z.close()
+            def sin = Compression.markable(new ByteArrayInputStream(out.toByteArray()))
+            def codec = c.detect(sin, flowFile(attrs))
+            assert Compression.decompress(sin, codec).getText("UTF-8") == text
+            return codec
+        }
+        assert Compression.create(null, false, 9) == null
+        def c = Compression.create(true, true, 9)
+        Compression.Codec.values().each{ codec->
+            assert roundTrip(c, codec==Compression.Codec.DEFLATE ? ['mime.type':'application/zlib'] : [:], codec) == codec
+            assert c.output(codec) == codec
+        }
+        //zlib header is not detected by magic bytes: `x^` passes its check
+        assert c.detect(Compression.markable(new ByteArrayInputStream('x^2 + y^2'.getBytes("UTF-8"))), flowFile([:])) == Compression.Codec.NONE
+        //mime.type has priority over magic bytes
+        shouldFail(java.util.zip.ZipException){ roundTrip(c, ['mime.type':'application/x-gzip'], Compression.Codec.DEFLATE) }
+        assert Compression.create(false, 'gzip', null).output(Compression.Codec.DEFLATE) == Compression.Codec.GZIP
+        assert Compression.create('deflate', null, null).detect(new ByteArrayInputStream(new byte[2]), flowFile([:])) == Compression.Codec.DEFLATE
+        shouldFail(IllegalArgumentException){ Compression.create('bzip2', null, null) }
+        shouldFail(IllegalArgumentException){ Compression.create(true, true, 10) }
+
+        def attr = new ControlMap(['mime.type':'application/gzip'])
+        Compression.updateMimeType(attr, Compression.Codec.GZIP, Compression.Codec.NONE)
+        assert attr == [:]
+        attr = new ControlMap(['mime.type':'application/json'])
+        Compression.updateMimeType(attr, Compression.Codec.NONE, Compression.Codec.DEFLATE)
+        assert attr == ['mime.type':'application/x-deflate']
+        attr = new ControlMap([:])
+        attr.'mime.type' = 'text/csv'
+        Compression.updateMimeType(attr, Compression.Codec.NONE, Compression.Codec.GZIP)
+        assert attr == ['mime.type':'text/csv']
+    }
+
+    public void testContentHash(){
+        def bytes = "123456789".getBytes("UTF-8")
+        def hash = { option, Closure write->
+            def h = ContentHash.create(option)
+            def out = new ByteArrayOutputStream()
+            def s = h.wrap(out)
+            write(s)
+            assert out.toByteArray() == bytes
+            def attr = new ControlMap([:])
+            h.putAttributes(attr, s)
+            return attr
+        }
+        //standard check values
+        assert hash('crc32c'){ it.write(bytes) } == ['hash.algorithm':'crc32c', 'hash.value':'e3069283', 'hash.size':'9']
+        assert hash('CRC32'){ s-> bytes.each{ s.write(it) } }.'hash.value' == 'cbf43926'
+        assert hash([algorithm:'crc32c', attributes:'h.']){ s-> s.write(bytes, 0, 4); s.write(bytes[4]); s.write(bytes, 5, 4) }.'h.value' == 'e3069283'
+        assert hash('SHA-256'){ it.write(bytes) }.'hash.value' == '15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225'
+        assert ContentHash.create(null) == null
+        assert ContentHash.create(false) == null
+        shouldFail(IllegalArgumentException){ ContentHash.create('SHA-3000') }
+        shouldFail(IllegalArgumentException){ ContentHash.create([attributes:'h.']) }
+    }
+
+    public void testStreamCopy(){
+        def bytes = new byte[200000]
+        new Random(1).nextBytes(bytes)
+        def out = new ByteArrayOutputStream()
+        assert IOUtils.copy(new ByteArrayInputStream(bytes), out) == bytes.length
+        assert out.toByteArray() == bytes
+        def sin = new ByteArrayInputStream(bytes)
+        IOUtils.skipFully(sin, 70000)
+        out.reset()
+        assert IOUtils.copy(sin, out, 100000) == 100000
+        assert out.toByteArray() == bytes[70000..<170000] as byte[]
+        shouldFail(EOFException){ IOUtils.skipFully(sin, 40000) }
+        assert new ContentSlice(10, -1).size == -1
+        shouldFail(IllegalArgumentException){ new ContentSlice(-1, 10) }
+        shouldFail(IllegalArgumentException){ new ContentSlice(0, -2) }
+    }
+
+    public void testEncodingWriter(){
+        def rnd = new Random(1)
+        def chunks = ["abc", "\u0436\u0438\u0442\u0438", "\ud83d\ude00", "\ud83d", "x\ude00", "\u00e9", "\n"]
+        def text = new StringBuilder()
+        while(text.length()<50000)text.append(chunks[rnd.nextInt(chunks.size())])
+        //surrogate pair split by the buffer boundary
+        text.insert(8191, "\ud83d\ude00")
+        String s = text.toString()
+        ["UTF-8", "US-ASCII", "ISO-8859-1", "UTF-16", "windows-1251"].each{enc->
+            def expected = new ByteArrayOutputStream()
+            new OutputStreamWriter(expected, enc).withWriter{ it.write(s) }
+            [1, 7, 8192, 100000].each{step->
+                def actual = new ByteArrayOutputStream()
+                def w = new EncodingWriter(actual, enc)
+                for(int i=0; i<s.length(); i+=step)w.write(s, i, Math.min(step, s.length()-i))
+                w.close()
+                assert actual.toByteArray() == expected.toByteArray() : "$enc step=$step"
+            }
+            //flush before close, and empty content with and without flush
+            def actual = new ByteArrayOutputStream()
+            def w = new EncodingWriter(actual, enc)
+            w.write(s, 0, 100)
+            w.flush()
+            w.write(s, 100, s.length()-100)
+            w.flush()
+            w.close()
+            assert actual.toByteArray() == expected.toByteArray() : "$enc flush"
+            [false, true].each{flush->
+                def empty = new ByteArrayOutputStream()
+                new OutputStreamWriter(empty, enc).withWriter{ if(flush)it.flush() }
+                actual = new ByteArrayOutputStream()
+                w = new EncodingWriter(actual, enc)
+                if(flush)w.flush()
+                w.finish()
+                assert actual.toByteArray() == empty.toByteArray() : "$enc empty flush=$flush"
+            }
+        }
+        //end to end with non-utf charsets
+        ["\u0436\u0438\u0442\u0438", ""].each{txt->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).withReadWriter(encoding:'windows-1251'){r,w-> w << r.text.toUpperCase() }
+            """, [txt.getBytes("windows-1251")])
+            def out = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)
+            assert new String(out[0].toByteArray(), "windows-1251") == txt.toUpperCase()
+        }
+        def runner = runScript("""
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withJson(encoding:'UTF-16'){json,attr-> json }
+        """, ['{"a":"\u0436"}'.getBytes("UTF-16")])
+        def out = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)
+        assert new String(out[0].toByteArray(), "UTF-16") == '{"a":"\\u0436"}'
+    }
+
+    public void testDecodingReader(){
+        def rnd = new Random(1)
+        def chunks = ["abc", "\u0436\u0438\u0442\u0438", "\ud83d\ude00", "\u00e9", "\n", "\r\n", "\r", ""]
+        def text = new StringBuilder()
+        while(text.length()<50000)text.append(chunks[rnd.nextInt(chunks.size())])
+        String s = text.toString()
+        int defaultSize = IOUtils.getBufferSize()
+        try {
+            [16, 8192].each{size->
+                IOUtils.setBufferSize(size)
+                ["UTF-8", "US-ASCII", "ISO-8859-1", "UTF-16", "windows-1251"].each{enc->
+                    byte[] bytes = s.getBytes(enc)
+                    if(enc=="UTF-8")bytes = (bytes.toList() + [0xd0, 0x41, 0xf0, 0x9f]) as byte[] //malformed and incomplete sequences
+                    def expected = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), enc))
+                    def actual = IOUtils.toReader(new ByteArrayInputStream(bytes), enc)
+                    assert actual instanceof DecodingReader
+                    assert actual.text == new InputStreamReader(new ByteArrayInputStream(bytes), enc).text : "$enc size=$size"
+                    actual = IOUtils.toReader(new ByteArrayInputStream(bytes), enc)
+                    def line
+                    int n = 0
+                    while( (line = expected.readLine())!=null ){
+                        assert actual.readLine() == line : "$enc size=$size line=$n"
+                        //mix single char reads, skips, and mark/reset with lines
+                        if(n%7==0){
+                            expected.mark(100)
+                            actual.mark(100)
+                            def e = expected.read()
+                            assert actual.read() == e
+                            if(e!=-1){
+                                assert actual.skip(30) == expected.skip(30)
+                                expected.reset()
+                                actual.reset()
+                            }
+                        }
+                        n++
+                    }
+                    assert actual.readLine() == null
+                    assert actual.read() == -1
+                    actual.close()
+                    shouldFail(IOException){ actual.read() }
+                    //lines with terminators give the same text, `\r\n` on buffer boundary is one terminator
+                    actual = IOUtils.toReader(new ByteArrayInputStream(bytes), enc)
+                    def all = new StringBuilder()
+                    int lines = 0
+                    while(actual.readLine(all))lines++
+                    assert all.toString() == new InputStreamReader(new ByteArrayInputStream(bytes), enc).text : "$enc size=$size"
+                    assert lines == n
+                    assert !actual.readLine(all)
+                }
+                //streaming json parser expects reads that fill its buffer
+                def json = (1..2000).collect{[id:it, flag:it%2==0, txt:"\u0436\u0438\u0442\u0438"]}
+                def parser = new JsonSlurper().setType(groovy.json.JsonParserType.CHARACTER_SOURCE)
+                assert parser.parse(IOUtils.toReader(new ByteArrayInputStream(JsonOutput.toJson(json).getBytes("UTF-8")), "UTF-8")) == json
+            }
+        }finally {
+            IOUtils.setBufferSize(defaultSize)
+        }
+        assert IOUtils.charset("windows-1251").is(IOUtils.charset("windows-1251"))
+        shouldFail(UnsupportedEncodingException){ IOUtils.toReader(new ByteArrayInputStream(new byte[0]), "no-such-charset") }
+    }
+
+    public void testTemplateCache(){
+        TemplateCache.clear()
+        def s0 = TemplateCache.getStats()
+        def text = 'hello <%= name %>'
+        def t = TemplateCache.get('%', text)
+        assert t.make([name:'world']).toString() == 'hello world'
+        assert TemplateCache.get('%', new String(text)).is(t)
+        assert !TemplateCache.get('&', text).is(t)
+        def s1 = TemplateCache.getStats()
+        assert s1.size == 2
+        assert s1.hits - s0.hits == 1
+        assert s1.misses - s0.misses == 2
+        //the same template requested concurrently is compiled once
+        def pool = Executors.newFixedThreadPool(8)
+        def concurrent = 'concurrent <%= name %>'
+        def results = (1..32).collect{ pool.submit({ TemplateCache.get('%', concurrent) } as java.util.concurrent.Callable) }*.get()
+        pool.shutdown()
+        assert results.every{ it.is(results[0]) }
+        assert TemplateCache.getStats().misses - s1.misses == 1
+        //least recently used template evicted
+        TemplateCache.get('%', text)
+        TemplateCache.setLimits(2, 1000)
+        assert TemplateCache.getStats().size == 2
+        assert TemplateCache.get('%', text).is(t)
+        TemplateCache.setLimits(256, 16L*1024*1024)
+        TemplateCache.clear()
+    }
+
+    public void testTemplateBinding(){
+        def binding = [items:[1, 'a']]
+        def w = Extensions.newWriter('asTemplate')
+        w.init([[binding:binding, template:'<% total = items.size() %><%= total %>:<%= asJson(items) %>']] as Object[])
+        def out = new ByteArrayOutputStream()
+        w.streamTo(out)
+        assert out.toString('UTF-8') == '2:[1,"a"]'
+        //template writes into caller binding, helpers are not added to it
+        assert binding == [items:[1, 'a'], total:2]
+        //caller variable hides helper
+        binding.asJson = 'own'
+        out.reset()
+        w.init([[binding:binding, template:'<%= asJson %>']] as Object[])
+        w.streamTo(out)
+        assert out.toString('UTF-8') == 'own'
+        //no binding
+        out.reset()
+        w.init([[template:'<%= asJson([a:1]) %>']] as Object[])
+        w.streamTo(out)
+        assert out.toString('UTF-8') == '{"a":1}'
+    }
+
+    public void testTemplateRepository(){
+        def dir = File.createTempDir()
+        try{
+            def f = new File(dir, 'a.tpl')
+            f.text = 'a=<%= x %>'
+            def repo = new TemplateRepository(dir:dir, checkInterval:0)
+            def t = repo.get('a.tpl')
+            assert t.make([x:1]).toString() == 'a=1'
+            assert repo.get('a.tpl').is(t)
+            f.text = 'a2=<%= x %>'
+            f.setLastModified(f.lastModified()-10000)
+            assert repo.get('a.tpl').make([x:2]).toString() == 'a2=2'
+            //the check is throttled
+            repo = new TemplateRepository(dir:dir.path, checkInterval:60000)
+            t = repo.get('a.tpl')
+            f.text = 'a3=<%= x %>'
+            assert repo.get('a.tpl').is(t)
+            shouldFail(IllegalArgumentException){ repo.get('../a.tpl') }
+            shouldFail(IllegalArgumentException){ repo.get('missing.tpl') }
+            //least recently used template evicted
+            new File(dir, 'b.tpl').text = 'b'
+            new File(dir, 'c.tpl').text = 'c'
+            repo = new TemplateRepository(dir:dir, checkInterval:60000, maxEntries:2)
+            t = repo.get('a.tpl')
+            def b = repo.get('b.tpl')
+            assert repo.get('a.tpl').is(t)
+            repo.get('c.tpl')
+            assert repo.get('a.tpl').is(t)
+            assert !repo.get('b.tpl').is(b)
+            //weight limit keeps at least the most recent template
+            repo = new TemplateRepository(dir:dir, checkInterval:60000, maxWeight:1)
+            t = repo.get('a.tpl')
+            assert repo.get('a.tpl').is(t)
+            repo.get('b.tpl')
+            assert !repo.get('a.tpl').is(t)
+            shouldFail(IllegalArgumentException){ new TemplateRepository(maxEntries:0) }
+        }finally{
+            dir.deleteDir()
+        }
+    }
+
+    public void testXmlToStream(){
+        def docs = [
+            '<a/>',
+            '<a>text &amp; "q" \'s\' &lt;x&gt;</a>',
+            '<a x="1 &quot;2&quot; &amp; &lt;3&gt; &#10;"><b/><c>c1</c>mixed<d><e y="z">e1</e></d></a>',
+            '<r xmlns="urn:d" xmlns:p="urn:p"><p:a p:x="1" y="2"><b>t</b></p:a><p:c/><x xmlns="urn:x"><y/></x></r>',
+            '<root>' + (1..50).collect{ "<item id='$it'><txt>phrase \u0436 $it</txt><empty/></item>" }.join('') + '</root>',
+            (1..100).inject('<z/>'){ s, i-> "<n$i a='$i'>$s</n$i>" }
+        ]
+        docs.each{xml->
+            [true, false].each{ns->
+                def node = new XmlParser(false, ns).parseText(xml)
+                //simple value instead of children list
+                node.appendNode('v', [k:'v'], 'simple <value>')
+                [true, false].each{indent->
+                    def expected = legacyXmlToStream(node, indent)
+                    def out = new ByteArrayOutputStream()
+                    XmlUtils.toStream(node, out, "UTF-8", false, indent)
+                    assert out.toString("UTF-8") == expected
+                }
+                //the same output for XmlSlurper result without modifications
+                def gpath = new XmlSlurper(false, ns).parseText(xml)
+                def out = new ByteArrayOutputStream()
+                XmlUtils.toStream(gpath, out, "UTF-8", true, true)
+                if(xml.contains('xmlns')){
+                    //XmlNodePrinter writes QName attributes of namespace aware Node as is, generated prefixes and attribute order could differ,
+                    //so compare the parsed result
+                    def sig = { g-> g.'**'.collect{ [it.namespaceURI(), it.name(), it.attributes(), it.text()] } }
+                    assert sig(new XmlSlurper(false, ns).parseText(out.toString("UTF-8"))) == sig(gpath)
+                }else{
+                    def expected = new ByteArrayOutputStream()
+                    XmlUtils.toStream(new XmlParser(false, ns).parseText(xml), expected, "UTF-8", false, true)
+                    assert out.toString("UTF-8") == '<?xml version="1.0" encoding="UTF-8"?>' + expected.toString("UTF-8").replaceFirst(/(?<!\n)\z/, '\n')
+                    //framed as XmlUtil.serialize, that also indents mixed content
+                    if(!xml.contains('mixed'))assert out.toString("UTF-8") == groovy.xml.XmlUtil.serialize(gpath).replace(System.lineSeparator(), '\n')
+                }
+            }
+        }
+        //modified GPathResult: pending modifications applied by the slurper nodes
+        def gpath = new XmlSlurper().parseText('<a><b>1</b><d x="y"/></a>')
+        gpath.b.replaceNode{ c(k:'v', '2'){ e('3') } }
+        gpath.appendNode{ f('4 & 5') }
+        def out = new ByteArrayOutputStream()
+        XmlUtils.toStream(gpath, out, "UTF-8", false, false)
+        assert out.toString("UTF-8") == '<a><c k="v">2<e>3</e></c><d x="y"/><f>4 &amp; 5</f></a>\n'
+        gpath = new XmlSlurper(false, true).parseText('<r xmlns:p="urn:p"><p:a p:x="1">t</p:a></r>')
+        gpath.a.replaceNode{ b('u') }
+        out = new ByteArrayOutputStream()
+        XmlUtils.toStream(gpath, out, "UTF-8", false, false)
+        assert out.toString("UTF-8") == '<r><b>u</b></r>\n'
+        gpath = new XmlSlurper(false, true).parseText('<r xmlns:p="urn:p"><p:a p:x="1">t</p:a></r>')
+        out = new ByteArrayOutputStream()
+        XmlUtils.toStream(gpath, out, "UTF-8", false, false)
+        assert out.toString("UTF-8") == '<r><p:a xmlns:p="urn:p" p:x="1">t</p:a></r>\n'
+        //withXml keeps XmlUtil.serialize defaults for GPathResult
+        def runner = runScript('''
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withXml(parser:new XmlSlurper()){xml-> xml }
+        ''', ['<a><b>1</b></a>'])
+        runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0].assertContentEquals('<?xml version="1.0" encoding="UTF-8"?><a>\n  <b>1</b>\n</a>\n')
+        runner = runScript('''
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).withXml(parser:new XmlSlurper(), xmlDeclaration:false, indent:false){xml-> xml }
+        ''', ['<a><b>1</b></a>'])
+        runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0].assertContentEquals('<a><b>1</b></a>\n')
+    }
+
+    /** XmlUtils.toStream implementation based on XmlNodePrinter to compare with */
+    private String legacyXmlToStream(Node node, boolean indent){
+        def w = new StringWriter()
+        def noNewLines = [true]
+        def pw = new IndentPrinter(w, indent?"  ":"", indent){
+            @Override
+            public void println() {
+                if (indent && (noNewLines[0] || getIndentLevel()>0)) {
+                    print('\n' as char)
+                    noNewLines[0] = false
+                }
+            }
+        }
+        def printer = new XmlNodePrinter(pw)
+        printer.setPreserveWhitespace(true)
+        printer.print(node)
+        pw.flush()
+        return w.toString()
+    }
+
+    public void testJsonToXml(){
+        def script = """
+            import static groovyx.acme.nifi.AcmeNiFi.*
+            withFlowFile(this).jsonToXml()
+        """
+        def runner = runScript(script, ['{"r":{"@a-1":"x","b.c":1,"_d":[true,null],"\u0436":"\u0436"}}'])
+        def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+        assert new String(f.toByteArray(), "UTF-8") == '<r a-1="x"><b.c>1</b.c><_d>true</_d><_d/><\u0436>\u0436</\u0436></r>'
+        //json keys that are not xml names
+        ['{"r":{"a b":1}}', '{"r":{"1x":2}}', '{"r":{"@1x":2}}', '{"r":{"":3}}'].each{json->
+            def e = shouldFail{ runScript(script, [json]) }
+            assert e.contains('is not a valid xml') : json
+        }
+        //characters not allowed in xml
+        ['{"r":"a\\u0000"}', '{"r":{"@a":"\\u0001"}}', '{"r":{"#text":"\\uFFFF"}}', '{"r":["\\ud800x"]}'].each{json->
+            def e = shouldFail{ runScript(script, [json]) }
+            assert e.contains('not allowed in xml') : json
+        }
+        runner = runScript(script, ['{"r":"\\t\\n\\ud83d\\ude00"}'])
+        f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+        assert new String(f.toByteArray(), "UTF-8") == '<r>\t\n\ud83d\ude00</r>'
+        //no root element
+        assert shouldFail{ runScript(script, ['{}']) }.contains('json object has no keys')
+    }
+
+    public void testSplitLines(){
+        def split = { String opts, String content->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).splitLines($opts)
+            """, [[content, [filename:'src.txt']]])
+            def files = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)
+            files.eachWithIndex{ f, i->
+                f.assertAttributeEquals('fragment.index', "$i")
+                f.assertAttributeEquals('fragment.count', "${files.size()}")
+                f.assertAttributeEquals('segment.original.filename', 'src.txt')
+            }
+            return files.collect{ new String(it.toByteArray(), "UTF-8") }
+        }
+        //header counts into maxBytes, a line longer then maxBytes goes into its own flowfile, the last line without terminator
+        def text = 'h\na\nbb\ncccccccccc\nd\ne'
+        assert split('maxBytes:8, header:1', text) == ['h\na\nbb\n', 'h\ncccccccccc\n', 'h\nd\ne']
+        assert split('maxBytes:8, lines:1, header:1', text) == ['h\na\n', 'h\nbb\n', 'h\ncccccccccc\n', 'h\nd\n', 'h\ne']
+        assert split('lines:2', 'a\r\nb\r\nc\r\n') == ['a\r\nb\r\n', 'c\r\n']
+        //lines longer then read buffer
+        def big = 'x' * 100000
+        assert split('maxBytes:10, header:1', "h\n$big\ny\n$big") == ["h\n$big\n", 'h\ny\n', "h\n$big"]
+        assert split('maxBytes:1000000', "$big\n$big\n") == ["$big\n$big\n"]
+        //only header
+        assert split('lines:1, header:1', 'h\n') == []
+        shouldFail{ split('header:1', text) }
+        shouldFail{ split('maxBytes:0', text) }
+    }
+
+    public void testXmlToJson(){
+        def convert = { String opts, String xml->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).xmlToJson($opts)
+            """, [xml])
+            return new String(runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0].toByteArray(), "UTF-8")
+        }
+        assert convert("arrays:['i']", '<r x="1"><i>a</i><i>b</i><n/><c><i>c</i></c></r>') ==
+            '{"r":{"@x":"1","i":["a","b"],"n":null,"c":{"i":["c"]}}}'
+        //repeated elements not listed in arrays, adjacent or not
+        assert shouldFail{ convert('[:]', '<r><a>1</a><a>2</a></r>') }.contains('Element `a` repeated in `r`')
+        assert shouldFail{ convert('[:]', '<r><a>1</a><b/><a>2</a></r>') }.contains('Element `a` repeated in `r`')
+        assert shouldFail{ convert("arrays:['i']", '<r><a>1</a><i/><a>2</a></r>') }.contains('Element `a` repeated in `r`')
+        //the same name in different parents is not a repeat
+        assert convert('[:]', '<r><a><b>1</b></a><c><b>2</b></c></r>') == '{"r":{"a":{"b":"1"},"c":{"b":"2"}}}'
+        //array elements must be contiguous
+        assert shouldFail{ convert("arrays:['i']", '<r><i>1</i><b/><i>2</i></r>') }.contains('Elements `i` in `r` are separated by other elements')
+        assert shouldFail{ convert('arrays:true', '<r><i>1</i><b/><i>2</i></r>') }.contains('Elements `i` in `r` are separated by other elements')
+        assert convert('arrays:true', '<r><i>1</i><i>2</i><b/></r>') == '{"r":{"i":["1","2"],"b":[null]}}'
+    }
+
+    public void testXmlReader(){
+        def xml = '<a><b>1</b><c><b>2</b><d>3</d></c><b>4</b></a>'
+        def read = { String opts, String filters, String source->
+            def runner = runScript("""
+                import static groovyx.acme.nifi.AcmeNiFi.*
+                withFlowFile(this).withXmlReader($opts){attr->
+                    def paths = []
+                    $filters
+                    onEOF{ attr.paths = paths.join(',') }
+                    return asXmlWriter()
+                }
+            """, [source])
+            def f = runner.getFlowFilesForRelationship(ExecuteGroovyScript.REL_SUCCESS)[0]
+            return [new String(f.toByteArray(), "UTF-8").replaceFirst(/^<\?xml[^>]*>\n/, ''), f.getAttribute('paths'), f]
+        }
+        //absolute path: nested element with the same name is not matched, returned node replaces the element
+        def (out, paths) = read('[:]', "onElement('/a/b'){node, path-> paths << path; node.value = 'x' + node.text(); node }", xml)
+        assert out == '<a><b>x1</b><c><b>2</b><d>3</d></c><b>x4</b></a>'
+        assert paths == '/a/b,/a/b'
+        //any level, null removes the element
+        (out, paths) = read('[:]', "onElement('//b'){node, path-> paths << path; null }", xml)
+        assert out == '<a><c><d>3</d></c></a>'
+        assert paths == '/a/b,/a/c/b,/a/b'
+        //any name in path; the first matched filter wins and matched element is not searched further
+        (out, paths) = read('[:]', "onElement('/a/*/b'){node, path-> paths << path; null }\n onElement('/a/*'){node, path-> paths << path; node }", xml)
+        assert out == xml
+        assert paths == '/a/b,/a/c,/a/b'
+        (out, paths) = read('[:]', "onElement('//*'){node, path-> paths << path; node }", xml)
+        assert out == xml
+        assert paths == '/a'
+
+        //namespaces: path of local names, matched node keeps its namespace
+        def ns = '<r xmlns="urn:d" xmlns:p="urn:p"><p:x p:k="v">1</p:x><y>2</y></r>'
+        (out, paths) = read('[:]', "onElement('/r/x'){node, path-> paths << path + '=' + node.name().namespaceURI; node.value = 'z'; node }", ns)
+        assert paths == '/r/x=urn:p'
+        assert new XmlSlurper().parseText(out).declareNamespace(p:'urn:p').'p:x'.text() == 'z'
+        assert new XmlSlurper().parseText(out).'**'.collect{ [it.namespaceURI(), it.name(), it.attributes(), it.text()] } ==
+            new XmlSlurper().parseText(ns.replace('>1<', '>z<')).'**'.collect{ [it.namespaceURI(), it.name(), it.attributes(), it.text()] }
+        //without namespace awareness prefixes are part of the name
+        (out, paths) = read('[namespaceAware:false]', "onElement('/r/p:x'){node, path-> paths << path; node }", ns)
+        assert paths == '/r/p:x'
+        assert out == ns
+
+        //matched metric
+        def f
+        (out, paths, f) = read('[metrics:[attributes:true, counters:false]]', "onElement('//b'){node-> node }", xml)
+        f.assertAttributeEquals('acme.metrics.matched', '3')
+        shouldFail{ read('[:]', "onElement('a/b'){node-> node }", xml) }
+    }
+
+    public void testXmlParser(){
+        def docs = [
+            '<?xml version="1.0"?><!-- c --><a x="1"> <b>  t1 </b>mixed<![CDATA[ <cdata> ]]><c/> &amp; </a>',
+            '<r xmlns="urn:d" xmlns:p="urn:p"><p:a p:x="1" y="2"><b>t</b></p:a><x xmlns="urn:x"><y/></x></r>'
+        ]
+        [true, false].each{ns->
+            //parser reused within the thread and reset between documents
+            assert XmlUtils.newXmlParser(false, ns).getXMLReader().is( XmlUtils.newXmlParser(false, ns).getXMLReader() )
+            docs.each{xml->
+                def expected = legacyXmlToStream(new XmlParser(false, ns).parseText(xml), false)
+                assert legacyXmlToStream(XmlUtils.newXmlParser(false, ns).parseText(xml), false) == expected
+                assert legacyXmlToStream(XmlUtils.parseNode(new ByteArrayInputStream(xml.getBytes("UTF-8")), ns), false) == expected
+                //failed parsing doesn't break the next one
+                shouldFail{ XmlUtils.newXmlParser(false, ns).parseText('<a><b></a>') }
+                shouldFail{ XmlUtils.newXmlParser(false, ns).parseText('<!DOCTYPE a [<!ENTITY e "x">]><a>&e;</a>') }
+                assert legacyXmlToStream(XmlUtils.newXmlParser(false, ns).parseText(xml), false) == expected
+                shouldFail{ XmlUtils.parseNode(new ByteArrayInputStream('<a><b></a>'.getBytes("UTF-8")), ns) }
+                shouldFail{ XmlUtils.parseNode(new ByteArrayInputStream('<a/><b/>'.getBytes("UTF-8")), ns) }
+                assert legacyXmlToStream(XmlUtils.parseNode(new ByteArrayInputStream(xml.getBytes("UTF-8")), ns), false) == expected
+            }
+        }
+    }
+
+    /** compares the json writer with previous recursive implementation on a large document */
+    //the timing of json writer is measured by jmh `SerializerBenchmark`. here only the output is compared with the previous implementation.
+    public void testJsonWriterLegacyOutput(){
+        def o = (1..2000).collect{[id:it, name:"item \"$it\" \u0436".toString(), price:it*1.25, tags:["a","b","c"], nested:[flag:it%2==0, value:it*1000L]]}
+        [-1,0].each{indent->
+            String legacy = legacyWriteJson(o,indent)
+            def w = new StringWriter()
+            JsonUtils.writeJson(o,w,indent)
+            assert w.toString()==legacy
+            def b = new ByteArrayOutputStream()
+            JsonUtils.writeJson(o,b,indent)
+            assert b.toString("UTF-8")==legacy
+        }
+    }
+
+    /** previous recursive implementation of JsonUtils.writeJson */
+    private static String legacyWriteJson(Object o, int indent){
+        def w = new StringWriter()
+        def newLine = {int i-> if(i!=-1){ w.append('\n'); i.times{ w.append(' ') } } }
+        def writeJson
+        writeJson = {Object v, int i->
+            int cnt=0
+            if(v instanceof Collection){
+                w.append('[')
+                if(i!=-1)i+=2
+                v.each{e-> if(cnt>0)w.append(','); newLine(i); writeJson(e,i); cnt++ }
+                if(i!=-1)i-=2
+                if(cnt>0)newLine(i)
+                w.append(']')
+            }else if(v instanceof Map){
+                w.append('{')
+                if(i!=-1)i+=2
+                v.each{k,e-> if(cnt>0)w.append(','); newLine(i); w.append(JsonOutput.toJson(k.toString())); w.append(':'); writeJson(e,i); cnt++ }
+                if(i!=-1)i-=2
+                if(cnt>0)newLine(i)
+                w.append('}')
+            }else{
+                w.append(JsonOutput.toJson(v))
+            }
+        }
+        writeJson(o,indent)
+        return w.toString()
+    }
     /* moved to examples
     public void testAcmeWritable1(){
         def s = "привет"
@@ -66,3 +1054,20 @@ class AcmeNiFiTest extends GroovyTestCase {
     */
 	public void testFakeMethod(){}
 }
+
+/** external worker registered by testExtensions */
+class WithUpperCase extends ParseTransformWriteContext {
+    @Override
+    protected void invoke(Object[] args){
+        run()
+    }
+    @Override
+    protected Object parse(InputStream sin){
+        return sin.getText("UTF-8").toUpperCase()
+    }
+}
+
+/** worker without public constructor could not be registered */
+class NoConstructorWorker extends ParseTransformWriteContext {
+    private NoConstructorWorker(){}
+}